@@ -0,0 +1,122 @@
+package com.guilhermechapiewski.fluentmail.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.email.EmailBuilder;
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.transport.MessagePrototype;
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+
+/**
+ * Cost of building an {@link EmailMessage}, turning it into a MIME message
+ * and encoding that message, for small and large bodies and few or many
+ * recipients. Run with <code>-prof gc</code> to see allocation rates.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageBuildingBenchmark {
+
+	@Param( { "1024", "1048576" })
+	int bodySize;
+
+	@Param( { "1", "100" })
+	int recipients;
+
+	String body;
+	String[] to;
+	Email email;
+	MessagePrototype prototype;
+	BenchmarkPostalService postalService = new BenchmarkPostalService();
+
+	@Setup
+	public void setup() throws Exception {
+		char[] text = new char[bodySize];
+		for (int i = 0; i < text.length; i++) {
+			text[i] = i % 77 == 76 ? '\n' : (char) ('a' + i % 26);
+		}
+		body = new String(text);
+
+		to = new String[recipients];
+		for (int i = 0; i < recipients; i++) {
+			to[i] = "recipient" + i + "@example.com";
+		}
+
+		email = (Email) build();
+		prototype = postalService.createPrototype(email);
+	}
+
+	@Benchmark
+	public EmailBuilder buildEmail() {
+		return build();
+	}
+
+	@Benchmark
+	public MimeMessage createMessage() throws Exception {
+		return postalService.create(email);
+	}
+
+	@Benchmark
+	public MimeMessage createAndEncodeMessage() throws Exception {
+		MimeMessage message = postalService.create(email);
+		message.writeTo(NullOutputStream.INSTANCE);
+		return message;
+	}
+
+	@Benchmark
+	public MimeMessage encodePrototypeMessage() throws Exception {
+		MimeMessage message = prototype.newMessage(to[0]);
+		message.writeTo(NullOutputStream.INSTANCE);
+		return message;
+	}
+
+	private EmailBuilder build() {
+		return new EmailMessage().from("sender@example.com").to(to).withSubject(
+				"Benchmark subject").withBody(body).withCharset("UTF-8").addHeaders("X-Campaign",
+				"benchmark");
+	}
+
+	/**
+	 * Exposes {@link PostalService#createMessage(Email)}.
+	 */
+	static class BenchmarkPostalService extends PostalService {
+
+		MimeMessage create(Email email) throws MessagingException, IOException {
+			return createMessage(email);
+		}
+	}
+
+	static class NullOutputStream extends OutputStream {
+
+		static final NullOutputStream INSTANCE = new NullOutputStream();
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+}
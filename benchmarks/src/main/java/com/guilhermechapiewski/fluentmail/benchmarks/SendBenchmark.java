@@ -0,0 +1,90 @@
+package com.guilhermechapiewski.fluentmail.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.transport.EmailTransportConfiguration;
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+
+/**
+ * End-to-end sends through {@link PostalService} against the in-process
+ * {@link SmtpSinkServer}: single sends from several threads, a batch over one
+ * connection and a campaign rendered once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SendBenchmark {
+
+	static final int BATCH_SIZE = 100;
+
+	SmtpSinkServer server;
+	PostalService postalService;
+	Email email;
+	List<Email> batch;
+	List<String> recipients;
+
+	@Setup(Level.Trial)
+	public void setup() throws Exception {
+		server = new SmtpSinkServer();
+		EmailTransportConfiguration.configure(server.getAddress(), false, false, null, null);
+		EmailTransportConfiguration.configurePool(0, 16, 16, 30000, 1000, 60000);
+		postalService = new PostalService();
+
+		email = (Email) new EmailMessage().from("sender@example.com").to("to@example.com")
+				.withSubject("Benchmark").withBody("Hello from the send benchmark.");
+
+		batch = new ArrayList<Email>();
+		recipients = new ArrayList<String>();
+		for (int i = 0; i < BATCH_SIZE; i++) {
+			batch.add(email);
+			recipients.add("recipient" + i + "@example.com");
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		server.close();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public SendResult send() throws Exception {
+		return postalService.send(email);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<SendResult> sendAll() {
+		return postalService.sendAll(batch);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BATCH_SIZE)
+	public List<SendResult> sendCampaign() {
+		return postalService.sendCampaign(email, recipients);
+	}
+}
@@ -0,0 +1,62 @@
+package com.guilhermechapiewski.fluentmail.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.guilhermechapiewski.fluentmail.validation.EmailAddressValidator;
+
+/**
+ * Throughput of {@link EmailAddressValidator#validate(String)} on valid and
+ * invalid input, for each validation mode.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ValidationBenchmark {
+
+	static final String[] VALID = { "g@g.com", "john.doe@example.com",
+			"guilherme.chapiewski@video.dev.wm.google.code.com", "John Doe <john@doe.com>",
+			"a+tag@sub.domain.org" };
+
+	static final String[] INVALID = { "22 Acacia Avenue", "gc.com.br", "@test.com.br",
+			"john@doe@com", "a b@c.com" };
+
+	@Param( { "SCANNER", "INTERNET_ADDRESS" })
+	String mode;
+
+	EmailAddressValidator validator;
+
+	@Setup
+	public void setup() {
+		validator = new EmailAddressValidator(EmailAddressValidator.Mode.valueOf(mode), 0);
+	}
+
+	@Benchmark
+	public void valid(Blackhole blackhole) {
+		for (String address : VALID) {
+			blackhole.consume(validator.validate(address));
+		}
+	}
+
+	@Benchmark
+	public void invalid(Blackhole blackhole) {
+		for (String address : INVALID) {
+			blackhole.consume(validator.validate(address));
+		}
+	}
+}
@@ -0,0 +1,68 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Read-only set over an array of distinct elements, in the order they were
+ * given. An email has a handful of recipients, so a linear scan finds one
+ * faster than hashing would, and no table or entry objects are kept per
+ * element.
+ */
+final class ArraySet<E> extends AbstractSet<E> {
+
+	private final Object[] elements;
+
+	/**
+	 * @param elements
+	 *            Copied, and expected to hold no duplicates.
+	 */
+	ArraySet(Collection<? extends E> elements) {
+		this.elements = elements.toArray();
+	}
+
+	@Override
+	public int size() {
+		return elements.length;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		for (int i = 0; i < elements.length; i++) {
+			if (elements[i].equals(o)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int next;
+
+			public boolean hasNext() {
+				return next < elements.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (next >= elements.length) {
+					throw new NoSuchElementException();
+				}
+				return (E) elements[next++];
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public Object[] toArray() {
+		return elements.clone();
+	}
+}
@@ -0,0 +1,95 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.activation.MimetypesFileTypeMap;
+
+/**
+ * A file attached to an email. Only a reference to the content is kept: it
+ * is read, and encoded, a few kilobytes at a time while the message is being
+ * written to the SMTP server, so large attachments are never loaded onto
+ * the heap.
+ */
+public class Attachment {
+
+	/**
+	 * Opens the content of an attachment. Called each time the message is
+	 * written, e.g. once per retry.
+	 */
+	public interface Source {
+		InputStream open() throws IOException;
+	}
+
+	private static final MimetypesFileTypeMap contentTypes = new MimetypesFileTypeMap();
+
+	private final String name;
+	private final String contentType;
+	private final Path file;
+	private final Source source;
+
+	private Attachment(String name, String contentType, Path file, Source source) {
+		if (name == null) {
+			throw new IllegalArgumentException("Attachment name cannot be null");
+		}
+		this.name = name;
+		this.contentType = contentType == null ? contentTypes.getContentType(name) : contentType;
+		this.file = file;
+		this.source = source;
+	}
+
+	/**
+	 * Attaches a file under its own name, with the content type its
+	 * extension maps to.
+	 */
+	public static Attachment file(Path file) {
+		return file(file, file.getFileName().toString(), null);
+	}
+
+	/**
+	 * @param contentType
+	 *            MIME type, or null to derive it from <i>name</i>.
+	 */
+	public static Attachment file(Path file, String name, String contentType) {
+		return new Attachment(name, contentType, file, null);
+	}
+
+	/**
+	 * @param contentType
+	 *            MIME type, or null to derive it from <i>name</i>.
+	 */
+	public static Attachment stream(String name, String contentType, Source source) {
+		return new Attachment(name, contentType, null, source);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return The attached file, or null if the content comes from a
+	 *         {@link Source}.
+	 */
+	public Path getFile() {
+		return file;
+	}
+
+	/**
+	 * Opens the content. Files are read through a channel, without
+	 * buffering beyond what the caller reads.
+	 */
+	public InputStream open() throws IOException {
+		return file != null ? Files.newInputStream(file) : source.open();
+	}
+
+	@Override
+	public String toString() {
+		return name + " (" + contentType + ")";
+	}
+}
@@ -0,0 +1,113 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * A body produced while the email is being sent instead of held in a
+ * String. Characters are encoded to the email's charset through a small
+ * buffer as they are written, so memory does not grow with the body length.
+ * <p>
+ * Sources are written once per transmission (including retries), so they
+ * must be able to produce the body more than once.
+ */
+public abstract class BodySource {
+
+	static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * Writes the body, e.g. straight from a template engine.
+	 */
+	public interface Content {
+		void writeTo(Writer out) throws IOException;
+	}
+
+	public interface ReaderSource {
+		Reader open() throws IOException;
+	}
+
+	public interface StreamSource {
+		InputStream open() throws IOException;
+	}
+
+	private final String contentType;
+
+	BodySource(String contentType) {
+		if (contentType == null) {
+			throw new IllegalArgumentException("Body content type cannot be null");
+		}
+		this.contentType = contentType;
+	}
+
+	/**
+	 * @param contentType
+	 *            e.g. text/html, without charset.
+	 */
+	public static BodySource writer(String contentType, final Content content) {
+		return new BodySource(contentType) {
+			@Override
+			public void writeTo(OutputStream out, String charset) throws IOException {
+				Writer writer = new OutputStreamWriter(out, charset);
+				content.writeTo(writer);
+				writer.flush();
+			}
+		};
+	}
+
+	/**
+	 * @param contentType
+	 *            e.g. text/html, without charset.
+	 */
+	public static BodySource reader(String contentType, final ReaderSource source) {
+		return writer(contentType, new Content() {
+			public void writeTo(Writer out) throws IOException {
+				Reader reader = source.open();
+				try {
+					char[] buffer = new char[BUFFER_SIZE];
+					for (int read; (read = reader.read(buffer)) != -1;) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					reader.close();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Body whose bytes are already encoded in the email's charset, so they
+	 * are copied as they are.
+	 *
+	 * @param contentType
+	 *            e.g. text/html, without charset.
+	 */
+	public static BodySource stream(String contentType, final StreamSource source) {
+		return new BodySource(contentType) {
+			@Override
+			public void writeTo(OutputStream out, String charset) throws IOException {
+				InputStream in = source.open();
+				try {
+					byte[] buffer = new byte[BUFFER_SIZE];
+					for (int read; (read = in.read(buffer)) != -1;) {
+						out.write(buffer, 0, read);
+					}
+				} finally {
+					in.close();
+				}
+			}
+		};
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * Writes the body encoded in <i>charset</i>. Does not close <i>out</i>.
+	 */
+	public abstract void writeTo(OutputStream out, String charset) throws IOException;
+}
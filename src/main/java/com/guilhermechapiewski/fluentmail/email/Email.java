@@ -1,5 +1,6 @@
 package com.guilhermechapiewski.fluentmail.email;
 
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,8 +17,16 @@ public interface Email {
 	String getSubject();
 	
 	String getBody();
+
+	/**
+	 * @return The body when it is streamed while sending, in which case
+	 *         {@link #getBody()} is null.
+	 */
+	BodySource getBodySource();
 	
 	String getCharset();
 	
 	Map<String, String> getHeaders();
+
+	List<Attachment> getAttachments();
 }
\ No newline at end of file
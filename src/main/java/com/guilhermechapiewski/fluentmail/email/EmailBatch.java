@@ -0,0 +1,76 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+
+/**
+ * Groups many emails so they are sent back-to-back over a single SMTP
+ * session. Emails that are incomplete or have invalid addresses are reported
+ * as failed results instead of stopping the batch.
+ */
+public class EmailBatch {
+
+	private final List<EmailMessage> emails = new ArrayList<EmailMessage>();
+
+	public EmailBatch add(EmailBuilder... emails) {
+		for (int i = 0; i < emails.length; i++) {
+			if (!(emails[i] instanceof EmailMessage)) {
+				throw new IllegalArgumentException("Only EmailMessage instances can be batched");
+			}
+			this.emails.add((EmailMessage) emails[i]);
+		}
+		return this;
+	}
+
+	public int size() {
+		return emails.size();
+	}
+
+	/**
+	 * @return One result per added email, in the order they were added.
+	 */
+	public List<SendResult> send() {
+		SendResult[] results = new SendResult[emails.size()];
+		PostalService[] transports = new PostalService[results.length];
+		// Valid emails go out over one session per transport they use.
+		Map<PostalService, List<EmailMessage>> valid = new LinkedHashMap<PostalService, List<EmailMessage>>();
+
+		for (int i = 0; i < results.length; i++) {
+			EmailMessage email = emails.get(i);
+			try {
+				email.validateRequiredInfo();
+				email.validateAddresses();
+				transports[i] = email.postalService();
+			} catch (RuntimeException e) {
+				results[i] = SendResult.failure(email, e);
+				continue;
+			}
+			List<EmailMessage> sameTransport = valid.get(transports[i]);
+			if (sameTransport == null) {
+				sameTransport = new ArrayList<EmailMessage>();
+				valid.put(transports[i], sameTransport);
+			}
+			sameTransport.add(email);
+		}
+
+		for (Map.Entry<PostalService, List<EmailMessage>> transport : valid.entrySet()) {
+			List<SendResult> sent = transport.getKey().sendAll(transport.getValue());
+			int next = 0;
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] == null && transports[i] == transport.getKey()) {
+					results[i] = sent.get(next++);
+				}
+			}
+		}
+
+		List<SendResult> list = new ArrayList<SendResult>(results.length);
+		Collections.addAll(list, results);
+		return list;
+	}
+}
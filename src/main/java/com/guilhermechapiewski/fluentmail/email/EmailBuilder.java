@@ -1,5 +1,10 @@
 package com.guilhermechapiewski.fluentmail.email;
 
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
 
 public interface EmailBuilder {
 
@@ -11,13 +16,78 @@ public interface EmailBuilder {
 
 	EmailBuilder bcc(String... addresses);
 
+	/**
+	 * Sends through the transport registered under this name in
+	 * {@link com.guilhermechapiewski.fluentmail.transport.Transports} instead
+	 * of the default one.
+	 */
+	EmailBuilder via(String transport);
+
+	/**
+	 * Gives up sending once <i>timeout</i> passed since {@link #send()} or
+	 * {@link #sendAsync()} was called, time spent queued, waiting for a
+	 * connection and retrying included. A step already talking to the server
+	 * is bounded by the SMTP socket timeouts instead, see
+	 * {@link com.guilhermechapiewski.fluentmail.transport.EmailTransportConfiguration#configureTimeouts(long, long, long)}.
+	 * <p>
+	 * A send that timed out fails with an
+	 * {@link com.guilhermechapiewski.fluentmail.transport.EmailTransportException}
+	 * caused by a
+	 * {@link com.guilhermechapiewski.fluentmail.transport.SendTimeoutException}.
+	 */
+	EmailBuilder withTimeout(long timeout, TimeUnit unit);
+
 	EmailBuilder withSubject(String subject);
 
 	EmailBuilder withBody(String body);
+
+	/**
+	 * Uses a body that is produced while the email is being sent, instead of
+	 * one held in memory.
+	 */
+	EmailBuilder withBody(BodySource body);
 	
 	EmailBuilder withCharset(String charset);
 	
 	EmailBuilder addHeaders(String name, String value);
 
-	void send();
+	/**
+	 * Attaches a file. It is read while the email is being sent, so it must
+	 * still exist then.
+	 */
+	EmailBuilder attach(Path file);
+
+	EmailBuilder attach(Attachment attachment);
+
+	/**
+	 * Validates the email and returns an immutable snapshot of it, which can
+	 * be shared between threads and sent any number of times.
+	 *
+	 * @throws com.guilhermechapiewski.fluentmail.validation.IncompleteEmailException
+	 *             If required information is missing.
+	 * @throws com.guilhermechapiewski.fluentmail.validation.InvalidEmailAddressException
+	 *             If an address is not valid.
+	 */
+	Email build();
+
+	/**
+	 * @return A new builder with everything this one has so far. Changing
+	 *         either afterwards doesn't affect the other.
+	 */
+	EmailBuilder copy();
+
+	/**
+	 * Sends the email. Recipients the SMTP server rejects don't make it fail;
+	 * they are listed in the result.
+	 *
+	 * @throws com.guilhermechapiewski.fluentmail.transport.EmailTransportException
+	 *             If the email could not be sent to anyone.
+	 */
+	SendResult send();
+
+	/**
+	 * Validates the email and sends a snapshot of it in the background, so the
+	 * builder can be changed or reused right away.
+	 */
+	CompletableFuture<SendResult> sendAsync();
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+import com.guilhermechapiewski.fluentmail.validation.InvalidEmailAddressException;
+
+/**
+ * Sends the same email to many recipients, each getting a message of their
+ * own. The content is encoded once for the whole campaign, which makes large
+ * identical mailings much cheaper than building one email per recipient.
+ * Recipients with invalid addresses are reported as failed results.
+ */
+public class EmailCampaign {
+
+	private final EmailMessage template;
+	private final List<String> recipients = new ArrayList<String>();
+
+	/**
+	 * @param template
+	 *            Sender, subject, body, charset and headers of every message.
+	 *            Its recipients are not used.
+	 */
+	public EmailCampaign(EmailBuilder template) {
+		if (!(template instanceof EmailMessage)) {
+			throw new IllegalArgumentException("Campaign template must be an EmailMessage");
+		}
+		this.template = (EmailMessage) template;
+	}
+
+	public EmailCampaign to(String... addresses) {
+		for (int i = 0; i < addresses.length; i++) {
+			recipients.add(addresses[i]);
+		}
+		return this;
+	}
+
+	public int size() {
+		return recipients.size();
+	}
+
+	/**
+	 * @return One result per recipient, in the order they were added.
+	 */
+	public List<SendResult> send() {
+		template.validateTemplate();
+		EmailMessage snapshot = template.copy();
+
+		SendResult[] results = new SendResult[recipients.size()];
+		List<String> valid = new ArrayList<String>(recipients.size());
+
+		for (int i = 0; i < results.length; i++) {
+			String recipient = recipients.get(i);
+			if (EmailMessage.isValidAddress(recipient)) {
+				valid.add(recipient);
+			} else {
+				results[i] = SendResult.failure(personalized(snapshot, recipient),
+						new InvalidEmailAddressException("To: " + recipient));
+			}
+		}
+
+		if (!valid.isEmpty()) {
+			List<SendResult> sent = snapshot.postalService().sendCampaign(snapshot, valid);
+			int next = 0;
+			for (int i = 0; i < results.length; i++) {
+				if (results[i] == null) {
+					results[i] = sent.get(next++);
+				}
+			}
+		}
+
+		List<SendResult> list = new ArrayList<SendResult>(results.length);
+		Collections.addAll(list, results);
+		return list;
+	}
+
+	private Email personalized(EmailMessage snapshot, String recipient) {
+		EmailMessage email = snapshot.copyWithoutRecipients();
+		email.to(recipient);
+		return email;
+	}
+}
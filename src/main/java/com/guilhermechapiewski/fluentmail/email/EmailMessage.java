@@ -1,21 +1,42 @@
 package com.guilhermechapiewski.fluentmail.email;
 
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import com.guilhermechapiewski.fluentmail.jfr.FlightRecorder;
+import com.guilhermechapiewski.fluentmail.metrics.MetricsRecorder;
+import com.guilhermechapiewski.fluentmail.metrics.SendOutcome;
+import com.guilhermechapiewski.fluentmail.metrics.SendPhase;
+import com.guilhermechapiewski.fluentmail.transport.Deadline;
 import com.guilhermechapiewski.fluentmail.transport.EmailTransportException;
+import com.guilhermechapiewski.fluentmail.transport.EmailTransportConfiguration;
 import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.transport.SendDispatcher;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+import com.guilhermechapiewski.fluentmail.transport.Transports;
 import com.guilhermechapiewski.fluentmail.validation.EmailAddressValidator;
 import com.guilhermechapiewski.fluentmail.validation.IncompleteEmailException;
 import com.guilhermechapiewski.fluentmail.validation.InvalidEmailAddressException;
 
 public class EmailMessage implements EmailBuilder, Email {
 
-	private static EmailAddressValidator emailAddressValidator = new EmailAddressValidator();
-	private static PostalService postalService = new PostalService();
+	private static EmailTransportConfiguration emailTransportConfig = new EmailTransportConfiguration();
+	private static volatile EmailAddressValidator emailAddressValidator = new EmailAddressValidator();
+	private static volatile PostalService postalService = new PostalService();
+	private static volatile SendDispatcher sendDispatcher;
 
 	private String fromAddress;
 	private Set<String> toAddresses = new HashSet<String>();
@@ -23,13 +44,125 @@ public class EmailMessage implements EmailBuilder, Email {
 	private Set<String> bccAddresses = new HashSet<String>();
 	private String subject;
 	private String body;
+	private BodySource bodySource;
 	private String charset = Charset.defaultCharset().name();
 	private Map<String, String> headers = new HashMap<String, String>();
+	private List<Attachment> attachments = new ArrayList<Attachment>();
+	private String transport;
+	private long timeoutMillis;
 	
-	public void send() {
-		validateRequiredInfo();
-		validateAddresses();
-		sendMessage();
+	public SendResult send() {
+		validate();
+		return sendMessage();
+	}
+
+	public CompletableFuture<SendResult> sendAsync() {
+		final Email snapshot = build();
+		final PostalService postalService = postalService();
+		final Deadline deadline = deadline();
+		Set<String> recipients = new HashSet<String>();
+		addBareAddresses(recipients, toAddresses);
+		addBareAddresses(recipients, ccAddresses);
+		addBareAddresses(recipients, bccAddresses);
+		long delay = configuration().getRateLimiter().delay(recipients);
+
+		return getSendDispatcher().dispatch(new Callable<SendResult>() {
+			public SendResult call() {
+				return deliver(postalService, snapshot, deadline);
+			}
+		}, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Adds the addresses without display names, e.g. john@doe.com for
+	 * "John Doe &lt;john@doe.com&gt;", which is what the rate limits go by.
+	 */
+	private static void addBareAddresses(Set<String> bare, Set<String> addresses) {
+		for (String address : addresses) {
+			try {
+				for (InternetAddress parsed : InternetAddress.parse(address)) {
+					bare.add(parsed.getAddress());
+				}
+			} catch (AddressException e) {
+				// Already validated, so it would not be sent either.
+			}
+		}
+	}
+
+	public Email build() {
+		validate();
+		return new ImmutableEmail(this);
+	}
+
+	public EmailMessage copy() {
+		EmailMessage copy = copyOf(this);
+		copy.transport = transport;
+		copy.timeoutMillis = timeoutMillis;
+		return copy;
+	}
+
+	/**
+	 * Starts a builder with everything <i>prototype</i> has, e.g. an email
+	 * from {@link #build()} used as a template for many others.
+	 */
+	public static EmailMessage copyOf(Email prototype) {
+		EmailMessage copy = new EmailMessage();
+		copy.fromAddress = prototype.getFromAddress();
+		copy.toAddresses = new HashSet<String>(prototype.getToAddresses());
+		copy.ccAddresses = new HashSet<String>(prototype.getCcAddresses());
+		copy.bccAddresses = new HashSet<String>(prototype.getBccAddresses());
+		copy.subject = prototype.getSubject();
+		copy.body = prototype.getBody();
+		copy.bodySource = prototype.getBodySource();
+		copy.charset = prototype.getCharset();
+		copy.headers = new HashMap<String, String>(prototype.getHeaders());
+		copy.attachments = new ArrayList<Attachment>(prototype.getAttachments());
+		return copy;
+	}
+
+	/**
+	 * @return A copy of this email with no recipients.
+	 */
+	EmailMessage copyWithoutRecipients() {
+		EmailMessage copy = copy();
+		copy.toAddresses.clear();
+		copy.ccAddresses.clear();
+		copy.bccAddresses.clear();
+		return copy;
+	}
+
+	private void validate() {
+		MetricsRecorder metrics = configuration().getMetricsRecorder();
+
+		Object event = FlightRecorder.get().beginValidation();
+		long start = System.nanoTime();
+		SendOutcome outcome = SendOutcome.FAILURE;
+		try {
+			validateRequiredInfo();
+			outcome = SendOutcome.SUCCESS;
+		} finally {
+			metrics.record(SendPhase.VALIDATE_REQUIRED_INFO, null, outcome, System.nanoTime() - start);
+			commit(event, "required info", outcome);
+		}
+
+		event = FlightRecorder.get().beginValidation();
+		start = System.nanoTime();
+		outcome = SendOutcome.FAILURE;
+		try {
+			validateAddresses();
+			outcome = SendOutcome.SUCCESS;
+		} finally {
+			metrics.record(SendPhase.VALIDATE_ADDRESSES, null, outcome, System.nanoTime() - start);
+			commit(event, "addresses", outcome);
+		}
+	}
+
+	private void commit(Object event, String check, SendOutcome outcome) {
+		FlightRecorder flightRecorder = FlightRecorder.get();
+		if (flightRecorder.end(event)) {
+			flightRecorder.commitValidation(event, check, toAddresses.size() + ccAddresses.size()
+					+ bccAddresses.size(), outcome == SendOutcome.SUCCESS);
+		}
 	}
 
 	protected void validateRequiredInfo() {
@@ -43,14 +176,41 @@ public class EmailMessage implements EmailBuilder, Email {
 		if (subject == null) {
 			throw new IncompleteEmailException("Subject cannot be null");
 		}
-		if (body == null) {
+		if (body == null && bodySource == null) {
+			throw new IncompleteEmailException("Body cannot be null");
+		}
+	}
+
+	/**
+	 * Checks what a campaign template needs: everything but recipients.
+	 */
+	void validateTemplate() {
+		if (fromAddress == null) {
+			throw new IncompleteEmailException("From address cannot be null");
+		}
+		if (subject == null) {
+			throw new IncompleteEmailException("Subject cannot be null");
+		}
+		if (body == null && bodySource == null) {
 			throw new IncompleteEmailException("Body cannot be null");
 		}
+		if (!emailAddressValidator.validate(fromAddress)) {
+			throw new InvalidEmailAddressException("From: " + fromAddress);
+		}
+	}
+
+	static boolean isValidAddress(String address) {
+		return emailAddressValidator.validate(address);
+	}
+
+	protected SendResult sendMessage() {
+		return deliver(postalService(), this, deadline());
 	}
 
-	protected void sendMessage() {
+	private static SendResult deliver(PostalService postalService, Email email, Deadline deadline) {
 		try {
-			postalService.send(this);
+			return deadline == null ? postalService.send(email) : postalService.send(email,
+					deadline);
 		} catch (Exception e) {
 			throw new EmailTransportException("Email could not be sent: "
 					+ e.getMessage(), e);
@@ -88,6 +248,40 @@ public class EmailMessage implements EmailBuilder, Email {
 		return this;
 	}
 
+	public EmailBuilder via(String transport) {
+		this.transport = transport;
+		return this;
+	}
+
+	public EmailBuilder withTimeout(long timeout, TimeUnit unit) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+		}
+		this.timeoutMillis = unit.toMillis(timeout);
+		return this;
+	}
+
+	/**
+	 * @return The deadline of a send starting now, or null if the email has
+	 *         no timeout.
+	 */
+	private Deadline deadline() {
+		return timeoutMillis > 0 ? Deadline.after(timeoutMillis, TimeUnit.MILLISECONDS) : null;
+	}
+
+	/**
+	 * @return The service this email is sent through: the transport it was
+	 *         given, or else the default one.
+	 */
+	PostalService postalService() {
+		return transport == null ? postalService : Transports.get(transport);
+	}
+
+	private EmailTransportConfiguration configuration() {
+		return transport == null ? emailTransportConfig : Transports.get(transport)
+				.getConfiguration();
+	}
+
 	public EmailBuilder withSubject(String subject) {
 		this.subject = subject;
 		return this;
@@ -95,6 +289,13 @@ public class EmailMessage implements EmailBuilder, Email {
 
 	public EmailBuilder withBody(String body) {
 		this.body = body;
+		this.bodySource = null;
+		return this;
+	}
+
+	public EmailBuilder withBody(BodySource body) {
+		this.body = null;
+		this.bodySource = body;
 		return this;
 	}
 
@@ -103,15 +304,15 @@ public class EmailMessage implements EmailBuilder, Email {
 	}
 
 	public Set<String> getToAddresses() {
-		return toAddresses;
+		return Collections.unmodifiableSet(toAddresses);
 	}
 
 	public Set<String> getCcAddresses() {
-		return ccAddresses;
+		return Collections.unmodifiableSet(ccAddresses);
 	}
 
 	public Set<String> getBccAddresses() {
-		return bccAddresses;
+		return Collections.unmodifiableSet(bccAddresses);
 	}
 
 	public String getSubject() {
@@ -122,6 +323,10 @@ public class EmailMessage implements EmailBuilder, Email {
 		return body;
 	}
 
+	public BodySource getBodySource() {
+		return bodySource;
+	}
+
 	protected EmailBuilder validateAddresses() {
 		if (!emailAddressValidator.validate(fromAddress)) {
 			throw new InvalidEmailAddressException("From: " + fromAddress);
@@ -145,6 +350,33 @@ public class EmailMessage implements EmailBuilder, Email {
 		EmailMessage.postalService = postalService;
 	}
 
+	static PostalService getPostalService() {
+		return postalService;
+	}
+
+	public static void setSendDispatcher(SendDispatcher sendDispatcher) {
+		synchronized (EmailMessage.class) {
+			EmailMessage.sendDispatcher = sendDispatcher;
+		}
+	}
+
+	/**
+	 * @return The dispatcher used by {@link #sendAsync()}, created from
+	 *         {@link EmailTransportConfiguration} on first use.
+	 */
+	public static SendDispatcher getSendDispatcher() {
+		SendDispatcher dispatcher = sendDispatcher;
+		if (dispatcher != null) {
+			return dispatcher;
+		}
+		synchronized (EmailMessage.class) {
+			if (sendDispatcher == null) {
+				sendDispatcher = SendDispatcher.fromConfiguration(new EmailTransportConfiguration());
+			}
+			return sendDispatcher;
+		}
+	}
+
 	public String getCharset() {
 		return charset;
 	}
@@ -155,6 +387,19 @@ public class EmailMessage implements EmailBuilder, Email {
 	}
 
 	public Map<String, String> getHeaders() {
-		return headers;
+		return Collections.unmodifiableMap(headers);
+	}
+
+	public EmailBuilder attach(Path file) {
+		return attach(Attachment.file(file));
+	}
+
+	public EmailBuilder attach(Attachment attachment) {
+		attachments.add(attachment);
+		return this;
+	}
+
+	public List<Attachment> getAttachments() {
+		return Collections.unmodifiableList(attachments);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,90 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What {@link EmailBuilder#build()} returns. Nothing about it can change once
+ * built and all fields are final, so it can be handed to other threads, sent
+ * any number of times or kept as a prototype without copying it.
+ */
+final class ImmutableEmail implements Email {
+
+	private final String fromAddress;
+	private final Set<String> toAddresses;
+	private final Set<String> ccAddresses;
+	private final Set<String> bccAddresses;
+	private final String subject;
+	private final String body;
+	private final BodySource bodySource;
+	private final String charset;
+	private final Map<String, String> headers;
+	private final List<Attachment> attachments;
+
+	ImmutableEmail(Email email) {
+		this.fromAddress = email.getFromAddress();
+		this.toAddresses = new ArraySet<String>(email.getToAddresses());
+		this.ccAddresses = new ArraySet<String>(email.getCcAddresses());
+		this.bccAddresses = new ArraySet<String>(email.getBccAddresses());
+		this.subject = email.getSubject();
+		this.body = email.getBody();
+		this.bodySource = email.getBodySource();
+		this.charset = email.getCharset();
+		this.headers = copyOf(email.getHeaders());
+		this.attachments = Collections.unmodifiableList(Arrays.asList(email.getAttachments()
+				.toArray(new Attachment[0])));
+	}
+
+	private static Map<String, String> copyOf(Map<String, String> headers) {
+		if (headers.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, String> copy = new HashMap<String, String>((int) (headers.size() / 0.75f) + 1);
+		copy.putAll(headers);
+		return Collections.unmodifiableMap(copy);
+	}
+
+	public String getFromAddress() {
+		return fromAddress;
+	}
+
+	public Set<String> getToAddresses() {
+		return toAddresses;
+	}
+
+	public Set<String> getCcAddresses() {
+		return ccAddresses;
+	}
+
+	public Set<String> getBccAddresses() {
+		return bccAddresses;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public BodySource getBodySource() {
+		return bodySource;
+	}
+
+	public String getCharset() {
+		return charset;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public List<Attachment> getAttachments() {
+		return attachments;
+	}
+}
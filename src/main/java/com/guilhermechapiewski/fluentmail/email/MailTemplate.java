@@ -0,0 +1,56 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.Map;
+
+/**
+ * Subject and body {@link Template}s of a personalized mailing, e.g.:
+ * 
+ * <pre>
+ * MailTemplate welcome = MailTemplate.compile(&quot;Welcome, ${name}&quot;, &quot;Hi ${name}, ...&quot;);
+ * EmailBatch batch = new EmailBatch();
+ * for (Customer customer : customers) {
+ * 	batch.add(welcome.applyTo(new EmailMessage().from(&quot;shop@example.com&quot;)
+ * 			.to(customer.getEmail()), customer.getFields()));
+ * }
+ * batch.send();
+ * </pre>
+ */
+public class MailTemplate {
+
+	private final Template subject;
+	private final Template body;
+
+	public MailTemplate(Template subject, Template body) {
+		this.subject = subject;
+		this.body = body;
+	}
+
+	public static MailTemplate compile(String subject, String body) {
+		return new MailTemplate(Template.compile(subject), Template.compile(body));
+	}
+
+	/**
+	 * Compiles the template through <i>cache</i>, under the ids
+	 * <code>id + ".subject"</code> and <code>id + ".body"</code>.
+	 */
+	public static MailTemplate compile(TemplateCache cache, String id, String subject,
+			String body) {
+		return new MailTemplate(cache.get(id + ".subject", subject), cache.get(id + ".body",
+				body));
+	}
+
+	/**
+	 * Sets the rendered subject and body on <i>email</i>.
+	 */
+	public EmailBuilder applyTo(EmailBuilder email, Map<String, ?> values) {
+		return email.withSubject(subject.render(values)).withBody(body.render(values));
+	}
+
+	public Template getSubject() {
+		return subject;
+	}
+
+	public Template getBody() {
+		return body;
+	}
+}
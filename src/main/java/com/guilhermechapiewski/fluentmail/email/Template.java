@@ -0,0 +1,128 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text with <code>${name}</code> placeholders, parsed once into literal
+ * segments and placeholder names so rendering is a plain walk over arrays,
+ * with no regular expressions or reparsing. A literal <code>$</code> is
+ * written <code>$$</code>.
+ * <p>
+ * Templates are immutable and can be shared between threads.
+ */
+public class Template {
+
+	private final String source;
+	private final String[] literals;
+	private final String[] names;
+	private final int literalLength;
+	private volatile int sizeHint;
+
+	private Template(String source, String[] literals, String[] names) {
+		this.source = source;
+		this.literals = literals;
+		this.names = names;
+
+		int length = 0;
+		for (String literal : literals) {
+			length += literal.length();
+		}
+		this.literalLength = length;
+		this.sizeHint = length + 16 * names.length;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If a placeholder is not closed or has no name.
+	 */
+	public static Template compile(String source) {
+		List<String> literals = new ArrayList<String>();
+		List<String> names = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+
+		int i = 0;
+		while (i < source.length()) {
+			char c = source.charAt(i);
+			if (c != '$' || i + 1 == source.length()) {
+				literal.append(c);
+				i++;
+			} else if (source.charAt(i + 1) == '$') {
+				literal.append('$');
+				i += 2;
+			} else if (source.charAt(i + 1) == '{') {
+				int end = source.indexOf('}', i + 2);
+				if (end == -1) {
+					throw new IllegalArgumentException("Unclosed placeholder at " + i + ": " + source);
+				}
+				String name = source.substring(i + 2, end).trim();
+				if (name.length() == 0) {
+					throw new IllegalArgumentException("Empty placeholder at " + i + ": " + source);
+				}
+				literals.add(literal.toString());
+				names.add(name);
+				literal.setLength(0);
+				i = end + 1;
+			} else {
+				literal.append(c);
+				i++;
+			}
+		}
+		literals.add(literal.toString());
+
+		return new Template(source, literals.toArray(new String[literals.size()]), names
+				.toArray(new String[names.size()]));
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If <i>values</i> has no value for a placeholder.
+	 */
+	public String render(Map<String, ?> values) {
+		StringBuilder out = new StringBuilder(sizeHint);
+		render(values, out);
+		if (out.length() > sizeHint) {
+			sizeHint = out.length();
+		}
+		return out.toString();
+	}
+
+	/**
+	 * Renders into <i>out</i>, for callers reusing their own buffer.
+	 */
+	public void render(Map<String, ?> values, StringBuilder out) {
+		out.append(literals[0]);
+		for (int i = 0; i < names.length; i++) {
+			Object value = values.get(names[i]);
+			if (value == null && !values.containsKey(names[i])) {
+				throw new IllegalArgumentException("No value for placeholder ${" + names[i] + "}");
+			}
+			out.append(value);
+			out.append(literals[i + 1]);
+		}
+	}
+
+	/**
+	 * @return The placeholder names, in order of appearance.
+	 */
+	public String[] getPlaceholders() {
+		return names.clone();
+	}
+
+	/**
+	 * @return Length of the text without any placeholder value.
+	 */
+	public int getLiteralLength() {
+		return literalLength;
+	}
+
+	public String getSource() {
+		return source;
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+}
@@ -0,0 +1,81 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compiled {@link Template}s by id, evicting the least recently used one
+ * once <i>maxSize</i> templates are cached.
+ */
+public class TemplateCache {
+
+	private final int maxSize;
+	private final Map<String, Template> templates;
+	private long hits;
+	private long misses;
+
+	public TemplateCache(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("Cache must hold at least one template");
+		}
+		this.maxSize = maxSize;
+		this.templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * @return The template compiled for <i>id</i>, or <b>null</b> if it is not
+	 *         cached.
+	 */
+	public synchronized Template get(String id) {
+		Template template = templates.get(id);
+		if (template == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return template;
+	}
+
+	/**
+	 * Returns the template cached for <i>id</i>, compiling <i>source</i> if
+	 * there is none or if it was cached from a different source.
+	 */
+	public synchronized Template get(String id, String source) {
+		Template template = templates.get(id);
+		if (template != null && template.getSource().equals(source)) {
+			hits++;
+			return template;
+		}
+		misses++;
+		template = Template.compile(source);
+		templates.put(id, template);
+		return template;
+	}
+
+	public synchronized void remove(String id) {
+		templates.remove(id);
+	}
+
+	public synchronized int size() {
+		return templates.size();
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
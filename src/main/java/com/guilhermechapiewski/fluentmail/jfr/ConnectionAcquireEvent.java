@@ -0,0 +1,19 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.guilhermechapiewski.fluentmail.ConnectionAcquire")
+@Label("SMTP Connection Acquire")
+@Category("Fluent Mail")
+@Description("Borrowing a connection from the pool of a relay, including waiting for one and opening it")
+public class ConnectionAcquireEvent extends jdk.jfr.Event {
+
+	@Label("Relay")
+	public String relay;
+
+	@Label("Success")
+	public boolean success;
+}
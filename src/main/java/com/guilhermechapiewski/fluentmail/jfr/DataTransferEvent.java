@@ -0,0 +1,30 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.guilhermechapiewski.fluentmail.DataTransfer")
+@Label("SMTP Data Transfer")
+@Category("Fluent Mail")
+@Description("The SMTP transaction of one message, from MAIL FROM to the end of DATA")
+public class DataTransferEvent extends jdk.jfr.Event {
+
+	@Label("Relay")
+	public String relay;
+
+	@Label("Message ID")
+	public String messageId;
+
+	@Label("Recipients")
+	public int recipients;
+
+	@Label("Size")
+	@DataAmount
+	public long size;
+
+	@Label("Outcome")
+	public String outcome;
+}
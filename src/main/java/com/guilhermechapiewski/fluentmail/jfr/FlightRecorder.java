@@ -0,0 +1,78 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+/**
+ * Emits the events of this package. They extend jdk.jfr.Event, which Java 8
+ * runtimes may lack, so they are only loaded by {@link JfrRecorder} when
+ * jdk.jfr is there. Otherwise this recorder is used, which records nothing.
+ * <p>
+ * Each begin method returns the event to pass to {@link #end(Object)}, then
+ * to the matching commit method if <i>end</i> says it is recorded.
+ */
+public class FlightRecorder {
+
+	private static final FlightRecorder INSTANCE = load();
+
+	FlightRecorder() {
+	}
+
+	public static FlightRecorder get() {
+		return INSTANCE;
+	}
+
+	private static FlightRecorder load() {
+		try {
+			Class.forName("jdk.jfr.Event");
+			return (FlightRecorder) Class.forName(FlightRecorder.class.getPackage().getName()
+					+ ".JfrRecorder").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return new FlightRecorder();
+		} catch (LinkageError e) {
+			return new FlightRecorder();
+		}
+	}
+
+	/**
+	 * Stops timing <i>event</i>.
+	 *
+	 * @return Whether it is recorded, and so worth filling in.
+	 */
+	public boolean end(Object event) {
+		return false;
+	}
+
+	public Object beginValidation() {
+		return null;
+	}
+
+	public void commitValidation(Object event, String check, int recipients, boolean valid) {
+	}
+
+	public Object beginMessageBuild() {
+		return null;
+	}
+
+	public void commitMessageBuild(Object event, int recipients, boolean success) {
+	}
+
+	public Object beginConnectionAcquire() {
+		return null;
+	}
+
+	public void commitConnectionAcquire(Object event, String relay, boolean success) {
+	}
+
+	public Object beginSmtpConnect() {
+		return null;
+	}
+
+	public void commitSmtpConnect(Object event, String relay, boolean success) {
+	}
+
+	public Object beginDataTransfer() {
+		return null;
+	}
+
+	public void commitDataTransfer(Object event, String relay, String messageId,
+			int recipients, long size, String outcome) {
+	}
+}
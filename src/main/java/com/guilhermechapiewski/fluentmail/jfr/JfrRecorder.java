@@ -0,0 +1,92 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import jdk.jfr.Event;
+
+/**
+ * Emits the events to Java Flight Recorder. Only loaded by
+ * {@link FlightRecorder} once jdk.jfr was found.
+ */
+class JfrRecorder extends FlightRecorder {
+
+	@Override
+	public boolean end(Object event) {
+		Event jfrEvent = (Event) event;
+		jfrEvent.end();
+		return jfrEvent.shouldCommit();
+	}
+
+	@Override
+	public Object beginValidation() {
+		return begin(new ValidationEvent());
+	}
+
+	@Override
+	public void commitValidation(Object event, String check, int recipients, boolean valid) {
+		ValidationEvent validation = (ValidationEvent) event;
+		validation.check = check;
+		validation.recipients = recipients;
+		validation.valid = valid;
+		validation.commit();
+	}
+
+	@Override
+	public Object beginMessageBuild() {
+		return begin(new MessageBuildEvent());
+	}
+
+	@Override
+	public void commitMessageBuild(Object event, int recipients, boolean success) {
+		MessageBuildEvent build = (MessageBuildEvent) event;
+		build.recipients = recipients;
+		build.success = success;
+		build.commit();
+	}
+
+	@Override
+	public Object beginConnectionAcquire() {
+		return begin(new ConnectionAcquireEvent());
+	}
+
+	@Override
+	public void commitConnectionAcquire(Object event, String relay, boolean success) {
+		ConnectionAcquireEvent acquire = (ConnectionAcquireEvent) event;
+		acquire.relay = relay;
+		acquire.success = success;
+		acquire.commit();
+	}
+
+	@Override
+	public Object beginSmtpConnect() {
+		return begin(new SmtpConnectEvent());
+	}
+
+	@Override
+	public void commitSmtpConnect(Object event, String relay, boolean success) {
+		SmtpConnectEvent connect = (SmtpConnectEvent) event;
+		connect.relay = relay;
+		connect.success = success;
+		connect.commit();
+	}
+
+	@Override
+	public Object beginDataTransfer() {
+		return begin(new DataTransferEvent());
+	}
+
+	@Override
+	public void commitDataTransfer(Object event, String relay, String messageId,
+			int recipients, long size, String outcome) {
+		DataTransferEvent transfer = (DataTransferEvent) event;
+		transfer.relay = relay;
+		transfer.messageId = messageId;
+		transfer.recipients = recipients;
+		transfer.size = size;
+		transfer.outcome = outcome;
+		transfer.commit();
+	}
+
+	private static Event begin(Event event) {
+		event.begin();
+		return event;
+	}
+}
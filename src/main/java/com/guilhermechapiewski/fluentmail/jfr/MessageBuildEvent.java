@@ -0,0 +1,19 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.guilhermechapiewski.fluentmail.MessageBuild")
+@Label("Message Build")
+@Category("Fluent Mail")
+@Description("Creation of the MIME message of an email")
+public class MessageBuildEvent extends jdk.jfr.Event {
+
+	@Label("Recipients")
+	public int recipients;
+
+	@Label("Success")
+	public boolean success;
+}
@@ -0,0 +1,19 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.guilhermechapiewski.fluentmail.SmtpConnect")
+@Label("SMTP Connect")
+@Category("Fluent Mail")
+@Description("Opening and authenticating a new connection to a relay")
+public class SmtpConnectEvent extends jdk.jfr.Event {
+
+	@Label("Relay")
+	public String relay;
+
+	@Label("Success")
+	public boolean success;
+}
@@ -0,0 +1,22 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.guilhermechapiewski.fluentmail.Validation")
+@Label("Email Validation")
+@Category("Fluent Mail")
+@Description("Checks done on an email before it is handed to the transport")
+public class ValidationEvent extends jdk.jfr.Event {
+
+	@Label("Check")
+	public String check;
+
+	@Label("Recipients")
+	public int recipients;
+
+	@Label("Valid")
+	public boolean valid;
+}
@@ -0,0 +1,84 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+/**
+ * Counts of a {@link LatencyHistogram} at one point in time. All values are
+ * in nanoseconds.
+ */
+public class HistogramSnapshot {
+
+	private final long[] counts;
+	private final long count;
+	private final long total;
+	private final long max;
+
+	HistogramSnapshot(long[] counts, long total, long max) {
+		this.counts = counts;
+		this.total = total;
+		this.max = max;
+
+		long count = 0;
+		for (long c : counts) {
+			count += c;
+		}
+		this.count = count;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	public long getMax() {
+		return max;
+	}
+
+	public double getMean() {
+		return count == 0 ? 0 : (double) total / count;
+	}
+
+	/**
+	 * @param percentile
+	 *            From 0 to 100, e.g. 99.9.
+	 * @return The value that <i>percentile</i> percent of the recorded values
+	 *         are at or below, rounded up to its bucket. Zero when nothing
+	 *         was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(LatencyHistogram.highestValueOf(i), max);
+			}
+		}
+		return max;
+	}
+
+	public long getP50() {
+		return getPercentile(50);
+	}
+
+	public long getP99() {
+		return getPercentile(99);
+	}
+
+	public long getP999() {
+		return getPercentile(99.9);
+	}
+
+	@Override
+	public String toString() {
+		return "count=" + count + ", mean=" + (long) getMean() + "ns, p50=" + getP50() + "ns, p99="
+				+ getP99() + "ns, p999=" + getP999() + "ns, max=" + max + "ns";
+	}
+}
@@ -0,0 +1,21 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+/**
+ * Receives the duration of every phase of every send. Called on the sending
+ * thread, so implementations must be thread safe and fast.
+ */
+public interface MetricsRecorder {
+
+	/** Discards everything. */
+	MetricsRecorder NONE = new MetricsRecorder() {
+		public void record(SendPhase phase, String relay, SendOutcome outcome, long nanos) {
+		}
+	};
+
+	/**
+	 * @param relay
+	 *            The relay the phase talked to, or null for phases that
+	 *            don't use the network.
+	 */
+	void record(SendPhase phase, String relay, SendOutcome outcome, long nanos);
+}
@@ -0,0 +1,47 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+/**
+ * Latencies of one phase against one relay with one outcome.
+ */
+public class PhaseStatistics {
+
+	private final SendPhase phase;
+	private final String relay;
+	private final SendOutcome outcome;
+	private final HistogramSnapshot latency;
+
+	PhaseStatistics(SendPhase phase, String relay, SendOutcome outcome, HistogramSnapshot latency) {
+		this.phase = phase;
+		this.relay = relay;
+		this.outcome = outcome;
+		this.latency = latency;
+	}
+
+	public SendPhase getPhase() {
+		return phase;
+	}
+
+	/**
+	 * @return The relay, or null for phases that don't use the network.
+	 */
+	public String getRelay() {
+		return relay;
+	}
+
+	public SendOutcome getOutcome() {
+		return outcome;
+	}
+
+	public long getCount() {
+		return latency.getCount();
+	}
+
+	public HistogramSnapshot getLatency() {
+		return latency;
+	}
+
+	@Override
+	public String toString() {
+		return phase + (relay == null ? "" : " " + relay) + " " + outcome + ": " + latency;
+	}
+}
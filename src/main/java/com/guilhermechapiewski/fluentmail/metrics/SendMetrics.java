@@ -0,0 +1,105 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a {@link LatencyHistogram} per phase, relay and outcome. Recording
+ * takes no locks once the histogram of a combination exists, so it can stay
+ * enabled in production; {@link #snapshot()} can be scraped at any time.
+ */
+public class SendMetrics implements MetricsRecorder {
+
+	private final ConcurrentMap<Key, LatencyHistogram> histograms = new ConcurrentHashMap<Key, LatencyHistogram>();
+
+	public void record(SendPhase phase, String relay, SendOutcome outcome, long nanos) {
+		Key key = new Key(phase, relay, outcome);
+		LatencyHistogram histogram = histograms.get(key);
+		if (histogram == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			histogram = histograms.putIfAbsent(key, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.record(nanos);
+	}
+
+	/**
+	 * @return What was recorded so far, ordered by phase, relay and outcome.
+	 */
+	public List<PhaseStatistics> snapshot() {
+		List<PhaseStatistics> statistics = new ArrayList<PhaseStatistics>();
+		for (Map.Entry<Key, LatencyHistogram> entry : histograms.entrySet()) {
+			Key key = entry.getKey();
+			statistics.add(new PhaseStatistics(key.phase, key.relay, key.outcome, entry.getValue()
+					.snapshot()));
+		}
+		Collections.sort(statistics, new Comparator<PhaseStatistics>() {
+			public int compare(PhaseStatistics a, PhaseStatistics b) {
+				int result = a.getPhase().compareTo(b.getPhase());
+				if (result == 0) {
+					String relayA = a.getRelay() == null ? "" : a.getRelay();
+					String relayB = b.getRelay() == null ? "" : b.getRelay();
+					result = relayA.compareTo(relayB);
+				}
+				return result == 0 ? a.getOutcome().compareTo(b.getOutcome()) : result;
+			}
+		});
+		return statistics;
+	}
+
+	/**
+	 * @return Latencies of <i>phase</i> merged over all relays and outcomes.
+	 */
+	public HistogramSnapshot snapshot(SendPhase phase) {
+		LatencyHistogram merged = new LatencyHistogram();
+		for (Map.Entry<Key, LatencyHistogram> entry : histograms.entrySet()) {
+			if (entry.getKey().phase == phase) {
+				merged.add(entry.getValue());
+			}
+		}
+		return merged.snapshot();
+	}
+
+	/**
+	 * Forgets everything recorded so far.
+	 */
+	public void reset() {
+		histograms.clear();
+	}
+
+	private static class Key {
+
+		final SendPhase phase;
+		final String relay;
+		final SendOutcome outcome;
+
+		Key(SendPhase phase, String relay, SendOutcome outcome) {
+			this.phase = phase;
+			this.relay = relay;
+			this.outcome = outcome;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return phase == other.phase && outcome == other.outcome
+					&& (relay == null ? other.relay == null : relay.equals(other.relay));
+		}
+
+		@Override
+		public int hashCode() {
+			return (phase.hashCode() * 31 + (relay == null ? 0 : relay.hashCode())) * 31
+					+ outcome.hashCode();
+		}
+	}
+}
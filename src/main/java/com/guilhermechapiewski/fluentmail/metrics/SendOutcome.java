@@ -0,0 +1,11 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+public enum SendOutcome {
+
+	SUCCESS,
+
+	/** The message went through but some recipients were rejected. */
+	REJECTED,
+
+	FAILURE
+}
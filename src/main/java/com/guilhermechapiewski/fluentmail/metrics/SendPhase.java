@@ -0,0 +1,19 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+/**
+ * The steps an email goes through on its way to the SMTP server.
+ */
+public enum SendPhase {
+
+	VALIDATE_REQUIRED_INFO,
+
+	VALIDATE_ADDRESSES,
+
+	CREATE_MESSAGE,
+
+	/** Opening (and authenticating) a new SMTP connection. */
+	CONNECT,
+
+	/** The SMTP transaction of one message, from MAIL FROM to the end of DATA. */
+	SEND_MESSAGE
+}
@@ -0,0 +1,188 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.mail.MessagingException;
+
+/**
+ * Bounds the sends in flight to one relay with a limit found by additive
+ * increase / multiplicative decrease: each send that completes at normal
+ * latency while the limit is in use raises it by 1/limit (about one per
+ * round trip), and each send slower than <i>latencyTolerance</i> times the
+ * no-load latency, throttled with a 4xx reply or refused outright cuts it by
+ * <i>backoffRatio</i>.
+ * <p>
+ * The no-load latency is the lowest latency seen, sampled again every
+ * {@value #BASELINE_WINDOW} sends so a slower relay doesn't look overloaded
+ * forever.
+ */
+public class AdaptiveConcurrencyLimit {
+
+	static final int BASELINE_WINDOW = 1000;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double backoffRatio;
+	private final double latencyTolerance;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition slotReleased = lock.newCondition();
+	private double limit;
+	private int inFlight;
+	private long baselineNanos = Long.MAX_VALUE;
+	private long windowMinNanos = Long.MAX_VALUE;
+	private int windowSamples;
+
+	/**
+	 * @param initialLimit
+	 *            Sends allowed in flight before anything was measured.
+	 * @param minLimit
+	 *            The limit never goes below this.
+	 * @param maxLimit
+	 *            The limit never goes above this.
+	 * @param backoffRatio
+	 *            Factor applied to the limit on overload, e.g. 0.9.
+	 * @param latencyTolerance
+	 *            How many times the no-load latency a send may take before
+	 *            it counts as overload, e.g. 2.
+	 */
+	public AdaptiveConcurrencyLimit(int initialLimit, int minLimit, int maxLimit,
+			double backoffRatio, double latencyTolerance) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Invalid limits: min " + minLimit + ", max "
+					+ maxLimit);
+		}
+		if (backoffRatio <= 0 || backoffRatio >= 1) {
+			throw new IllegalArgumentException("Backoff ratio must be between 0 and 1: "
+					+ backoffRatio);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.backoffRatio = backoffRatio;
+		this.latencyTolerance = latencyTolerance;
+		this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+	}
+
+	public static AdaptiveConcurrencyLimit fromConfiguration(EmailTransportConfiguration config) {
+		return new AdaptiveConcurrencyLimit(config.getConcurrencyInitialLimit(),
+				config.getConcurrencyMinLimit(), config.getConcurrencyMaxLimit(),
+				config.getConcurrencyBackoffRatio(), config.getConcurrencyLatencyTolerance());
+	}
+
+	/**
+	 * Waits for a send slot.
+	 *
+	 * @throws MessagingException
+	 *             If no slot was released within <i>timeoutMillis</i>.
+	 */
+	void acquire(long timeoutMillis) throws MessagingException {
+		lock.lock();
+		try {
+			long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+			while (inFlight >= (int) limit) {
+				if (remaining <= 0) {
+					throw new RelayBusyException("Timed out after " + timeoutMillis
+							+ "ms waiting for a send slot, limit is " + (int) limit);
+				}
+				remaining = slotReleased.awaitNanos(remaining);
+			}
+			inFlight++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MessagingException("Interrupted while waiting for a send slot", e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives back a slot taken by {@link #acquire(long)}.
+	 *
+	 * @param latencyNanos
+	 *            How long the send took.
+	 * @param overloaded
+	 *            Whether the relay throttled or refused the send.
+	 */
+	void release(long latencyNanos, boolean overloaded) {
+		lock.lock();
+		try {
+			inFlight--;
+			if (overloaded) {
+				decrease();
+			} else {
+				sample(latencyNanos);
+				if (latencyNanos > baselineNanos * latencyTolerance) {
+					decrease();
+				} else if (inFlight + 1 >= limit / 2) {
+					limit = Math.min(maxLimit, limit + 1 / limit);
+				}
+			}
+			slotReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives back a slot taken by {@link #acquire(long)} that was not used to
+	 * send, e.g. because no connection could be had, without sampling it.
+	 */
+	void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			slotReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Lowers the limit after the relay refused a connection.
+	 */
+	void overloaded() {
+		lock.lock();
+		try {
+			decrease();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void decrease() {
+		limit = Math.max(minLimit, limit * backoffRatio);
+	}
+
+	private void sample(long latencyNanos) {
+		windowMinNanos = Math.min(windowMinNanos, latencyNanos);
+		baselineNanos = Math.min(baselineNanos, latencyNanos);
+		if (++windowSamples >= BASELINE_WINDOW) {
+			baselineNanos = windowMinNanos;
+			windowMinNanos = Long.MAX_VALUE;
+			windowSamples = 0;
+		}
+	}
+
+	/**
+	 * @return Sends currently allowed in flight.
+	 */
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataSource;
+
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+
+/**
+ * Hands the content of an {@link Attachment} to JavaMail as a stream, opened
+ * anew every time the message is written.
+ */
+class AttachmentDataSource implements DataSource {
+
+	private final Attachment attachment;
+
+	AttachmentDataSource(Attachment attachment) {
+		this.attachment = attachment;
+	}
+
+	public InputStream getInputStream() throws IOException {
+		return attachment.open();
+	}
+
+	public OutputStream getOutputStream() throws IOException {
+		throw new IOException("Attachments are read-only");
+	}
+
+	public String getContentType() {
+		return attachment.getContentType();
+	}
+
+	public String getName() {
+		return attachment.getName();
+	}
+}
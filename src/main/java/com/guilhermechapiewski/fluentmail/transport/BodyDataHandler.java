@@ -0,0 +1,67 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.activation.DataHandler;
+import javax.activation.DataSource;
+import javax.mail.internet.MimeUtility;
+
+import com.guilhermechapiewski.fluentmail.email.BodySource;
+
+/**
+ * Writes a {@link BodySource} straight into the transfer encoder when the
+ * message is written, with no copy of the body in between.
+ */
+class BodyDataHandler extends DataHandler {
+
+	private final BodySource body;
+	private final String charset;
+
+	BodyDataHandler(BodySource body, String charset) {
+		super(new BodyDataSource(body, charset));
+		this.body = body;
+		this.charset = charset;
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		body.writeTo(out, charset);
+	}
+
+	private static class BodyDataSource implements DataSource {
+
+		private final BodySource body;
+		private final String charset;
+
+		BodyDataSource(BodySource body, String charset) {
+			this.body = body;
+			this.charset = charset;
+		}
+
+		/**
+		 * Only used when JavaMail inspects the content instead of writing
+		 * it, so the body is rendered to memory here.
+		 */
+		public InputStream getInputStream() throws IOException {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			body.writeTo(out, charset);
+			return new ByteArrayInputStream(out.toByteArray());
+		}
+
+		public OutputStream getOutputStream() throws IOException {
+			throw new IOException("Body sources are read-only");
+		}
+
+		public String getContentType() {
+			return body.getContentType() + "; charset=" + MimeUtility.mimeCharset(charset);
+		}
+
+		public String getName() {
+			return null;
+		}
+	}
+}
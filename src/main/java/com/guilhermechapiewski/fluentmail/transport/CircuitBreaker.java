@@ -0,0 +1,87 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+/**
+ * Per SMTP endpoint circuit breaker. After <i>failureThreshold</i>
+ * consecutive endpoint failures it opens and sends fail fast for
+ * <i>openMillis</i>. Then a single probe send is let through (half-open): if
+ * it succeeds the breaker closes, otherwise it opens again.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final String endpoint;
+	private final int failureThreshold;
+	private final long openMillis;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean probeInFlight;
+
+	public CircuitBreaker(String endpoint, int failureThreshold, long openMillis) {
+		this.endpoint = endpoint;
+		this.failureThreshold = failureThreshold;
+		this.openMillis = openMillis;
+	}
+
+	/**
+	 * @return <b>true</b> if a send may be attempted now.
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (currentTimeMillis() - openedAt < openMillis) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+			probeInFlight = true;
+			return true;
+		default:
+			if (probeInFlight) {
+				return false;
+			}
+			probeInFlight = true;
+			return true;
+		}
+	}
+
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		probeInFlight = false;
+		state = State.CLOSED;
+	}
+
+	public synchronized void recordFailure() {
+		probeInFlight = false;
+		consecutiveFailures++;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			state = State.OPEN;
+			openedAt = currentTimeMillis();
+		}
+	}
+
+	/**
+	 * The send let through failed before reaching the endpoint: lets another
+	 * one through instead, without changing the state.
+	 */
+	public synchronized void recordAborted() {
+		probeInFlight = false;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	protected long currentTimeMillis() {
+		return System.currentTimeMillis();
+	}
+}
@@ -0,0 +1,15 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import javax.mail.MessagingException;
+
+/**
+ * Thrown instead of trying an SMTP server that recently kept failing.
+ */
+public class CircuitBreakerOpenException extends MessagingException {
+
+	private static final long serialVersionUID = -2465138436105794185L;
+
+	public CircuitBreakerOpenException(String endpoint) {
+		super("SMTP server " + endpoint + " is failing, not trying it for now");
+	}
+}
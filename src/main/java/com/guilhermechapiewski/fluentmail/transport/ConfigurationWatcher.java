@@ -0,0 +1,170 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies a properties file again every time it changes, to the default
+ * configuration or to a transport registered in {@link Transports}. Sends
+ * are never held up by a reload: the new settings are swapped in at once,
+ * and relays built with the old ones finish the sends using them before
+ * they are closed. A registered transport keeps its relays, and so its
+ * circuit breakers, statistics and pacing, while they don't change.
+ * <p>
+ * A file that can't be read or has no SMTP server leaves the configuration
+ * as it was; see {@link #getLastFailure()}.
+ */
+public class ConfigurationWatcher implements Closeable {
+
+	/** Lets an editor finish writing before the file is read. */
+	static final long SETTLE_MILLIS = 100;
+
+	private final Path file;
+	private final String transport;
+	private final WatchService watchService;
+	private final Thread thread;
+	private final AtomicLong reloads = new AtomicLong();
+	private volatile Exception lastFailure;
+	/** The configuration registered for the transport. */
+	private EmailTransportConfiguration config;
+
+	private ConfigurationWatcher(Path file, String transport) throws IOException {
+		this.file = file.toAbsolutePath();
+		this.transport = transport;
+		this.watchService = this.file.getFileSystem().newWatchService();
+		this.file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, "fluent-mail-config-watcher");
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Applies <i>file</i> to the default configuration now and whenever it
+	 * changes.
+	 */
+	public static ConfigurationWatcher watch(Path file) throws IOException {
+		return watch(file, null);
+	}
+
+	/**
+	 * Registers <i>file</i> as the configuration of <i>transport</i> now and
+	 * whenever it changes.
+	 */
+	public static ConfigurationWatcher watch(Path file, String transport) throws IOException {
+		ConfigurationWatcher watcher = new ConfigurationWatcher(file, transport);
+		try {
+			watcher.reload();
+		} catch (IOException e) {
+			watcher.close();
+			throw e;
+		} catch (RuntimeException e) {
+			watcher.close();
+			throw e;
+		}
+		watcher.thread.start();
+		return watcher;
+	}
+
+	/**
+	 * Reads the file and applies it right away.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the file has no SMTP server or an invalid value.
+	 */
+	public synchronized void reload() throws IOException {
+		Properties properties = new Properties();
+		InputStream in = Files.newInputStream(file);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		if (properties.getProperty(EmailTransportConfiguration.KEY_SMTP_SERVER) == null) {
+			throw new IllegalArgumentException("No SMTP server in " + file);
+		}
+
+		if (transport == null) {
+			EmailTransportConfiguration.configure(properties);
+		} else {
+			PostalService registered = Transports.find(transport);
+			if (registered != null && registered.getConfiguration() == config) {
+				config.reload(properties);
+			} else {
+				config = EmailTransportConfiguration.builder().load(properties).build();
+				Transports.register(transport, config);
+			}
+		}
+		reloads.incrementAndGet();
+	}
+
+	private void watch() {
+		try {
+			while (true) {
+				WatchKey key = watchService.take();
+				boolean changed = false;
+				do {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						changed |= event.kind() == OVERFLOW
+								|| file.getFileName().equals(event.context());
+					}
+					key.reset();
+				} while ((key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)) != null);
+
+				if (changed) {
+					try {
+						reload();
+						lastFailure = null;
+					} catch (Exception e) {
+						lastFailure = e;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			// Closed.
+		} catch (ClosedWatchServiceException e) {
+			// Closed.
+		}
+	}
+
+	/**
+	 * @return How many times the file was applied, including when watching
+	 *         started.
+	 */
+	public long getReloadCount() {
+		return reloads.get();
+	}
+
+	/**
+	 * @return Why the last change of the file could not be applied, or null
+	 *         if it was.
+	 */
+	public Exception getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * Stops watching. The configuration stays as last applied.
+	 */
+	public void close() throws IOException {
+		thread.interrupt();
+		watchService.close();
+	}
+}
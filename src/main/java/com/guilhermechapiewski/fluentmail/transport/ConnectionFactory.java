@@ -0,0 +1,19 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import javax.mail.MessagingException;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Opens new, already connected and authenticated, SMTP transports for a
+ * {@link SmtpConnectionPool}.
+ */
+public interface ConnectionFactory {
+
+	/**
+	 * @param deadline
+	 *            Bounds connecting and waiting for the server while
+	 *            connecting, not the use of the connection afterwards.
+	 */
+	SMTPTransport connect(Deadline deadline) throws MessagingException;
+}
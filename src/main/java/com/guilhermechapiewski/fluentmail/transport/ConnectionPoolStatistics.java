@@ -0,0 +1,119 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+/**
+ * Point-in-time view of the counters kept by a {@link SmtpConnectionPool},
+ * meant to help sizing the pool.
+ */
+public class ConnectionPoolStatistics {
+
+	private final long hits;
+	private final long misses;
+	private final long waits;
+	private final long totalWaitNanos;
+	private final long timeouts;
+	private final long created;
+	private final long destroyed;
+	private final long healthCheckFailures;
+	private final int idle;
+	private final int active;
+
+	ConnectionPoolStatistics(long hits, long misses, long waits, long totalWaitNanos,
+			long timeouts, long created, long destroyed, long healthCheckFailures,
+			int idle, int active) {
+		this.hits = hits;
+		this.misses = misses;
+		this.waits = waits;
+		this.totalWaitNanos = totalWaitNanos;
+		this.timeouts = timeouts;
+		this.created = created;
+		this.destroyed = destroyed;
+		this.healthCheckFailures = healthCheckFailures;
+		this.idle = idle;
+		this.active = active;
+	}
+
+	static ConnectionPoolStatistics sum(Iterable<ConnectionPoolStatistics> pools) {
+		long hits = 0, misses = 0, waits = 0, totalWaitNanos = 0, timeouts = 0;
+		long created = 0, destroyed = 0, healthCheckFailures = 0;
+		int idle = 0, active = 0;
+		for (ConnectionPoolStatistics pool : pools) {
+			hits += pool.hits;
+			misses += pool.misses;
+			waits += pool.waits;
+			totalWaitNanos += pool.totalWaitNanos;
+			timeouts += pool.timeouts;
+			created += pool.created;
+			destroyed += pool.destroyed;
+			healthCheckFailures += pool.healthCheckFailures;
+			idle += pool.idle;
+			active += pool.active;
+		}
+		return new ConnectionPoolStatistics(hits, misses, waits, totalWaitNanos, timeouts,
+				created, destroyed, healthCheckFailures, idle, active);
+	}
+
+	/**
+	 * @return How many borrows were served by reusing an idle connection.
+	 */
+	public long getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return How many borrows had to open a new connection.
+	 */
+	public long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * @return How many borrows found the pool exhausted and had to wait.
+	 */
+	public long getWaits() {
+		return waits;
+	}
+
+	public long getTotalWaitNanos() {
+		return totalWaitNanos;
+	}
+
+	public long getAverageWaitNanos() {
+		return waits == 0 ? 0 : totalWaitNanos / waits;
+	}
+
+	/**
+	 * @return How many borrows gave up waiting for a connection.
+	 */
+	public long getTimeouts() {
+		return timeouts;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public long getDestroyed() {
+		return destroyed;
+	}
+
+	public long getHealthCheckFailures() {
+		return healthCheckFailures;
+	}
+
+	public int getIdle() {
+		return idle;
+	}
+
+	public int getActive() {
+		return active;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + hits + ", misses=" + misses + ", waits=" + waits
+				+ ", averageWaitNanos=" + getAverageWaitNanos() + ", timeouts=" + timeouts
+				+ ", created=" + created + ", destroyed=" + destroyed
+				+ ", healthCheckFailures=" + healthCheckFailures + ", idle=" + idle
+				+ ", active=" + active;
+	}
+}
@@ -0,0 +1,70 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The time by which a send must be done. Every wait of the send (for a
+ * connection, a rate limit or a retry) is cut short at the deadline, and
+ * the send stops before the next step once it passed. A step already
+ * talking to the server is bounded by the socket timeouts instead.
+ */
+public final class Deadline {
+
+	/** No deadline: only the configured waits and timeouts apply. */
+	public static final Deadline NONE = new Deadline(0, 0);
+
+	private final long timeoutMillis;
+	private final long expiresAt;
+
+	private Deadline(long timeoutMillis, long expiresAt) {
+		this.timeoutMillis = timeoutMillis;
+		this.expiresAt = expiresAt;
+	}
+
+	/**
+	 * @return A deadline <i>timeout</i> from now.
+	 */
+	public static Deadline after(long timeout, TimeUnit unit) {
+		if (timeout <= 0) {
+			throw new IllegalArgumentException("Timeout must be positive: " + timeout);
+		}
+		return new Deadline(unit.toMillis(timeout), System.nanoTime() + unit.toNanos(timeout));
+	}
+
+	public boolean isExpired() {
+		return this != NONE && System.nanoTime() - expiresAt >= 0;
+	}
+
+	/**
+	 * @return Milliseconds left, at least zero, or Long.MAX_VALUE without a
+	 *         deadline.
+	 */
+	public long remainingMillis() {
+		if (this == NONE) {
+			return Long.MAX_VALUE;
+		}
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+	}
+
+	/**
+	 * @return <i>millis</i>, or the time left if that is shorter.
+	 */
+	long clip(long millis) {
+		return Math.min(millis, remainingMillis());
+	}
+
+	/**
+	 * @throws SendTimeoutException
+	 *             If the deadline passed.
+	 */
+	void check(String step) throws SendTimeoutException {
+		if (isExpired()) {
+			throw timedOut(step, null);
+		}
+	}
+
+	SendTimeoutException timedOut(String step, Exception cause) {
+		return new SendTimeoutException("Send did not complete within " + timeoutMillis
+				+ "ms, timed out " + step, cause);
+	}
+}
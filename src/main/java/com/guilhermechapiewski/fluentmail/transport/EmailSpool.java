@@ -0,0 +1,339 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * Durable outbound queue. Emails are appended to a segmented, memory-mapped,
+ * append-only journal before being sent, so they survive a JVM crash.
+ * <p>
+ * {@link #enqueue(Email)} returns once the record is on disk. Concurrent
+ * enqueues share a single fsync (group commit): whoever flushes first makes
+ * the records of everyone waiting behind it durable. Acknowledgements are not
+ * flushed on their own, so after a crash a sent email may be sent again;
+ * delivery is at-least-once.
+ * <p>
+ * When the spool is opened, entries without an acknowledgement are replayed
+ * and become available through {@link #poll()} again. Segments are deleted,
+ * oldest first, once all their entries are acknowledged.
+ */
+public class EmailSpool {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+	private static final String SEGMENT_SUFFIX = ".spool";
+
+	private final Path directory;
+	private final int segmentSize;
+
+	private final Object appendLock = new Object();
+	private final Object flushLock = new Object();
+
+	private final Deque<SpoolSegment> segments = new ArrayDeque<SpoolSegment>();
+	private final LinkedBlockingDeque<SpoolEntry> pending = new LinkedBlockingDeque<SpoolEntry>();
+
+	private SpoolSegment active;
+	private long nextSequence = 1;
+	private volatile long durableSequence;
+	private boolean closed;
+
+	public EmailSpool(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Opens the spool, replaying unacknowledged entries left by a previous
+	 * run.
+	 *
+	 * @param directory
+	 *            Directory holding the journal segments. Created if missing.
+	 * @param segmentSize
+	 *            Size in bytes of each segment file. Also the upper bound of
+	 *            a single serialized email.
+	 */
+	public EmailSpool(Path directory, int segmentSize) throws IOException {
+		if (segmentSize <= SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_OVERHEAD) {
+			throw new IllegalArgumentException("Segment size too small: " + segmentSize);
+		}
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+
+		Files.createDirectories(directory);
+		recover();
+	}
+
+	/**
+	 * Appends an email to the journal and waits until it is durable.
+	 *
+	 * @return The sequence number of the spooled entry.
+	 */
+	public long enqueue(Email email) throws IOException {
+		return enqueue(email, 0, 0);
+	}
+
+	/**
+	 * Spools what is left of an entry, e.g. the recipients that rejected it
+	 * for now, carrying over its failed attempts.
+	 *
+	 * @return The sequence number of the spooled entry.
+	 */
+	long enqueue(Email email, int failedAttempts, long delayMillis) throws IOException {
+		byte[] payload = SpoolCodec.encode(email);
+		SpoolEntry entry;
+
+		synchronized (appendLock) {
+			ensureOpen();
+			long sequence = nextSequence++;
+			SpoolSegment segment = segmentFor(payload.length);
+			int offset = segment.append(SpoolSegment.TYPE_EMAIL, sequence, payload);
+			segment.getLiveEntries().incrementAndGet();
+			entry = new SpoolEntry(sequence, segment, offset, payload.length);
+		}
+		entry.setFailedAttempts(failedAttempts);
+		entry.delay(delayMillis);
+
+		awaitDurable(entry.getSequence());
+		pending.addLast(entry);
+		return entry.getSequence();
+	}
+
+	/**
+	 * @return The next entry to send, or <b>null</b> if there is none.
+	 */
+	public SpoolEntry poll() {
+		return pending.pollFirst();
+	}
+
+	/**
+	 * Waits up to <i>timeout</i> for an entry to send.
+	 *
+	 * @return The next entry to send, or <b>null</b> if none arrived in time.
+	 */
+	public SpoolEntry poll(long timeout, TimeUnit unit) throws InterruptedException {
+		return pending.pollFirst(timeout, unit);
+	}
+
+	/**
+	 * Marks an entry as sent, so it is not replayed and its segment can be
+	 * reclaimed. Acknowledging it again does nothing.
+	 */
+	public void acknowledge(SpoolEntry entry) throws IOException {
+		synchronized (appendLock) {
+			ensureOpen();
+			if (entry.isAcknowledged()) {
+				return;
+			}
+			byte[] payload = ByteBuffer.allocate(8).putLong(entry.getSequence()).array();
+			segmentFor(payload.length).append(SpoolSegment.TYPE_ACK, nextSequence++, payload);
+			entry.setAcknowledged();
+			entry.getSegment().getLiveEntries().decrementAndGet();
+			deleteAcknowledgedSegments();
+		}
+	}
+
+	/**
+	 * Gives back an entry that could not be sent, to be retried after the
+	 * entries already waiting.
+	 */
+	public void release(SpoolEntry entry) {
+		pending.addLast(entry);
+	}
+
+	/**
+	 * Like {@link #release(SpoolEntry)}, the entry becoming due again only
+	 * after <i>delayMillis</i>.
+	 */
+	public void release(SpoolEntry entry, long delayMillis) {
+		entry.delay(delayMillis);
+		pending.addLast(entry);
+	}
+
+	/**
+	 * @return Entries waiting to be sent, not counting those handed out by
+	 *         {@link #poll()} and not yet acknowledged or released.
+	 */
+	public int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Makes every record appended so far durable, including
+	 * acknowledgements.
+	 */
+	public void flush() {
+		long sequence;
+		synchronized (appendLock) {
+			sequence = nextSequence - 1;
+		}
+		awaitDurable(sequence);
+	}
+
+	public void close() {
+		flush();
+		synchronized (appendLock) {
+			closed = true;
+			for (SpoolSegment segment : segments) {
+				segment.close();
+			}
+		}
+	}
+
+	/**
+	 * Group commit: the first thread in forces the active segment for every
+	 * record appended so far, the ones queued behind it usually find their
+	 * record already durable.
+	 */
+	private void awaitDurable(long sequence) {
+		if (durableSequence >= sequence) {
+			return;
+		}
+		synchronized (flushLock) {
+			if (durableSequence >= sequence) {
+				return;
+			}
+			long target;
+			SpoolSegment segment;
+			synchronized (appendLock) {
+				target = nextSequence - 1;
+				segment = active;
+			}
+			segment.force();
+			durableSequence = target;
+		}
+	}
+
+	/**
+	 * Must be called holding the append lock. Sealed segments are forced
+	 * when rolling over, so only the active one needs forcing on commit.
+	 */
+	private SpoolSegment segmentFor(int payloadLength) throws IOException {
+		if (active.fits(payloadLength)) {
+			return active;
+		}
+		if (SpoolSegment.HEADER_SIZE + SpoolSegment.RECORD_OVERHEAD + payloadLength > segmentSize) {
+			throw new IllegalArgumentException("Email of " + payloadLength
+					+ " bytes does not fit in a spool segment of " + segmentSize + " bytes");
+		}
+		active.force();
+		active = newSegment(active.getId() + 1);
+		return active;
+	}
+
+	private SpoolSegment newSegment(long id) throws IOException {
+		SpoolSegment segment = SpoolSegment.create(id, segmentPath(id), segmentSize);
+		forceDirectory();
+		segments.addLast(segment);
+		return segment;
+	}
+
+	/**
+	 * Makes the creation of a segment file durable, so that the records
+	 * forced into it are not lost with its directory entry.
+	 */
+	private void forceDirectory() throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory, StandardOpenOption.READ);
+		} catch (IOException e) {
+			// Directories can't be opened on every platform, e.g. Windows,
+			// which doesn't need it.
+			return;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Must be called holding the append lock. Only a prefix of the journal is
+	 * ever deleted, because acknowledgements live in the same or later
+	 * segments than the entries they refer to.
+	 */
+	private void deleteAcknowledgedSegments() throws IOException {
+		while (segments.size() > 1 && segments.peekFirst().getLiveEntries().get() == 0) {
+			segments.pollFirst().delete();
+		}
+	}
+
+	private void ensureOpen() {
+		if (closed) {
+			throw new IllegalStateException("Spool is closed");
+		}
+	}
+
+	private void recover() throws IOException {
+		List<Long> ids = new ArrayList<Long>();
+		DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*"
+				+ SEGMENT_SUFFIX);
+		try {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				ids.add(Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length()
+						- SEGMENT_SUFFIX.length())));
+			}
+		} finally {
+			files.close();
+		}
+		Collections.sort(ids);
+
+		final Map<Long, SpoolEntry> unacknowledged = new LinkedHashMap<Long, SpoolEntry>();
+		long lastSequence = 0;
+
+		for (Long id : ids) {
+			final SpoolSegment segment = SpoolSegment.open(id, segmentPath(id));
+			final long[] maxSequence = { lastSequence };
+			segment.recover(new SpoolSegment.RecordVisitor() {
+				public void visit(byte type, long sequence, int payloadOffset, int payloadLength) {
+					maxSequence[0] = Math.max(maxSequence[0], sequence);
+					if (type == SpoolSegment.TYPE_EMAIL) {
+						unacknowledged.put(sequence, new SpoolEntry(sequence, segment,
+								payloadOffset, payloadLength));
+						segment.getLiveEntries().incrementAndGet();
+					} else if (type == SpoolSegment.TYPE_ACK) {
+						long acked = segment.read(payloadOffset, payloadLength).getLong();
+						SpoolEntry entry = unacknowledged.remove(acked);
+						if (entry != null) {
+							entry.getSegment().getLiveEntries().decrementAndGet();
+						}
+					}
+				}
+			});
+			lastSequence = maxSequence[0];
+			segments.addLast(segment);
+		}
+
+		pending.addAll(unacknowledged.values());
+		nextSequence = lastSequence + 1;
+		durableSequence = lastSequence;
+
+		if (segments.isEmpty()) {
+			active = newSegment(1);
+		} else {
+			active = segments.peekLast();
+			deleteAcknowledgedSegments();
+		}
+	}
+
+	private Path segmentPath(long id) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+	}
+}
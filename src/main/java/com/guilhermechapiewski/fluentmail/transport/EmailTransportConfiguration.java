@@ -1,34 +1,260 @@
 package com.guilhermechapiewski.fluentmail.transport;
 
 import java.io.InputStream;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.guilhermechapiewski.fluentmail.metrics.MetricsRecorder;
+import com.guilhermechapiewski.fluentmail.metrics.SendMetrics;
 
 public class EmailTransportConfiguration {
 
 	private static final String PROPERTIES_FILE = "fluent-mail-api.properties";
-	private static final String KEY_SMTP_SERVER = "smtp.server";
+	static final String KEY_SMTP_SERVER = "smtp.server";
 	private static final String KEY_AUTH_REQUIRED = "auth.required";
 	private static final String KEY_USE_SECURE_SMTP = "use.secure.smtp";
 	private static final String KEY_USERNAME = "smtp.username";
 	private static final String KEY_PASSWORD = "smtp.password";
+	private static final String KEY_SMTP_CONNECT_TIMEOUT = "smtp.connect.timeout.millis";
+	private static final String KEY_SMTP_READ_TIMEOUT = "smtp.read.timeout.millis";
+	private static final String KEY_SMTP_WRITE_TIMEOUT = "smtp.write.timeout.millis";
+	private static final String KEY_SMTP_PIPELINING = "smtp.pipelining";
+	private static final String KEY_SMTP_8BITMIME = "smtp.8bitmime";
+	private static final String KEY_SMTP_CHUNK_SIZE = "smtp.chunk.size";
+	private static final String KEY_POOL_MIN_IDLE = "pool.min.idle";
+	private static final String KEY_POOL_MAX_IDLE = "pool.max.idle";
+	private static final String KEY_POOL_MAX_TOTAL = "pool.max.total";
+	private static final String KEY_POOL_MAX_WAIT = "pool.max.wait.millis";
+	private static final String KEY_POOL_MAX_MESSAGES = "pool.max.messages.per.connection";
+	private static final String KEY_POOL_IDLE_TIMEOUT = "pool.idle.timeout.millis";
+	private static final String KEY_POOL_WARM_CONNECTIONS = "pool.warm.connections";
+	private static final String KEY_POOL_KEEPALIVE = "pool.keepalive.millis";
+	private static final String KEY_ASYNC_THREADS = "async.threads";
+	private static final String KEY_ASYNC_QUEUE_CAPACITY = "async.queue.capacity";
+	private static final String KEY_ASYNC_REJECTION_POLICY = "async.rejection.policy";
+	private static final String KEY_ASYNC_VIRTUAL_THREADS = "async.virtual.threads";
+	private static final String KEY_RETRY_MAX_ATTEMPTS = "retry.max.attempts";
+	private static final String KEY_RETRY_INITIAL_BACKOFF = "retry.initial.backoff.millis";
+	private static final String KEY_RETRY_MAX_BACKOFF = "retry.max.backoff.millis";
+	private static final String KEY_RETRY_JITTER = "retry.jitter";
+	private static final String KEY_CIRCUIT_FAILURE_THRESHOLD = "circuit.failure.threshold";
+	private static final String KEY_CIRCUIT_OPEN = "circuit.open.millis";
+	private static final String KEY_RELAY_BALANCING = "relay.balancing";
+	private static final String KEY_METRICS_ENABLED = "metrics.enabled";
+	private static final String KEY_RATE_RELAY = "rate.relay.per.second";
+	private static final String KEY_RATE_RELAY_BURST = "rate.relay.burst";
+	private static final String KEY_RATE_DOMAIN = "rate.domain.per.second";
+	private static final String KEY_RATE_DOMAIN_BURST = "rate.domain.burst";
+	private static final String KEY_CONCURRENCY_ADAPTIVE = "concurrency.adaptive";
+	private static final String KEY_CONCURRENCY_INITIAL = "concurrency.initial.limit";
+	private static final String KEY_CONCURRENCY_MIN = "concurrency.min.limit";
+	private static final String KEY_CONCURRENCY_MAX = "concurrency.max.limit";
+	private static final String KEY_CONCURRENCY_BACKOFF = "concurrency.backoff.ratio";
+	private static final String KEY_CONCURRENCY_LATENCY_TOLERANCE = "concurrency.latency.tolerance";
+
+	/**
+	 * Values of the default configuration. Replaced, never changed, so a send
+	 * reads a consistent set of values without locking.
+	 */
+	private static volatile Settings defaults = new Settings();
+	private static final AtomicLong generations = new AtomicLong();
 
-	private static String smtpServer = "";
-	private static boolean authenticationRequired = false;
-	private static boolean useSecureSmtp = false;
-	private static String username = null;
-	private static String password = null;
+	/** Null for the view of the defaults. */
+	private volatile Settings settings;
 
 	static {
-		Properties properties = loadProperties();
+		configure(loadProperties());
+	}
+
+	/**
+	 * Applies settings read from a properties file, all at once: a send sees
+	 * either the old or the new values, never a mix. Settings missing from
+	 * <i>properties</i> keep their current value, except the SMTP server
+	 * and credentials, which are always replaced.
+	 * <p>
+	 * When the server, credentials or a setting of the relays change,
+	 * transports start sending through new relays while the ones in use
+	 * finish their sends.
+	 * 
+	 * @see ConfigurationWatcher
+	 */
+	public static synchronized void configure(Properties properties) {
+		publish(apply(defaults.copy(), properties));
+	}
+
+	/**
+	 * Makes <i>settings</i> the defaults, in a new generation if the relays
+	 * built from them would differ: circuit breakers, concurrency limits,
+	 * balancing, keepalive and ESMTP extensions are set when relays are
+	 * created.
+	 */
+	private static void publish(Settings settings) {
+		defaults = renew(settings, defaults);
+	}
+
+	private static Settings renew(Settings settings, Settings previous) {
+		if (!settings.sameRelays(previous)) {
+			settings.generation = generations.incrementAndGet();
+		}
+		return settings;
+	}
+
+	/**
+	 * Applies settings read from a properties file like
+	 * {@link #configure(Properties)}, to this configuration if it was built,
+	 * else to the defaults. Transports using it switch to new relays the
+	 * same way.
+	 */
+	synchronized void reload(Properties properties) {
+		if (settings == null) {
+			configure(properties);
+		} else {
+			settings = renew(apply(settings.copy(), properties), settings);
+		}
+	}
+
+	private static Settings apply(Settings settings, Properties properties) {
+		setSmtp(settings, properties.getProperty(KEY_SMTP_SERVER),
+				Boolean.parseBoolean(properties.getProperty(KEY_AUTH_REQUIRED)),
+				Boolean.parseBoolean(properties.getProperty(KEY_USE_SECURE_SMTP)),
+				properties.getProperty(KEY_USERNAME), properties.getProperty(KEY_PASSWORD));
+		setTimeouts(settings,
+				longProperty(properties, KEY_SMTP_CONNECT_TIMEOUT, settings.smtpConnectTimeoutMillis),
+				longProperty(properties, KEY_SMTP_READ_TIMEOUT, settings.smtpReadTimeoutMillis),
+				longProperty(properties, KEY_SMTP_WRITE_TIMEOUT, settings.smtpWriteTimeoutMillis));
+		settings.usePipelining = booleanProperty(properties, KEY_SMTP_PIPELINING,
+				settings.usePipelining);
+		settings.useEightBitMime = booleanProperty(properties, KEY_SMTP_8BITMIME,
+				settings.useEightBitMime);
+		settings.chunkSize = intProperty(properties, KEY_SMTP_CHUNK_SIZE, settings.chunkSize);
+
+		int poolMaxTotal = intProperty(properties, KEY_POOL_MAX_TOTAL, settings.poolMaxTotal);
+		if (poolMaxTotal < 1) {
+			throw new IllegalArgumentException("Pool must allow at least one connection");
+		}
+		settings.poolMinIdle = intProperty(properties, KEY_POOL_MIN_IDLE, settings.poolMinIdle);
+		settings.poolMaxIdle = intProperty(properties, KEY_POOL_MAX_IDLE, settings.poolMaxIdle);
+		settings.poolMaxTotal = poolMaxTotal;
+		settings.poolMaxWaitMillis = longProperty(properties, KEY_POOL_MAX_WAIT,
+				settings.poolMaxWaitMillis);
+		settings.poolMaxMessagesPerConnection = intProperty(properties, KEY_POOL_MAX_MESSAGES,
+				settings.poolMaxMessagesPerConnection);
+		settings.poolIdleTimeoutMillis = longProperty(properties, KEY_POOL_IDLE_TIMEOUT,
+				settings.poolIdleTimeoutMillis);
+		settings.poolWarmConnections = intProperty(properties, KEY_POOL_WARM_CONNECTIONS,
+				settings.poolWarmConnections);
+		settings.poolKeepAliveMillis = longProperty(properties, KEY_POOL_KEEPALIVE,
+				settings.poolKeepAliveMillis);
+
+		String rejectionPolicy = properties.getProperty(KEY_ASYNC_REJECTION_POLICY);
+		settings.asyncThreads = intProperty(properties, KEY_ASYNC_THREADS, settings.asyncThreads);
+		settings.asyncQueueCapacity = intProperty(properties, KEY_ASYNC_QUEUE_CAPACITY,
+				settings.asyncQueueCapacity);
+		if (rejectionPolicy != null) {
+			settings.asyncRejectionPolicy = SendDispatcher.RejectionPolicy.valueOf(rejectionPolicy
+					.trim().toUpperCase());
+		}
+		settings.useVirtualThreads = booleanProperty(properties, KEY_ASYNC_VIRTUAL_THREADS,
+				settings.useVirtualThreads);
+
+		settings.retryMaxAttempts = intProperty(properties, KEY_RETRY_MAX_ATTEMPTS,
+				settings.retryMaxAttempts);
+		settings.retryInitialBackoffMillis = longProperty(properties, KEY_RETRY_INITIAL_BACKOFF,
+				settings.retryInitialBackoffMillis);
+		settings.retryMaxBackoffMillis = longProperty(properties, KEY_RETRY_MAX_BACKOFF,
+				settings.retryMaxBackoffMillis);
+		settings.retryJitter = doubleProperty(properties, KEY_RETRY_JITTER, settings.retryJitter);
+		settings.circuitFailureThreshold = intProperty(properties, KEY_CIRCUIT_FAILURE_THRESHOLD,
+				settings.circuitFailureThreshold);
+		settings.circuitOpenMillis = longProperty(properties, KEY_CIRCUIT_OPEN,
+				settings.circuitOpenMillis);
+
+		String balancing = properties.getProperty(KEY_RELAY_BALANCING);
+		if (balancing != null) {
+			settings.relayBalancing = RelayBalancing.valueOf(balancing.trim().toUpperCase()
+					.replace('-', '_'));
+		}
+
+		String metricsEnabled = properties.getProperty(KEY_METRICS_ENABLED);
+		if (metricsEnabled != null) {
+			if (!Boolean.parseBoolean(metricsEnabled.trim())) {
+				settings.metricsRecorder = MetricsRecorder.NONE;
+			} else if (settings.metricsRecorder == MetricsRecorder.NONE) {
+				settings.metricsRecorder = new SendMetrics();
+			}
+		}
 
-		String smtpServer = properties.getProperty(KEY_SMTP_SERVER);
-		String username = properties.getProperty(KEY_USERNAME);
-		String password = properties.getProperty(KEY_PASSWORD);
-		
-		boolean authenticationRequired = Boolean.parseBoolean(properties.getProperty(KEY_AUTH_REQUIRED));
-		boolean useSecureSmtp = Boolean.parseBoolean(properties.getProperty(KEY_USE_SECURE_SMTP));
+		// A new limiter would forget the pace of sends in progress.
+		RateLimiter rateLimiter = settings.rateLimiter;
+		double relayPerSecond = doubleProperty(properties, KEY_RATE_RELAY, rateLimiter
+				.getRelayPermitsPerSecond());
+		int relayBurst = intProperty(properties, KEY_RATE_RELAY_BURST, rateLimiter.getRelayBurst());
+		double domainPerSecond = doubleProperty(properties, KEY_RATE_DOMAIN, rateLimiter
+				.getDomainPermitsPerSecond());
+		int domainBurst = intProperty(properties, KEY_RATE_DOMAIN_BURST, rateLimiter
+				.getDomainBurst());
+		if (!rateLimiter.hasLimits(relayPerSecond, relayBurst, domainPerSecond,
+				domainBurst)) {
+			settings.rateLimiter = new RateLimiter(relayPerSecond, relayBurst, domainPerSecond,
+					domainBurst);
+		}
+
+		settings.adaptiveConcurrency = booleanProperty(properties, KEY_CONCURRENCY_ADAPTIVE,
+				settings.adaptiveConcurrency);
+		settings.concurrencyInitialLimit = intProperty(properties, KEY_CONCURRENCY_INITIAL,
+				settings.concurrencyInitialLimit);
+		settings.concurrencyMinLimit = intProperty(properties, KEY_CONCURRENCY_MIN,
+				settings.concurrencyMinLimit);
+		settings.concurrencyMaxLimit = intProperty(properties, KEY_CONCURRENCY_MAX,
+				settings.concurrencyMaxLimit);
+		settings.concurrencyBackoffRatio = doubleProperty(properties, KEY_CONCURRENCY_BACKOFF,
+				settings.concurrencyBackoffRatio);
+		settings.concurrencyLatencyTolerance = doubleProperty(properties,
+				KEY_CONCURRENCY_LATENCY_TOLERANCE, settings.concurrencyLatencyTolerance);
+		return settings;
+	}
+
+	/**
+	 * Starts a new generation when the server or credentials change.
+	 */
+	private static void setSmtp(Settings settings, String smtpServer,
+			boolean authenticationRequired, boolean useSecureSmtp, String username, String password) {
+		if (!equal(settings.smtpServer, smtpServer)
+				|| settings.authenticationRequired != authenticationRequired
+				|| settings.useSecureSmtp != useSecureSmtp || !equal(settings.username, username)
+				|| !equal(settings.password, password)) {
+			settings.generation = generations.incrementAndGet();
+		}
+		settings.smtpServer = smtpServer;
+		settings.authenticationRequired = authenticationRequired;
+		settings.useSecureSmtp = useSecureSmtp;
+		settings.username = username;
+		settings.password = password;
+	}
+
+	private static boolean equal(String a, String b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	private static int intProperty(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Integer.parseInt(value.trim());
+	}
+
+	private static long longProperty(Properties properties, String key, long defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Long.parseLong(value.trim());
+	}
 
-		configure(smtpServer, authenticationRequired, useSecureSmtp, username, password);
+	private static double doubleProperty(Properties properties, String key, double defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Double.parseDouble(value.trim());
+	}
+
+	private static boolean booleanProperty(Properties properties, String key, boolean defaultValue) {
+		String value = properties.getProperty(key);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
 	}
 	
 	private static Properties loadProperties() {
@@ -50,7 +276,9 @@ public class EmailTransportConfiguration {
 	/**
 	 * @param smtpServer
 	 *            The SMTP server to use for mail transport. To use a specific
-	 *            port, user the syntax server:port.
+	 *            port, user the syntax server:port. Several relays can be
+	 *            given separated by commas, each optionally followed by
+	 *            *weight, e.g. relay1:587*3, relay2:587*1.
 	 * @param authenticationRequired
 	 *            Informs if mail transport needs to authenticate to send mail
 	 *            or not.
@@ -61,33 +289,705 @@ public class EmailTransportConfiguration {
 	 * @param password
 	 *            The SMTP password.
 	 */
-	public static void configure(String smtpServer,
+	public static synchronized void configure(String smtpServer,
 			boolean authenticationRequired, boolean useSecureSmtp, String username, String password) {
-		
-		EmailTransportConfiguration.smtpServer = smtpServer;
-		EmailTransportConfiguration.authenticationRequired = authenticationRequired;
-		EmailTransportConfiguration.useSecureSmtp = useSecureSmtp;
-		EmailTransportConfiguration.username = username;
-		EmailTransportConfiguration.password = password;
+		Settings settings = defaults.copy();
+		setSmtp(settings, smtpServer, authenticationRequired, useSecureSmtp, username, password);
+		defaults = settings;
+	}
+
+	/**
+	 * @param minIdle
+	 *            Idle connections that are never evicted for being idle.
+	 * @param maxIdle
+	 *            Maximum number of idle connections kept for reuse.
+	 * @param maxTotal
+	 *            Maximum number of open connections (idle and in use).
+	 * @param maxWaitMillis
+	 *            How long a send waits for a connection when the pool is
+	 *            exhausted.
+	 * @param maxMessagesPerConnection
+	 *            Number of messages sent through a connection before it is
+	 *            closed and replaced.
+	 * @param idleTimeoutMillis
+	 *            Idle time after which a connection is closed. Zero or less
+	 *            disables idle eviction.
+	 */
+	public static synchronized void configurePool(int minIdle, int maxIdle, int maxTotal,
+			long maxWaitMillis, int maxMessagesPerConnection, long idleTimeoutMillis) {
+		if (maxTotal < 1) {
+			throw new IllegalArgumentException("Pool must allow at least one connection");
+		}
+
+		Settings settings = defaults.copy();
+		settings.poolMinIdle = minIdle;
+		settings.poolMaxIdle = maxIdle;
+		settings.poolMaxTotal = maxTotal;
+		settings.poolMaxWaitMillis = maxWaitMillis;
+		settings.poolMaxMessagesPerConnection = maxMessagesPerConnection;
+		settings.poolIdleTimeoutMillis = idleTimeoutMillis;
+		defaults = settings;
+	}
+
+	/**
+	 * Bounds each step of the SMTP conversation, so that a stalled server
+	 * fails the send instead of holding a thread and a connection forever.
+	 * Transports connect again to apply new values.
+	 * 
+	 * @param connectMillis
+	 *            Time allowed to open the socket.
+	 * @param readMillis
+	 *            Time allowed for each reply of the server.
+	 * @param writeMillis
+	 *            Time allowed for each write to the socket, honored by
+	 *            JavaMail 1.5.2 and later.
+	 */
+	public static synchronized void configureTimeouts(long connectMillis, long readMillis,
+			long writeMillis) {
+		Settings settings = defaults.copy();
+		setTimeouts(settings, connectMillis, readMillis, writeMillis);
+		defaults = settings;
+	}
+
+	private static void setTimeouts(Settings settings, long connectMillis, long readMillis,
+			long writeMillis) {
+		if (connectMillis < 0 || readMillis < 0 || writeMillis < 0) {
+			throw new IllegalArgumentException("Timeouts cannot be negative");
+		}
+		if (settings.smtpConnectTimeoutMillis != connectMillis
+				|| settings.smtpReadTimeoutMillis != readMillis
+				|| settings.smtpWriteTimeoutMillis != writeMillis) {
+			settings.generation = generations.incrementAndGet();
+		}
+		settings.smtpConnectTimeoutMillis = connectMillis;
+		settings.smtpReadTimeoutMillis = readMillis;
+		settings.smtpWriteTimeoutMillis = writeMillis;
+	}
+
+	/**
+	 * Chooses which ESMTP extensions are used when the server advertises
+	 * them. Transports connect again to apply new values.
+	 * 
+	 * @param pipelining
+	 *            Sends MAIL FROM and all RCPT TO commands of a message at
+	 *            once (PIPELINING).
+	 * @param eightBitMime
+	 *            Sends text bodies as 8bit instead of quoted-printable or
+	 *            base64 (8BITMIME).
+	 * @param chunkSize
+	 *            Bytes of message data per BDAT command (CHUNKING). Zero or
+	 *            less sends message data with DATA.
+	 */
+	public static synchronized void configureEsmtp(boolean pipelining, boolean eightBitMime,
+			int chunkSize) {
+		Settings settings = defaults.copy();
+		settings.usePipelining = pipelining;
+		settings.useEightBitMime = eightBitMime;
+		settings.chunkSize = chunkSize;
+		publish(settings);
+	}
+
+	/**
+	 * Keeps connections to each relay open and ready, so that sends after
+	 * startup or a quiet period don't pay for the SMTP handshake. Transports
+	 * switch to new relays to apply new values.
+	 * 
+	 * @param warmConnections
+	 *            Idle connections opened ahead of sends, by
+	 *            {@link PostalService#prewarm()} and by each keepalive round.
+	 *            They are not evicted for being idle.
+	 * @param keepAliveMillis
+	 *            Interval of the NOOPs sent over idle connections, after
+	 *            which dead ones are replaced. Zero or less disables
+	 *            keepalive.
+	 */
+	public static synchronized void configureKeepAlive(int warmConnections, long keepAliveMillis) {
+		Settings settings = defaults.copy();
+		settings.poolWarmConnections = warmConnections;
+		settings.poolKeepAliveMillis = keepAliveMillis;
+		publish(settings);
+	}
+
+	/**
+	 * Settings of the dispatcher used by asynchronous sends. They are read
+	 * when the default dispatcher is created, on the first asynchronous send.
+	 * 
+	 * @param threads
+	 *            Number of sender threads.
+	 * @param queueCapacity
+	 *            Sends that may wait for a thread before the rejection policy
+	 *            applies.
+	 * @param rejectionPolicy
+	 *            What to do with a send when the queue is full.
+	 * @param useVirtualThreads
+	 *            Start a virtual thread per send instead of using a fixed
+	 *            number of threads (Java 21 or newer). <i>threads</i> plus
+	 *            <i>queueCapacity</i> still bounds pending sends.
+	 */
+	public static synchronized void configureAsync(int threads, int queueCapacity,
+			SendDispatcher.RejectionPolicy rejectionPolicy, boolean useVirtualThreads) {
+		Settings settings = defaults.copy();
+		settings.asyncThreads = threads;
+		settings.asyncQueueCapacity = queueCapacity;
+		settings.asyncRejectionPolicy = rejectionPolicy;
+		settings.useVirtualThreads = useVirtualThreads;
+		defaults = settings;
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            Total attempts of a send that fails transiently (4xx replies,
+	 *            I/O errors), including the first one. 1 disables retries.
+	 * @param initialBackoffMillis
+	 *            Wait before the first retry. Doubles on each retry.
+	 * @param maxBackoffMillis
+	 *            Upper bound of the wait between attempts.
+	 * @param jitter
+	 *            Randomized fraction (0 to 1) of each wait.
+	 */
+	public static synchronized void configureRetry(int maxAttempts, long initialBackoffMillis,
+			long maxBackoffMillis, double jitter) {
+		Settings settings = defaults.copy();
+
+		settings.retryMaxAttempts = maxAttempts;
+		settings.retryInitialBackoffMillis = initialBackoffMillis;
+		settings.retryMaxBackoffMillis = maxBackoffMillis;
+		settings.retryJitter = jitter;
+		defaults = settings;
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            Consecutive failures to reach the SMTP server after which
+	 *            sends to it fail fast.
+	 * @param openMillis
+	 *            How long sends fail fast before a probe send is tried.
+	 */
+	public static synchronized void configureCircuitBreaker(int failureThreshold, long openMillis) {
+		Settings settings = defaults.copy();
+		settings.circuitFailureThreshold = failureThreshold;
+		settings.circuitOpenMillis = openMillis;
+		publish(settings);
+	}
+
+	/**
+	 * @param relayBalancing
+	 *            How sends are spread when several relays are configured.
+	 */
+	public static synchronized void configureRelayBalancing(RelayBalancing relayBalancing) {
+		Settings settings = defaults.copy();
+		settings.relayBalancing = relayBalancing;
+		publish(settings);
+	}
+
+	/**
+	 * @param metricsRecorder
+	 *            Receives the duration of each phase of every send, e.g. a
+	 *            {@link SendMetrics}. Null disables recording.
+	 */
+	public static synchronized void configureMetrics(MetricsRecorder metricsRecorder) {
+		Settings settings = defaults.copy();
+		settings.metricsRecorder = metricsRecorder == null ? MetricsRecorder.NONE : metricsRecorder;
+		defaults = settings;
+	}
+
+	/**
+	 * Replaces the rate limits, along with any per-domain overrides.
+	 * 
+	 * @param relayPerSecond
+	 *            Messages per second to each relay, zero for no limit.
+	 * @param relayBurst
+	 *            Messages sent to a relay at once after it was idle.
+	 * @param domainPerSecond
+	 *            Messages per second to each recipient domain, zero for no
+	 *            limit.
+	 * @param domainBurst
+	 *            Messages sent to a domain at once after it was idle.
+	 */
+	public static synchronized void configureRateLimits(double relayPerSecond, int relayBurst,
+			double domainPerSecond, int domainBurst) {
+		Settings settings = defaults.copy();
+		settings.rateLimiter = new RateLimiter(relayPerSecond, relayBurst, domainPerSecond,
+				domainBurst);
+		defaults = settings;
+	}
+
+	/**
+	 * Settings of {@link AdaptiveConcurrencyLimit}. Transports switch to new
+	 * relays, starting from the initial limit, to apply new values.
+	 * 
+	 * @param adaptive
+	 *            Limit the sends in flight to each relay, adjusting the limit
+	 *            to the latency and throttling observed.
+	 * @param initialLimit
+	 *            Sends in flight allowed before anything was measured.
+	 * @param minLimit
+	 *            Lowest limit.
+	 * @param maxLimit
+	 *            Highest limit.
+	 * @param backoffRatio
+	 *            Factor (0 to 1) applied to the limit on overload.
+	 * @param latencyTolerance
+	 *            How many times the no-load latency a send may take before it
+	 *            counts as overload.
+	 */
+	public static synchronized void configureConcurrency(boolean adaptive, int initialLimit,
+			int minLimit, int maxLimit, double backoffRatio, double latencyTolerance) {
+		Settings settings = defaults.copy();
+		settings.adaptiveConcurrency = adaptive;
+		settings.concurrencyInitialLimit = initialLimit;
+		settings.concurrencyMinLimit = minLimit;
+		settings.concurrencyMaxLimit = maxLimit;
+		settings.concurrencyBackoffRatio = backoffRatio;
+		settings.concurrencyLatencyTolerance = latencyTolerance;
+		publish(settings);
+	}
+
+	/**
+	 * Sets the rate limit of one recipient domain, overriding the default.
+	 */
+	public static synchronized void configureDomainRateLimit(String domain, double perSecond,
+			int burst) {
+		Settings settings = defaults.copy();
+		settings.rateLimiter = settings.rateLimiter.withDomainLimit(domain, perSecond, burst);
+		defaults = settings;
+	}
+
+	/**
+	 * A view of the default configuration, which follows the changes made
+	 * with the configure methods.
+	 */
+	public EmailTransportConfiguration() {
+		this(null);
+	}
+
+	private EmailTransportConfiguration(Settings settings) {
+		this.settings = settings;
+	}
+
+	/**
+	 * Starts a configuration of its own, e.g. for one tenant registered in
+	 * {@link Transports}, from the current default values. What is built
+	 * only changes when a {@link ConfigurationWatcher} reloads it, and
+	 * doesn't follow later changes to the defaults. Its
+	 * rate limits start without the per-domain overrides of the defaults.
+	 */
+	public static Builder builder() {
+		Settings settings = defaults.copy();
+		settings.rateLimiter = settings.rateLimiter.withSameLimits();
+		return new Builder(settings);
+	}
+
+	private Settings settings() {
+		return settings != null ? settings : defaults;
+	}
+
+	/**
+	 * @return A number that changes whenever the SMTP server, credentials,
+	 *         timeouts or another setting of the relays change, telling
+	 *         transports to connect again.
+	 */
+	public long getGeneration() {
+		return settings().generation;
 	}
 
 	public String getSmtpServer() {
-		return smtpServer;
+		return settings().smtpServer;
+	}
+
+	/**
+	 * @return The relays listed in the SMTP server setting.
+	 */
+	public List<RelayAddress> getRelayAddresses() {
+		return RelayAddress.parseList(settings().smtpServer);
+	}
+
+	public RelayBalancing getRelayBalancing() {
+		return settings().relayBalancing;
+	}
+
+	public MetricsRecorder getMetricsRecorder() {
+		return settings().metricsRecorder;
+	}
+
+	public RateLimiter getRateLimiter() {
+		return settings().rateLimiter;
+	}
+
+	public boolean useAdaptiveConcurrency() {
+		return settings().adaptiveConcurrency;
+	}
+
+	public int getConcurrencyInitialLimit() {
+		return settings().concurrencyInitialLimit;
+	}
+
+	public int getConcurrencyMinLimit() {
+		return settings().concurrencyMinLimit;
+	}
+
+	public int getConcurrencyMaxLimit() {
+		return settings().concurrencyMaxLimit;
+	}
+
+	public double getConcurrencyBackoffRatio() {
+		return settings().concurrencyBackoffRatio;
+	}
+
+	public double getConcurrencyLatencyTolerance() {
+		return settings().concurrencyLatencyTolerance;
 	}
 
 	public boolean isAuthenticationRequired() {
-		return authenticationRequired;
+		return settings().authenticationRequired;
 	}
 
 	public String getUsername() {
-		return username;
+		return settings().username;
 	}
 
 	public String getPassword() {
-		return password;
+		return settings().password;
 	}
 
 	public boolean useSecureSmtp() {
-		return useSecureSmtp;
+		return settings().useSecureSmtp;
+	}
+
+	public boolean usePipelining() {
+		return settings().usePipelining;
+	}
+
+	public boolean useEightBitMime() {
+		return settings().useEightBitMime;
+	}
+
+	/**
+	 * @return Bytes of message data per BDAT command, zero or less to use
+	 *         DATA.
+	 */
+	public int getChunkSize() {
+		return settings().chunkSize;
+	}
+
+	public int getPoolMinIdle() {
+		return settings().poolMinIdle;
+	}
+
+	public int getPoolMaxIdle() {
+		return settings().poolMaxIdle;
+	}
+
+	public int getPoolMaxTotal() {
+		return settings().poolMaxTotal;
+	}
+
+	public long getPoolMaxWaitMillis() {
+		return settings().poolMaxWaitMillis;
+	}
+
+	public int getPoolMaxMessagesPerConnection() {
+		return settings().poolMaxMessagesPerConnection;
+	}
+
+	/**
+	 * @return Milliseconds allowed to open a connection, zero for no limit.
+	 */
+	public long getSmtpConnectTimeoutMillis() {
+		return settings().smtpConnectTimeoutMillis;
+	}
+
+	/**
+	 * @return Milliseconds allowed for each server reply, zero for no limit.
+	 */
+	public long getSmtpReadTimeoutMillis() {
+		return settings().smtpReadTimeoutMillis;
+	}
+
+	/**
+	 * @return Milliseconds allowed for each socket write, zero for no limit.
+	 */
+	public long getSmtpWriteTimeoutMillis() {
+		return settings().smtpWriteTimeoutMillis;
+	}
+
+	public long getPoolIdleTimeoutMillis() {
+		return settings().poolIdleTimeoutMillis;
+	}
+
+	public int getPoolWarmConnections() {
+		return settings().poolWarmConnections;
+	}
+
+	public long getPoolKeepAliveMillis() {
+		return settings().poolKeepAliveMillis;
+	}
+
+	public int getAsyncThreads() {
+		return settings().asyncThreads;
+	}
+
+	public int getAsyncQueueCapacity() {
+		return settings().asyncQueueCapacity;
+	}
+
+	public SendDispatcher.RejectionPolicy getAsyncRejectionPolicy() {
+		return settings().asyncRejectionPolicy;
+	}
+
+	public boolean useVirtualThreads() {
+		return settings().useVirtualThreads;
+	}
+
+	public int getRetryMaxAttempts() {
+		return settings().retryMaxAttempts;
+	}
+
+	public long getRetryInitialBackoffMillis() {
+		return settings().retryInitialBackoffMillis;
+	}
+
+	public long getRetryMaxBackoffMillis() {
+		return settings().retryMaxBackoffMillis;
+	}
+
+	public double getRetryJitter() {
+		return settings().retryJitter;
+	}
+
+	public int getCircuitFailureThreshold() {
+		return settings().circuitFailureThreshold;
+	}
+
+	public long getCircuitOpenMillis() {
+		return settings().circuitOpenMillis;
+	}
+
+	/**
+	 * Builds an immutable {@link EmailTransportConfiguration}. Each method
+	 * takes the same values as the configure method of the same setting.
+	 */
+	public static class Builder {
+
+		private final Settings settings;
+
+		private Builder(Settings settings) {
+			this.settings = settings;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configure(String, boolean, boolean,
+		 *      String, String)
+		 */
+		public Builder smtp(String smtpServer, boolean authenticationRequired,
+				boolean useSecureSmtp, String username, String password) {
+			setSmtp(settings, smtpServer, authenticationRequired, useSecureSmtp, username, password);
+			return this;
+		}
+
+		/**
+		 * Applies settings read from a properties file, like
+		 * {@link EmailTransportConfiguration#configure(Properties)}.
+		 */
+		public Builder load(Properties properties) {
+			apply(settings, properties);
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configurePool(int, int, int, long,
+		 *      int, long)
+		 */
+		public Builder pool(int minIdle, int maxIdle, int maxTotal, long maxWaitMillis,
+				int maxMessagesPerConnection, long idleTimeoutMillis) {
+			if (maxTotal < 1) {
+				throw new IllegalArgumentException("Pool must allow at least one connection");
+			}
+			settings.poolMinIdle = minIdle;
+			settings.poolMaxIdle = maxIdle;
+			settings.poolMaxTotal = maxTotal;
+			settings.poolMaxWaitMillis = maxWaitMillis;
+			settings.poolMaxMessagesPerConnection = maxMessagesPerConnection;
+			settings.poolIdleTimeoutMillis = idleTimeoutMillis;
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureTimeouts(long, long, long)
+		 */
+		public Builder timeouts(long connectMillis, long readMillis, long writeMillis) {
+			setTimeouts(settings, connectMillis, readMillis, writeMillis);
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureEsmtp(boolean, boolean, int)
+		 */
+		public Builder esmtp(boolean pipelining, boolean eightBitMime, int chunkSize) {
+			settings.usePipelining = pipelining;
+			settings.useEightBitMime = eightBitMime;
+			settings.chunkSize = chunkSize;
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureKeepAlive(int, long)
+		 */
+		public Builder keepAlive(int warmConnections, long keepAliveMillis) {
+			settings.poolWarmConnections = warmConnections;
+			settings.poolKeepAliveMillis = keepAliveMillis;
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureRetry(int, long, long,
+		 *      double)
+		 */
+		public Builder retry(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+				double jitter) {
+			settings.retryMaxAttempts = maxAttempts;
+			settings.retryInitialBackoffMillis = initialBackoffMillis;
+			settings.retryMaxBackoffMillis = maxBackoffMillis;
+			settings.retryJitter = jitter;
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureCircuitBreaker(int, long)
+		 */
+		public Builder circuitBreaker(int failureThreshold, long openMillis) {
+			settings.circuitFailureThreshold = failureThreshold;
+			settings.circuitOpenMillis = openMillis;
+			return this;
+		}
+
+		public Builder relayBalancing(RelayBalancing relayBalancing) {
+			settings.relayBalancing = relayBalancing;
+			return this;
+		}
+
+		public Builder metrics(MetricsRecorder metricsRecorder) {
+			settings.metricsRecorder = metricsRecorder == null ? MetricsRecorder.NONE
+					: metricsRecorder;
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureRateLimits(double, int,
+		 *      double, int)
+		 */
+		public Builder rateLimits(double relayPerSecond, int relayBurst, double domainPerSecond,
+				int domainBurst) {
+			settings.rateLimiter = new RateLimiter(relayPerSecond, relayBurst, domainPerSecond,
+					domainBurst);
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureDomainRateLimit(String,
+		 *      double, int)
+		 */
+		public Builder domainRateLimit(String domain, double perSecond, int burst) {
+			settings.rateLimiter = settings.rateLimiter.withDomainLimit(domain, perSecond, burst);
+			return this;
+		}
+
+		/**
+		 * @see EmailTransportConfiguration#configureConcurrency(boolean, int,
+		 *      int, int, double, double)
+		 */
+		public Builder concurrency(boolean adaptive, int initialLimit, int minLimit,
+				int maxLimit, double backoffRatio, double latencyTolerance) {
+			settings.adaptiveConcurrency = adaptive;
+			settings.concurrencyInitialLimit = initialLimit;
+			settings.concurrencyMinLimit = minLimit;
+			settings.concurrencyMaxLimit = maxLimit;
+			settings.concurrencyBackoffRatio = backoffRatio;
+			settings.concurrencyLatencyTolerance = latencyTolerance;
+			return this;
+		}
+
+		public EmailTransportConfiguration build() {
+			return new EmailTransportConfiguration(settings.copy());
+		}
+	}
+
+	/**
+	 * All values of a configuration. Only changed before being published.
+	 */
+	private static class Settings implements Cloneable {
+
+		long generation;
+		String smtpServer = "";
+		boolean authenticationRequired = false;
+		boolean useSecureSmtp = false;
+		String username = null;
+		String password = null;
+		long smtpConnectTimeoutMillis = 30000;
+		long smtpReadTimeoutMillis = 60000;
+		long smtpWriteTimeoutMillis = 60000;
+		boolean usePipelining = true;
+		boolean useEightBitMime = true;
+		int chunkSize = 64 * 1024;
+
+		int poolMinIdle = 0;
+		int poolMaxIdle = 4;
+		int poolMaxTotal = 8;
+		long poolMaxWaitMillis = 30000;
+		int poolMaxMessagesPerConnection = 100;
+		long poolIdleTimeoutMillis = 60000;
+		int poolWarmConnections = 0;
+		long poolKeepAliveMillis = 0;
+
+		int asyncThreads = 4;
+		int asyncQueueCapacity = 1000;
+		SendDispatcher.RejectionPolicy asyncRejectionPolicy = SendDispatcher.RejectionPolicy
+				.ABORT;
+		boolean useVirtualThreads = false;
+
+		int retryMaxAttempts = 3;
+		long retryInitialBackoffMillis = 200;
+		long retryMaxBackoffMillis = 5000;
+		double retryJitter = 0.5;
+		int circuitFailureThreshold = 5;
+		long circuitOpenMillis = 30000;
+		RelayBalancing relayBalancing = RelayBalancing.WEIGHTED_ROUND_ROBIN;
+		MetricsRecorder metricsRecorder = MetricsRecorder.NONE;
+		RateLimiter rateLimiter = new RateLimiter(0, 1, 0, 1);
+
+		boolean adaptiveConcurrency = false;
+		int concurrencyInitialLimit = 4;
+		int concurrencyMinLimit = 1;
+		int concurrencyMaxLimit = 32;
+		double concurrencyBackoffRatio = 0.9;
+		double concurrencyLatencyTolerance = 2;
+
+		/**
+		 * @return Whether relays built from <i>other</i> would be the same,
+		 *         the server, credentials and timeouts aside.
+		 */
+		boolean sameRelays(Settings other) {
+			return usePipelining == other.usePipelining
+					&& useEightBitMime == other.useEightBitMime && chunkSize == other.chunkSize
+					&& poolWarmConnections == other.poolWarmConnections
+					&& poolKeepAliveMillis == other.poolKeepAliveMillis
+					&& circuitFailureThreshold == other.circuitFailureThreshold
+					&& circuitOpenMillis == other.circuitOpenMillis
+					&& relayBalancing == other.relayBalancing
+					&& adaptiveConcurrency == other.adaptiveConcurrency
+					&& concurrencyInitialLimit == other.concurrencyInitialLimit
+					&& concurrencyMinLimit == other.concurrencyMinLimit
+					&& concurrencyMaxLimit == other.concurrencyMaxLimit
+					&& concurrencyBackoffRatio == other.concurrencyBackoffRatio
+					&& concurrencyLatencyTolerance == other.concurrencyLatencyTolerance;
+		}
+
+		Settings copy() {
+			try {
+				return (Settings) clone();
+			} catch (CloneNotSupportedException e) {
+				throw new AssertionError(e);
+			}
+		}
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,457 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.activation.DataHandler;
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Part;
+import javax.mail.Session;
+import javax.mail.URLName;
+import javax.mail.internet.ContentType;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimePart;
+import javax.mail.internet.MimeUtility;
+
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPTransport;
+import com.sun.mail.util.CRLFOutputStream;
+
+/**
+ * SMTP transport that uses the ESMTP extensions the server advertises in
+ * its EHLO reply, where JavaMail would talk in lock-step:
+ * <ul>
+ * <li>PIPELINING: MAIL FROM and every RCPT TO of a message go out in one
+ * write. JavaMail then reads their replies as if it had sent the commands
+ * one by one.</li>
+ * <li>8BITMIME: text bodies held in memory are sent as they are, declared
+ * 8bit and with BODY=8BITMIME, instead of quoted-printable or base64.
+ * Streamed bodies keep their encoding, as checking them would mean
+ * rendering them twice.</li>
+ * <li>CHUNKING: message data goes out with BDAT instead of DATA, with no 354
+ * round trip and no dot-stuffing.</li>
+ * </ul>
+ */
+class EsmtpTransport extends SMTPTransport {
+
+	private static final int SMTP_OK = 250;
+	private static final int MAX_LINE_LENGTH = 998;
+
+	private static final Field serverSocket = serverSocketField();
+
+	private final String protocol;
+	private final boolean pipelining;
+	private final boolean eightBitMime;
+	private final int chunkSize;
+
+	/** Commands already sent ahead, whose replies are still to be read. */
+	private final ArrayDeque<String> pipelined = new ArrayDeque<String>();
+	private Address[] pipelineRecipients;
+	private boolean eightBit;
+	private ChunkOutputStream chunks;
+	private byte[] chunkBuffer;
+	private CountingOutputStream counter;
+
+	EsmtpTransport(Session session, String protocol, EmailTransportConfiguration config) {
+		super(session, new URLName(protocol, null, -1, null, null, null), protocol, "smtps"
+				.equals(protocol) ? 465 : 25, "smtps".equals(protocol));
+		this.protocol = protocol;
+		this.pipelining = config.usePipelining();
+		this.eightBitMime = config.useEightBitMime();
+		this.chunkSize = config.getChunkSize();
+	}
+
+	@Override
+	public synchronized void sendMessage(Message message, Address[] addresses)
+			throws MessagingException {
+		Map<MimePart, String> converted = null;
+		if (eightBitMime && supportsExtension("8BITMIME")) {
+			converted = new LinkedHashMap<MimePart, String>();
+			convertTo8Bit(message, converted);
+			eightBit = !converted.isEmpty();
+		}
+		if (pipelining && supportsExtension("PIPELINING") && canPipeline(message, addresses)) {
+			pipelineRecipients = addresses;
+		}
+		counter = null;
+		try {
+			super.sendMessage(message, addresses);
+		} finally {
+			eightBit = false;
+			pipelineRecipients = null;
+			chunks = null;
+			if (converted != null) {
+				// Back to the original encoding, in case a retry goes
+				// to a relay without 8BITMIME.
+				for (Map.Entry<MimePart, String> entry : converted.entrySet()) {
+					entry.getKey().setHeader("Content-Transfer-Encoding", entry.getValue());
+				}
+			}
+			if (!pipelined.isEmpty()) {
+				// Replies left unread: the connection is out of step.
+				pipelined.clear();
+				try {
+					close();
+				} catch (MessagingException e) {
+					// Closing anyway.
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void sendCommand(String command) throws MessagingException {
+		if (!pipelined.isEmpty()) {
+			if (command.equals(pipelined.peekFirst())) {
+				pipelined.removeFirst();
+				return;
+			}
+			// JavaMail went another way, e.g. RSET after MAIL FROM failed.
+			while (!pipelined.isEmpty()) {
+				pipelined.removeFirst();
+				readServerResponse();
+			}
+		}
+
+		if (command.startsWith("MAIL FROM:")) {
+			StringBuilder batch = new StringBuilder(command);
+			if (eightBit) {
+				batch.append(" BODY=8BITMIME");
+			}
+			if (pipelineRecipients != null) {
+				for (Address recipient : pipelineRecipients) {
+					String rcpt = "RCPT TO:"
+							+ normalize(((InternetAddress) recipient).getAddress());
+					batch.append("\r\n").append(rcpt);
+					pipelined.addLast(rcpt);
+				}
+			}
+			command = batch.toString();
+		}
+		super.sendCommand(command);
+	}
+
+	@Override
+	protected OutputStream data() throws MessagingException {
+		if (chunkSize <= 0 || !supportsExtension("CHUNKING")) {
+			counter = new CountingOutputStream(super.data());
+		} else {
+			if (chunkBuffer == null) {
+				chunkBuffer = new byte[chunkSize];
+			}
+			chunks = new ChunkOutputStream(supportsExtension("PIPELINING"));
+			counter = new CountingOutputStream(new CRLFOutputStream(chunks));
+		}
+		return counter;
+	}
+
+	/**
+	 * @return Bytes of the last message sent, as written by JavaMail, or -1
+	 *         if it never got to its data.
+	 */
+	long getMessageSize() {
+		return counter == null ? -1 : counter.count;
+	}
+
+	/**
+	 * @return Whether {@link #setReadTimeout(long)} can work here.
+	 */
+	static boolean canSetReadTimeout() {
+		return serverSocket != null;
+	}
+
+	/**
+	 * Changes how long to wait for server replies once connected, e.g. back
+	 * to the configured timeout after connecting with a shorter one. JavaMail
+	 * keeps the socket to itself, hence the reflection.
+	 */
+	void setReadTimeout(long millis) throws MessagingException {
+		try {
+			Socket socket = serverSocket == null ? null : (Socket) serverSocket.get(this);
+			if (socket == null) {
+				throw new MessagingException("Could not set the read timeout: no socket");
+			}
+			socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, Math.max(0, millis)));
+		} catch (IllegalAccessException e) {
+			throw new MessagingException("Could not set the read timeout", e);
+		} catch (SocketException e) {
+			throw new MessagingException("Could not set the read timeout", e);
+		}
+	}
+
+	private static Field serverSocketField() {
+		try {
+			Field field = SMTPTransport.class.getDeclaredField("serverSocket");
+			field.setAccessible(true);
+			return Socket.class.equals(field.getType()) ? field : null;
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// Not accessible, e.g. JavaMail in a module that doesn't open it.
+			return null;
+		}
+	}
+
+	@Override
+	protected void finishData() throws IOException, MessagingException {
+		if (chunks == null) {
+			super.finishData();
+		} else {
+			chunks.finish();
+		}
+	}
+
+	/**
+	 * Only commands JavaMail builds the same way every time are sent ahead:
+	 * no delivery status notifications and no group addresses.
+	 */
+	private boolean canPipeline(Message message, Address[] addresses) {
+		if (message instanceof SMTPMessage
+				|| session.getProperty("mail." + protocol + ".dsn.notify") != null) {
+			return false;
+		}
+		for (Address address : addresses) {
+			if (!(address instanceof InternetAddress) || ((InternetAddress) address).isGroup()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Same as JavaMail's own, which is private.
+	 */
+	private static String normalize(String address) {
+		if (!address.startsWith("<") && !address.endsWith(">")) {
+			return "<" + address + ">";
+		}
+		return address;
+	}
+
+	/**
+	 * Declares 8bit the text parts held in memory that follow the 8BITMIME
+	 * line rules.
+	 *
+	 * @param converted
+	 *            Receives the converted parts with their previous encoding.
+	 */
+	private void convertTo8Bit(Part part, Map<MimePart, String> converted)
+			throws MessagingException {
+		try {
+			if (part instanceof PrototypeMessage || !(part instanceof MimePart)
+					|| Part.ATTACHMENT.equalsIgnoreCase(part.getDisposition())) {
+				return;
+			}
+			MimePart mimePart = (MimePart) part;
+			// The content type of the data handler, as headers are only
+			// filled in when the message is first written.
+			DataHandler dataHandler = mimePart.getDataHandler();
+			ContentType type = new ContentType(dataHandler.getContentType());
+			if (type.match("multipart/*")) {
+				Object content = dataHandler.getContent();
+				if (content instanceof Multipart) {
+					Multipart multipart = (Multipart) content;
+					for (int i = 0; i < multipart.getCount(); i++) {
+						convertTo8Bit(multipart.getBodyPart(i), converted);
+					}
+				}
+				return;
+			}
+			String charset = type.getParameter("charset");
+			if (!type.match("text/*") || charset == null
+					|| dataHandler instanceof BodyDataHandler) {
+				return;
+			}
+			Object content = dataHandler.getContent();
+			if (!(content instanceof String)) {
+				return;
+			}
+			String encoding = mimePart.getEncoding();
+			if (encoding == null) {
+				encoding = MimeUtility.getEncoding(dataHandler);
+			}
+			if (("quoted-printable".equalsIgnoreCase(encoding) || "base64"
+					.equalsIgnoreCase(encoding))
+					&& fitsEightBit(((String) content).getBytes(MimeUtility.javaCharset(charset)))) {
+				mimePart.setHeader("Content-Transfer-Encoding", "8bit");
+				converted.put(mimePart, encoding);
+			}
+		} catch (UnsupportedEncodingException e) {
+			// Left as it is.
+		} catch (IOException e) {
+			throw new MessagingException("Could not read message content", e);
+		}
+	}
+
+	/**
+	 * @return Whether the text has no NUL bytes and no line longer than
+	 *         {@value #MAX_LINE_LENGTH} bytes.
+	 */
+	private static boolean fitsEightBit(byte[] text) {
+		int lineLength = 0;
+		for (byte b : text) {
+			if (b == 0) {
+				return false;
+			}
+			if (b == '\r' || b == '\n') {
+				lineLength = 0;
+			} else if (++lineLength > MAX_LINE_LENGTH) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		long count;
+
+		CountingOutputStream(OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count += len;
+		}
+	}
+
+	/**
+	 * Sends message data in BDAT chunks. JavaMail 1.4 can only write
+	 * commands, which it ends with CRLF, so chunks are cut after a line end
+	 * and that CRLF is left for sendCommand to write. Replies are read after
+	 * the last chunk when the server allows pipelining, else after each one.
+	 * Once a chunk is refused the rest of the message is dropped.
+	 */
+	private class ChunkOutputStream extends OutputStream {
+
+		private final boolean pipelineChunks;
+		private int count;
+		private int pendingReplies;
+		private int failureCode;
+		private String failureResponse;
+
+		ChunkOutputStream(boolean pipelineChunks) {
+			this.pipelineChunks = pipelineChunks;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if (count == chunkBuffer.length) {
+				sendFullChunk();
+			}
+			chunkBuffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			while (len > 0) {
+				if (count == chunkBuffer.length) {
+					sendFullChunk();
+				}
+				int copied = Math.min(len, chunkBuffer.length - count);
+				System.arraycopy(b, off, chunkBuffer, count, copied);
+				count += copied;
+				off += copied;
+				len -= copied;
+			}
+		}
+
+		/**
+		 * Sends the buffered lines, or makes room for a line longer than
+		 * the buffer.
+		 */
+		private void sendFullChunk() throws IOException {
+			if (failureResponse != null) {
+				count = 0;
+				return;
+			}
+			int end = count;
+			while (end >= 2 && !(chunkBuffer[end - 2] == '\r' && chunkBuffer[end - 1] == '\n')) {
+				end--;
+			}
+			if (end < 2) {
+				byte[] bigger = new byte[chunkBuffer.length * 2];
+				System.arraycopy(chunkBuffer, 0, bigger, 0, count);
+				chunkBuffer = bigger;
+				return;
+			}
+			try {
+				send(end, false);
+			} catch (MessagingException e) {
+				throw new IOException(e.getMessage(), e);
+			}
+			System.arraycopy(chunkBuffer, end, chunkBuffer, 0, count - end);
+			count -= end;
+		}
+
+		void finish() throws MessagingException {
+			send(count, true);
+			count = 0;
+			if (chunkBuffer.length > chunkSize) {
+				chunkBuffer = new byte[chunkSize];
+			}
+			if (failureResponse != null) {
+				simpleCommand("RSET");
+				throw new SMTPSendFailedException("BDAT", failureCode, failureResponse, null,
+						null, null, null);
+			}
+		}
+
+		private void send(int length, boolean last) throws MessagingException {
+			if (failureResponse != null) {
+				return;
+			}
+			String command;
+			if (length == 0) {
+				command = "BDAT 0 LAST";
+			} else {
+				boolean endsWithCrlf = length >= 2 && chunkBuffer[length - 2] == '\r'
+						&& chunkBuffer[length - 1] == '\n';
+				int data = endsWithCrlf ? length - 2 : length;
+				StringBuilder builder = new StringBuilder(data + 24);
+				builder.append("BDAT ").append(data + 2);
+				if (last) {
+					builder.append(" LAST");
+				}
+				builder.append("\r\n");
+				for (int i = 0; i < data; i++) {
+					builder.append((char) (chunkBuffer[i] & 0xff));
+				}
+				command = builder.toString();
+			}
+			EsmtpTransport.super.sendCommand(command);
+			pendingReplies++;
+
+			if (last || !pipelineChunks) {
+				while (pendingReplies > 0) {
+					pendingReplies--;
+					int code = readServerResponse();
+					if (code != SMTP_OK && failureResponse == null) {
+						failureCode = code;
+						failureResponse = getLastServerResponse();
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.internet.ParseException;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Tells transient send failures, worth retrying, from permanent ones, based
+ * on SMTP reply codes (4xx vs 5xx) and on the kind of error JavaMail
+ * reported.
+ */
+public class FailureClassifier {
+
+	public enum FailureType {
+		/**
+		 * Temporary condition (4xx reply, I/O error, busy relay): retrying
+		 * may succeed.
+		 */
+		TRANSIENT,
+		/**
+		 * Retrying would fail the same way (5xx reply, bad input, local
+		 * setup such as a missing provider).
+		 */
+		PERMANENT
+	}
+
+	private static final int SERVICE_NOT_AVAILABLE = 421;
+
+	public FailureType classify(Exception e) {
+		if (e instanceof CircuitBreakerOpenException || e instanceof RelayBusyException) {
+			return FailureType.TRANSIENT;
+		}
+		if (e instanceof AuthenticationFailedException || e instanceof ParseException
+				|| e instanceof UnsupportedEncodingException) {
+			return FailureType.PERMANENT;
+		}
+
+		int replyCode = replyCode(e);
+		if (replyCode >= 500) {
+			return FailureType.PERMANENT;
+		}
+		if (replyCode >= 400 || hasIOCause(e)) {
+			return FailureType.TRANSIENT;
+		}
+		return FailureType.PERMANENT;
+	}
+
+	/**
+	 * @return <b>true</b> if the SMTP server answered or the connection to it
+	 *         failed, as opposed to a failure on this side, e.g. a deadline
+	 *         or a closed pool, before anything reached it.
+	 */
+	public boolean reachedEndpoint(Exception e) {
+		return hasIOCause(e) || replyCode(e) != -1;
+	}
+
+	/**
+	 * @return <b>true</b> if the failure says the SMTP server itself is
+	 *         unreachable or unavailable, as opposed to rejecting a message
+	 *         or recipient.
+	 */
+	public boolean isEndpointFailure(Exception e) {
+		return hasIOCause(e) || replyCode(e) == SERVICE_NOT_AVAILABLE;
+	}
+
+	/**
+	 * @return The SMTP reply code carried by the exception or its causes, or
+	 *         -1 if there is none.
+	 */
+	public int replyCode(Throwable e) {
+		for (Throwable current = e; current != null; current = next(current)) {
+			if (current instanceof SMTPSendFailedException) {
+				return ((SMTPSendFailedException) current).getReturnCode();
+			}
+			if (current instanceof SMTPAddressFailedException) {
+				return ((SMTPAddressFailedException) current).getReturnCode();
+			}
+			int parsed = parseReplyCode(current.getMessage());
+			if (parsed != -1) {
+				return parsed;
+			}
+		}
+		return -1;
+	}
+
+	private boolean hasIOCause(Throwable e) {
+		for (Throwable current = e; current != null; current = next(current)) {
+			if (current instanceof IOException && !(current instanceof UnsupportedEncodingException)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private Throwable next(Throwable e) {
+		if (e instanceof MessagingException && ((MessagingException) e).getNextException() != null) {
+			return ((MessagingException) e).getNextException();
+		}
+		return e.getCause() == e ? null : e.getCause();
+	}
+
+	/**
+	 * JavaMail often reports the server response as the exception message,
+	 * e.g. "421 4.7.0 Try again later".
+	 */
+	private int parseReplyCode(String message) {
+		if (message == null || message.length() < 3) {
+			return -1;
+		}
+		for (int i = 0; i < 3; i++) {
+			if (!Character.isDigit(message.charAt(i))) {
+				return -1;
+			}
+		}
+		if (message.length() > 3 && message.charAt(3) != ' ' && message.charAt(3) != '-') {
+			return -1;
+		}
+		int code = Integer.parseInt(message.substring(0, 3));
+		return code >= 200 && code < 600 ? code : -1;
+	}
+}
@@ -0,0 +1,24 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.List;
+
+/**
+ * Sends through the relay with the fewest sends in progress relative to its
+ * weight, which adapts to relays that slow down.
+ */
+public class LeastOutstandingSelector implements RelaySelector {
+
+	public SmtpRelay select(List<SmtpRelay> candidates) {
+		SmtpRelay selected = null;
+		double selectedLoad = Double.MAX_VALUE;
+
+		for (SmtpRelay relay : candidates) {
+			double load = (relay.getOutstanding() + 1) / (double) relay.getWeight();
+			if (load < selectedLoad) {
+				selected = relay;
+				selectedLoad = load;
+			}
+		}
+		return selected;
+	}
+}
@@ -0,0 +1,157 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MailDateFormat;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * The parts of a message that are the same for every recipient of a
+ * campaign (encoded subject, static headers and the encoded body), rendered
+ * to bytes once. Each recipient then gets a lightweight message that only
+ * adds its own To, Date and Message-ID headers in front of them.
+ * <p>
+ * Prototypes are immutable and can be shared by any number of threads.
+ */
+public class MessagePrototype {
+
+	/** Headers stamped on each message instead of being rendered once. */
+	private static final String[] PER_MESSAGE_HEADERS = { "From", "To", "Cc", "Bcc", "Date",
+			"Message-ID" };
+
+	private static final byte[] CRLFCRLF = { '\r', '\n', '\r', '\n' };
+
+	private final Session session;
+	private final Address[] from;
+	private final String fromHeader;
+	private final byte[] headers;
+	private final byte[] body;
+	private final String messageIdPrefix;
+	private final String messageIdDomain;
+	private final AtomicLong messageCount = new AtomicLong();
+
+	private final MailDateFormat dateFormat = new MailDateFormat();
+	private volatile RenderedDate date;
+
+	/**
+	 * @param message
+	 *            Fully built message to take the shared parts from.
+	 *            Recipients, Date and Message-ID are ignored.
+	 */
+	MessagePrototype(Session session, MimeMessage message) throws MessagingException, IOException {
+		this.session = session;
+		this.from = message.getFrom();
+		this.fromHeader = message.getHeader("From", null);
+
+		message.saveChanges();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.writeTo(out, PER_MESSAGE_HEADERS);
+		byte[] rendered = out.toByteArray();
+
+		int separator = indexOf(rendered, CRLFCRLF);
+		if (separator == -1) {
+			throw new MessagingException("Could not find end of message headers");
+		}
+		this.headers = copy(rendered, 0, separator + 2);
+		this.body = copy(rendered, separator + 4, rendered.length);
+
+		String address = null;
+		if (from != null && from.length > 0 && from[0] instanceof InternetAddress) {
+			address = ((InternetAddress) from[0]).getAddress();
+		}
+		int at = address == null ? -1 : address.lastIndexOf('@');
+		this.messageIdDomain = at == -1 ? "localhost" : address.substring(at + 1);
+		this.messageIdPrefix = Long.toHexString(System.currentTimeMillis()) + "."
+				+ Integer.toHexString(new Random().nextInt());
+	}
+
+	/**
+	 * Creates the message for one recipient.
+	 */
+	public MimeMessage newMessage(String recipient) throws MessagingException {
+		MimeMessage message = new PrototypeMessage(session, this);
+		if (fromHeader != null) {
+			message.setHeader("From", fromHeader);
+		}
+		message.setRecipient(Message.RecipientType.TO, new InternetAddress(recipient));
+		message.setHeader("Date", renderDate());
+		message.setHeader("Message-ID", "<" + messageIdPrefix + "." + messageCount.incrementAndGet()
+				+ "@" + messageIdDomain + ">");
+		return message;
+	}
+
+	/**
+	 * @return Size in bytes of the shared headers and body.
+	 */
+	public int getSize() {
+		return headers.length + body.length;
+	}
+
+	Address[] getFrom() {
+		return from == null ? null : from.clone();
+	}
+
+	byte[] getHeaders() {
+		return headers;
+	}
+
+	byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * Date headers have a one second resolution, so the formatted value is
+	 * reused for every message sent within the same second.
+	 */
+	private String renderDate() {
+		long second = System.currentTimeMillis() / 1000;
+		RenderedDate rendered = date;
+		if (rendered == null || rendered.second != second) {
+			String value;
+			synchronized (dateFormat) {
+				value = dateFormat.format(new Date(second * 1000));
+			}
+			rendered = new RenderedDate(second, value);
+			date = rendered;
+		}
+		return rendered.value;
+	}
+
+	private static int indexOf(byte[] bytes, byte[] pattern) {
+		outer: for (int i = 0; i <= bytes.length - pattern.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (bytes[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static byte[] copy(byte[] bytes, int from, int to) {
+		byte[] copy = new byte[to - from];
+		System.arraycopy(bytes, from, copy, 0, copy.length);
+		return copy;
+	}
+
+	private static class RenderedDate {
+
+		final long second;
+		final String value;
+
+		RenderedDate(long second, String value) {
+			this.second = second;
+			this.value = value;
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.BodySource;
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * The template's content sent to some of its recipients only: a campaign
+ * email as one recipient got it, or an email narrowed down to the
+ * recipients it still has to reach.
+ */
+class PersonalizedEmail implements Email {
+
+	private final Email template;
+	private final Set<String> to;
+	private final Set<String> cc;
+	private final Set<String> bcc;
+
+	PersonalizedEmail(Email template, String recipient) {
+		this(template, Collections.singleton(recipient), Collections.<String> emptySet(),
+				Collections.<String> emptySet());
+	}
+
+	private PersonalizedEmail(Email template, Set<String> to, Set<String> cc, Set<String> bcc) {
+		this.template = template;
+		this.to = to;
+		this.cc = cc;
+		this.bcc = bcc;
+	}
+
+	/**
+	 * @param recipients
+	 *            Addresses, without names, to keep. Each stays To, Cc or Bcc
+	 *            as it was in <i>email</i>.
+	 */
+	static Email forRecipients(Email email, Collection<String> recipients) {
+		return new PersonalizedEmail(email, keep(email.getToAddresses(), recipients), keep(email
+				.getCcAddresses(), recipients), keep(email.getBccAddresses(), recipients));
+	}
+
+	private static Set<String> keep(Set<String> addresses, Collection<String> recipients) {
+		Set<String> kept = new LinkedHashSet<String>();
+		for (String address : addresses) {
+			try {
+				for (InternetAddress parsed : InternetAddress.parse(address)) {
+					if (recipients.contains(parsed.getAddress())) {
+						kept.add(parsed.toString());
+					}
+				}
+			} catch (AddressException e) {
+				// Could not have been sent to either.
+			}
+		}
+		return Collections.unmodifiableSet(kept);
+	}
+
+	public String getFromAddress() {
+		return template.getFromAddress();
+	}
+
+	public Set<String> getToAddresses() {
+		return to;
+	}
+
+	public Set<String> getCcAddresses() {
+		return cc;
+	}
+
+	public Set<String> getBccAddresses() {
+		return bcc;
+	}
+
+	public String getSubject() {
+		return template.getSubject();
+	}
+
+	public String getBody() {
+		return template.getBody();
+	}
+
+	public BodySource getBodySource() {
+		return template.getBodySource();
+	}
+
+	public String getCharset() {
+		return template.getCharset();
+	}
+
+	public Map<String, String> getHeaders() {
+		return template.getHeaders();
+	}
+
+	public List<Attachment> getAttachments() {
+		return template.getAttachments();
+	}
+}
@@ -0,0 +1,45 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * An SMTP transport owned by a {@link SmtpConnectionPool}, with the
+ * bookkeeping needed to decide when it should be retired.
+ */
+class PooledConnection {
+
+	private final SMTPTransport transport;
+	private final long createdAt;
+	private long lastUsedAt;
+	private int messagesSent;
+
+	PooledConnection(SMTPTransport transport) {
+		this.transport = transport;
+		this.createdAt = System.currentTimeMillis();
+		this.lastUsedAt = createdAt;
+	}
+
+	SMTPTransport getTransport() {
+		return transport;
+	}
+
+	long getCreatedAt() {
+		return createdAt;
+	}
+
+	long getLastUsedAt() {
+		return lastUsedAt;
+	}
+
+	void touch() {
+		lastUsedAt = System.currentTimeMillis();
+	}
+
+	int getMessagesSent() {
+		return messagesSent;
+	}
+
+	void messageSent() {
+		messagesSent++;
+	}
+}
@@ -1,41 +1,338 @@
 package com.guilhermechapiewski.fluentmail.transport;
 
+import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+import javax.activation.DataHandler;
+import javax.mail.Address;
 import javax.mail.Message;
 import javax.mail.MessagingException;
 import javax.mail.NoSuchProviderException;
+import javax.mail.Part;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimePart;
 
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.BodySource;
 import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.jfr.FlightRecorder;
+import com.guilhermechapiewski.fluentmail.metrics.SendOutcome;
+import com.guilhermechapiewski.fluentmail.metrics.SendPhase;
+import com.sun.mail.smtp.SMTPSendFailedException;
 import com.sun.mail.smtp.SMTPTransport;
 
 public class PostalService {
 
-	private static EmailTransportConfiguration emailTransportConfig = new EmailTransportConfiguration();
-	private static Session session;
+	private static final Connections defaultConnections = new Connections();
+	private static final FailureClassifier failureClassifier = new FailureClassifier();
+	private static final FlightRecorder flightRecorder = FlightRecorder.get();
 
-	public void send(Email email) throws AddressException, MessagingException, UnsupportedEncodingException {
-		Message message = createMessage(email);
-		send(message);
+	private final EmailTransportConfiguration emailTransportConfig;
+	private final Connections connections;
+
+	/**
+	 * Sends with the default configuration. All instances created this way
+	 * share one session and set of relays.
+	 */
+	public PostalService() {
+		this(new EmailTransportConfiguration(), defaultConnections);
 	}
 
-	protected Session getSession() {
-		if (session == null) {
-			Properties properties = System.getProperties();
-			properties.put("mail.smtp.host", emailTransportConfig.getSmtpServer());
-			properties.put("mail.smtp.auth", emailTransportConfig.isAuthenticationRequired());
+	/**
+	 * Sends with a configuration of its own, through a session and relays
+	 * (connection pools, circuit breakers, statistics) of its own.
+	 * 
+	 * @see EmailTransportConfiguration#builder()
+	 */
+	public PostalService(EmailTransportConfiguration config) {
+		this(config, new Connections());
+	}
+
+	private PostalService(EmailTransportConfiguration config, Connections connections) {
+		this.emailTransportConfig = config;
+		this.connections = connections;
+	}
+
+	/**
+	 * Sends an email, retrying recipients the server could not take right
+	 * now. Rejected recipients are reported in the result rather than
+	 * thrown, so callers can tell who already got the email.
+	 * 
+	 * @throws MessagingException
+	 *             If the email could not be sent to any recipient.
+	 */
+	public SendResult send(Email email) throws AddressException, MessagingException, UnsupportedEncodingException {
+		return send(email, Deadline.NONE);
+	}
+
+	/**
+	 * Like {@link #send(Email)}, giving up once <i>deadline</i> passed.
+	 * 
+	 * @throws SendTimeoutException
+	 *             If the deadline passed before any recipient got the email.
+	 */
+	public SendResult send(Email email, Deadline deadline) throws AddressException,
+			MessagingException, UnsupportedEncodingException {
+		Message message = buildMessage(email);
+		return send(email, message, deadline);
+	}
+
+	/**
+	 * Builds all messages up front and then transmits them back-to-back over
+	 * a single pooled connection. Failures are reported per message.
+	 * 
+	 * @return One result per email, in iteration order.
+	 */
+	public List<SendResult> sendAll(Collection<? extends Email> emails) {
+		Email[] batch = emails.toArray(new Email[emails.size()]);
+		MimeMessage[] messages = new MimeMessage[batch.length];
+		SendResult[] results = new SendResult[batch.length];
+
+		for (int i = 0; i < batch.length; i++) {
+			try {
+				messages[i] = buildMessage(batch[i]);
+			} catch (Exception e) {
+				results[i] = SendResult.failure(batch[i], e);
+			}
+		}
+
+		transmitAll(batch, messages, results);
+
+		List<SendResult> list = new ArrayList<SendResult>(results.length);
+		Collections.addAll(list, results);
+		return list;
+	}
+
+	/**
+	 * Sends the same content to many recipients, one message each. Subject,
+	 * body and headers are encoded only once into a {@link MessagePrototype};
+	 * each recipient's message just adds its To, Date and Message-ID. Cc and
+	 * Bcc of the template are not used. Messages go over a single pooled
+	 * connection, like {@link #sendAll(Collection)}.
+	 * 
+	 * @return One result per recipient, in iteration order.
+	 */
+	public List<SendResult> sendCampaign(Email template, Collection<String> recipients) {
+		Email[] batch = new Email[recipients.size()];
+		MimeMessage[] messages = new MimeMessage[batch.length];
+		SendResult[] results = new SendResult[batch.length];
+
+		int i = 0;
+		for (String recipient : recipients) {
+			batch[i++] = new PersonalizedEmail(template, recipient);
+		}
+
+		try {
+			MessagePrototype prototype = createPrototype(template);
+			for (i = 0; i < batch.length; i++) {
+				try {
+					messages[i] = prototype.newMessage(batch[i].getToAddresses().iterator().next());
+				} catch (Exception e) {
+					results[i] = SendResult.failure(batch[i], e);
+				}
+			}
+			transmitAll(batch, messages, results);
+		} catch (Exception e) {
+			failRemaining(batch, results, 0, e);
+		}
+
+		List<SendResult> list = new ArrayList<SendResult>(results.length);
+		Collections.addAll(list, results);
+		return list;
+	}
+
+	/**
+	 * Renders the parts of <i>template</i> shared by all recipients of a
+	 * campaign.
+	 */
+	public MessagePrototype createPrototype(Email template) throws MessagingException,
+			UnsupportedEncodingException {
+		try {
+			return new MessagePrototype(getSession(), buildMessage(template));
+		} catch (UnsupportedEncodingException e) {
+			throw e;
+		} catch (IOException e) {
+			throw new MessagingException("Could not render message", e);
+		}
+	}
+
+	/**
+	 * Body followed by the attachments. Attachments are declared base64 up
+	 * front, so JavaMail doesn't read them to pick an encoding, and are then
+	 * encoded while being written out.
+	 */
+	private MimeMultipart createMultipart(Email email, String charset, List<Attachment> attachments)
+			throws MessagingException {
+		MimeMultipart multipart = new MimeMultipart();
+
+		MimeBodyPart text = new MimeBodyPart();
+		if (email.getBodySource() != null) {
+			setBody(text, email.getBodySource(), charset);
+		} else {
+			text.setText(email.getBody(), charset);
+		}
+		multipart.addBodyPart(text);
+
+		for (Attachment attachment : attachments) {
+			MimeBodyPart part = new MimeBodyPart();
+			part.setDataHandler(new DataHandler(new AttachmentDataSource(attachment)));
+			part.setFileName(attachment.getName());
+			part.setDisposition(Part.ATTACHMENT);
+			part.setHeader("Content-Transfer-Encoding", "base64");
+			multipart.addBodyPart(part);
+		}
+		return multipart;
+	}
+
+	/**
+	 * Streams <i>body</i> into the part while it is written. Declared
+	 * quoted-printable, which suits any text, so that JavaMail doesn't read
+	 * the whole body first to choose an encoding.
+	 */
+	private void setBody(MimePart part, BodySource body, String charset) throws MessagingException {
+		part.setDataHandler(new BodyDataHandler(body, charset));
+		part.setHeader("Content-Transfer-Encoding", "quoted-printable");
+	}
+
+	/**
+	 * Transmits the messages that don't have a result yet back-to-back over
+	 * a single pooled connection, moving to another relay if one fails.
+	 */
+	private void transmitAll(Email[] batch, MimeMessage[] messages, SendResult[] results) {
+		SmtpRelays relays = enterRelays();
+		Set<SmtpRelay> failedRelays = new HashSet<SmtpRelay>();
+		SmtpRelay relay = null;
+		PooledConnection connection = null;
+		try {
+			batch: for (int i = 0; i < batch.length; i++) {
+				if (results[i] != null) {
+					continue;
+				}
+
+				while (connection == null) {
+					try {
+						relay = relays.acquire(failedRelays);
+						connection = borrow(relay, Deadline.NONE);
+					} catch (MessagingException e) {
+						if (e instanceof CircuitBreakerOpenException) {
+							failRemaining(batch, results, i, e);
+							break batch;
+						}
+						relay.borrowFailed(e);
+						failedRelays.add(relay);
+						if (failedRelays.size() >= relays.size()) {
+							failRemaining(batch, results, i, e);
+							break batch;
+						}
+					}
+				}
+
+				relay.sendStarted();
+				Address[] recipients;
+				AdaptiveConcurrencyLimit concurrencyLimit;
+				try {
+					recipients = messages[i].getAllRecipients();
+					pace(relay, recipients, Deadline.NONE);
+					concurrencyLimit = acquireSlot(relay, Deadline.NONE);
+				} catch (MessagingException e) {
+					// Nothing went over the connection, it can be kept.
+					relay.sendFailed(e);
+					results[i] = SendResult.failure(batch[i], e);
+					continue;
+				}
+				try {
+					transmit(relay, connection, messages[i], recipients, concurrencyLimit);
+					relay.sendSucceeded();
+					results[i] = SendResult.success(batch[i]);
+				} catch (SendFailedException e) {
+					relay.sendFailed(e);
+					results[i] = recipientResult(batch[i], e);
+				} catch (Exception e) {
+					relay.sendFailed(e);
+					results[i] = SendResult.failure(batch[i], e);
+					relay.getConnectionPool().invalidate(connection);
+					connection = null;
+					continue;
+				}
+
+				if (connection.getMessagesSent() >= emailTransportConfig.getPoolMaxMessagesPerConnection()) {
+					relay.getConnectionPool().release(connection);
+					connection = null;
+				}
+			}
+		} finally {
+			if (connection != null) {
+				relay.getConnectionPool().release(connection);
+			}
+			relays.exit();
+		}
+	}
+
+	private void failRemaining(Email[] batch, SendResult[] results, int from, Exception e) {
+		for (int i = from; i < batch.length; i++) {
+			if (results[i] == null) {
+				results[i] = SendResult.failure(batch[i], e);
+			}
+		}
+	}
+
+	public EmailTransportConfiguration getConfiguration() {
+		return emailTransportConfig;
+	}
 
-			session = Session.getInstance(properties);
+	/**
+	 * @return The mail session, created again when the SMTP server or
+	 *         credentials change.
+	 */
+	protected Session getSession() {
+		long generation = emailTransportConfig.getGeneration();
+		MailSession current = connections.session;
+		if (current != null && current.generation == generation) {
+			return current.session;
 		}
+		synchronized (connections) {
+			current = connections.session;
+			if (current == null || current.generation != generation) {
+				String server = String.valueOf(emailTransportConfig.getSmtpServer());
+				boolean authenticationRequired = emailTransportConfig.isAuthenticationRequired();
+				// A copy, so that sessions of different transports don't
+				// change each other's properties.
+				Properties properties = new Properties(System.getProperties());
+				properties.put("mail.smtp.host", server);
+				properties.put("mail.smtp.auth", String.valueOf(authenticationRequired));
+				// Deliver to the accepted recipients even if others are rejected.
+				properties.put("mail.smtp.sendpartial", "true");
+				properties.put("mail.smtps.sendpartial", "true");
+				for (String protocol : new String[] { "smtp", "smtps" }) {
+					properties.put("mail." + protocol + ".connectiontimeout",
+							String.valueOf(emailTransportConfig.getSmtpConnectTimeoutMillis()));
+					properties.put("mail." + protocol + ".timeout",
+							String.valueOf(emailTransportConfig.getSmtpReadTimeoutMillis()));
+					properties.put("mail." + protocol + ".writetimeout",
+							String.valueOf(emailTransportConfig.getSmtpWriteTimeoutMillis()));
+				}
 
-		return session;
+				current = new MailSession(generation, Session.getInstance(properties));
+				connections.session = current;
+			}
+			return current.session;
+		}
 	}
 
 	protected MimeMessage createMessage(Email email) throws MessagingException, UnsupportedEncodingException {
@@ -60,7 +357,14 @@ public class PostalService {
 		String charset = email.getCharset();
 		
 		message.setSubject(email.getSubject(), charset);
-		message.setText(email.getBody(), charset);
+		List<Attachment> attachments = email.getAttachments();
+		if (!attachments.isEmpty()) {
+			message.setContent(createMultipart(email, charset, attachments));
+		} else if (email.getBodySource() != null) {
+			setBody(message, email.getBodySource(), charset);
+		} else {
+			message.setText(email.getBody(), charset);
+		}
 		message.setSentDate(Calendar.getInstance().getTime());
 	
 		for (Map.Entry<String, String> pair : email.getHeaders().entrySet()) {
@@ -70,17 +374,612 @@ public class PostalService {
 		return message;
 	}
 
-	protected void send(Message message) throws NoSuchProviderException, MessagingException {
-		SMTPTransport smtpTransport = (SMTPTransport) getSession().getTransport(getProtocol());
+	/**
+	 * Sends a message through one of the relays, retrying transient failures
+	 * according to the {@link RetryPolicy}. A retry goes to a relay that was
+	 * not tried yet when there is one. Relays whose {@link CircuitBreaker} is
+	 * open are skipped.
+	 * <p>
+	 * When the server accepts some recipients and not others, only the ones
+	 * it may still accept are retried; recipients are never sent the same
+	 * message twice.
+	 */
+	protected SendResult send(Email email, Message message) throws NoSuchProviderException, MessagingException {
+		return send(email, message, Deadline.NONE);
+	}
+
+	private SendResult send(Email email, Message message, Deadline deadline)
+			throws MessagingException {
+		SmtpRelays relays = enterRelays();
+		try {
+			return send(email, message, relays, deadline);
+		} finally {
+			relays.exit();
+		}
+	}
+
+	private SendResult send(Email email, Message message, SmtpRelays relays, Deadline deadline)
+			throws MessagingException {
+		RetryPolicy retryPolicy = getRetryPolicy();
+		Set<SmtpRelay> tried = new HashSet<SmtpRelay>();
+
+		Address[] recipients = message.getAllRecipients();
+		List<String> accepted = new ArrayList<String>();
+		List<String> rejectedPermanently = new ArrayList<String>();
+		MessagingException rejection = null;
+
+		for (int attempt = 1;; attempt++) {
+			SmtpRelay relay;
+			try {
+				deadline.check(attempt == 1 ? "before sending" : "before attempt " + attempt);
+				relay = relays.acquire(tried);
+			} catch (MessagingException e) {
+				if (accepted.isEmpty()) {
+					throw e;
+				}
+				return giveUp(email, e, recipients, accepted, rejectedPermanently);
+			}
+
+			relay.sendStarted();
+			try {
+				sendOnce(relay, message, recipients, deadline);
+				relay.sendSucceeded();
+				addAll(accepted, recipients);
+				return SendResult.of(email, rejection, accepted, rejectedPermanently, null);
+			} catch (MessagingException e) {
+				relay.sendFailed(e);
+
+				if (hasRecipientOutcome(e)) {
+					SendFailedException failed = (SendFailedException) e;
+					addAll(accepted, failed.getValidSentAddresses());
+					addAll(rejectedPermanently, failed.getInvalidAddresses());
+					if (isNotEmpty(failed.getInvalidAddresses())) {
+						rejection = e;
+					}
+					recipients = failed.getValidUnsentAddresses();
+					if (recipients == null || recipients.length == 0) {
+						return SendResult.of(email, e, accepted, rejectedPermanently, null);
+					}
+					if (!unsentAreRetryable(failed) || !retryPolicy.shouldRetry(attempt)) {
+						return giveUp(email, e, recipients, accepted, rejectedPermanently);
+					}
+					backoff(deadline.clip(retryPolicy.backoffMillis(attempt)), e);
+					continue;
+				}
+
+				if (e instanceof SendTimeoutException || deadline.isExpired()) {
+					MessagingException timeout = e instanceof SendTimeoutException ? e : deadline
+							.timedOut("after attempt " + attempt, e);
+					if (accepted.isEmpty()) {
+						throw timeout;
+					}
+					return giveUp(email, timeout, recipients, accepted, rejectedPermanently);
+				}
+
+				if (failureClassifier.classify(e) != FailureClassifier.FailureType.TRANSIENT
+						|| !retryPolicy.shouldRetry(attempt)) {
+					if (accepted.isEmpty()) {
+						throw e;
+					}
+					return giveUp(email, e, recipients, accepted, rejectedPermanently);
+				}
+				tried.add(relay);
+				if (tried.size() >= relays.size()) {
+					backoff(deadline.clip(retryPolicy.backoffMillis(attempt)), e);
+				}
+			} catch (RuntimeException e) {
+				relay.sendFailed(e);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Reports the recipients not reached as rejected transiently or
+	 * permanently, depending on the last failure.
+	 */
+	private SendResult giveUp(Email email, MessagingException e, Address[] unsent,
+			List<String> accepted, List<String> rejectedPermanently) {
+		boolean retryable = failureClassifier.classify(e) == FailureClassifier.FailureType.TRANSIENT
+				|| (e instanceof SendFailedException && hasRecipientOutcome(e)
+						&& unsentAreRetryable((SendFailedException) e));
+		if (retryable) {
+			return SendResult.of(email, e, accepted, rejectedPermanently, toStrings(unsent));
+		}
+		addAll(rejectedPermanently, unsent);
+		return SendResult.of(email, e, accepted, rejectedPermanently, null);
+	}
+
+	/**
+	 * A SendFailedException with address lists says what happened to each
+	 * recipient; without them it is a failure of the whole message.
+	 */
+	private boolean hasRecipientOutcome(MessagingException e) {
+		if (!(e instanceof SendFailedException)) {
+			return false;
+		}
+		SendFailedException failed = (SendFailedException) e;
+		return isNotEmpty(failed.getValidSentAddresses())
+				|| isNotEmpty(failed.getValidUnsentAddresses())
+				|| isNotEmpty(failed.getInvalidAddresses());
+	}
+
+	/**
+	 * Valid but unsent recipients were either refused with a 4xx reply or
+	 * held back because the message itself failed. Only a 5xx reply to the
+	 * message itself (e.g. to DATA) makes them permanent failures.
+	 */
+	private boolean unsentAreRetryable(SendFailedException e) {
+		if (e instanceof SMTPSendFailedException) {
+			int replyCode = ((SMTPSendFailedException) e).getReturnCode();
+			return replyCode < 500 || replyCode >= 600;
+		}
+		return true;
+	}
+
+	private SendResult recipientResult(Email email, SendFailedException e) {
+		if (!hasRecipientOutcome(e)) {
+			return SendResult.failure(email, e);
+		}
+		List<String> rejectedPermanently = toStrings(e.getInvalidAddresses());
+		List<String> rejectedTransiently = null;
+		if (unsentAreRetryable(e)) {
+			rejectedTransiently = toStrings(e.getValidUnsentAddresses());
+		} else {
+			addAll(rejectedPermanently, e.getValidUnsentAddresses());
+		}
+		return SendResult.of(email, e, toStrings(e.getValidSentAddresses()), rejectedPermanently,
+				rejectedTransiently);
+	}
+
+	private static boolean isNotEmpty(Address[] addresses) {
+		return addresses != null && addresses.length > 0;
+	}
+
+	private static List<String> toStrings(Address[] addresses) {
+		List<String> strings = new ArrayList<String>();
+		addAll(strings, addresses);
+		return strings;
+	}
+
+	private static void addAll(List<String> strings, Address[] addresses) {
+		if (addresses != null) {
+			for (Address address : addresses) {
+				strings.add(address instanceof InternetAddress ? ((InternetAddress) address)
+						.getAddress() : address.toString());
+			}
+		}
+	}
+
+	private void backoff(long millis, MessagingException failure) throws MessagingException {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw failure;
+		}
+	}
+
+	private void sendOnce(SmtpRelay relay, Message message, Address[] recipients,
+			Deadline deadline) throws MessagingException {
+		SmtpConnectionPool pool = relay.getConnectionPool();
+		pace(relay, recipients, deadline);
+		deadline.check("before sending the message");
+		AdaptiveConcurrencyLimit concurrencyLimit = acquireSlot(relay, deadline);
+		PooledConnection connection;
+		try {
+			connection = borrow(relay, deadline);
+		} catch (MessagingException e) {
+			if (concurrencyLimit != null) {
+				concurrencyLimit.release();
+			}
+			throw e;
+		}
+		boolean reusable = false;
+		try {
+			transmit(relay, connection, message, recipients, concurrencyLimit);
+			reusable = true;
+		} catch (SendFailedException e) {
+			// Rejected recipients don't break the SMTP session.
+			reusable = true;
+			throw e;
+		} finally {
+			if (reusable) {
+				pool.release(connection);
+			} else {
+				pool.invalidate(connection);
+			}
+		}
+	}
+
+	/**
+	 * Takes a send slot of the relay before borrowing a connection, so that
+	 * no connection is held while waiting for one.
+	 * 
+	 * @return The limit the slot is to be given back to, or <b>null</b> if
+	 *         the relay doesn't limit concurrency.
+	 */
+	private AdaptiveConcurrencyLimit acquireSlot(SmtpRelay relay, Deadline deadline)
+			throws MessagingException {
+		AdaptiveConcurrencyLimit concurrencyLimit = relay.getConcurrencyLimit();
+		if (concurrencyLimit != null) {
+			try {
+				concurrencyLimit.acquire(deadline.clip(emailTransportConfig.getPoolMaxWaitMillis()));
+			} catch (MessagingException e) {
+				if (deadline.isExpired()) {
+					throw deadline.timedOut("waiting for a send slot", e);
+				}
+				throw e;
+			}
+		}
+		return concurrencyLimit;
+	}
+
+	/**
+	 * Sends over <i>connection</i>, giving back the slot taken by
+	 * {@link #acquireSlot(SmtpRelay, Deadline)} whatever happens.
+	 */
+	private void transmit(SmtpRelay relay, PooledConnection connection, Message message,
+			Address[] recipients, AdaptiveConcurrencyLimit concurrencyLimit)
+			throws MessagingException {
+		Object event = flightRecorder.beginDataTransfer();
+		long start = System.nanoTime();
+		SendOutcome outcome = SendOutcome.FAILURE;
+		MessagingException failure = null;
+		try {
+			connection.getTransport().sendMessage(message, recipients);
+			connection.messageSent();
+			outcome = SendOutcome.SUCCESS;
+		} catch (SendFailedException e) {
+			outcome = SendOutcome.REJECTED;
+			failure = e;
+			throw e;
+		} catch (MessagingException e) {
+			failure = e;
+			throw e;
+		} finally {
+			long latency = System.nanoTime() - start;
+			if (concurrencyLimit != null) {
+				concurrencyLimit.release(latency, failure != null && isOverload(failure));
+			}
+
+			String address = relay.getAddress().toString();
+			emailTransportConfig.getMetricsRecorder().record(SendPhase.SEND_MESSAGE, address,
+					outcome, latency);
+
+			if (flightRecorder.end(event)) {
+				flightRecorder.commitDataTransfer(event, address, messageId(message),
+						recipients == null ? 0 : recipients.length, messageSize(connection
+								.getTransport()), outcome.name());
+			}
+		}
+	}
+
+	/**
+	 * Waits until the relay and the recipient domains accept another message
+	 * under the configured rate limits. Called before borrowing a connection,
+	 * except in batches, which keep theirs from one message to the next.
+	 */
+	private void pace(SmtpRelay relay, Address[] recipients, Deadline deadline)
+			throws MessagingException {
+		RateLimiter rateLimiter = emailTransportConfig.getRateLimiter();
+		if (!rateLimiter.isLimited()) {
+			return;
+		}
+		List<String> addresses = new ArrayList<String>();
+		addAll(addresses, recipients);
+		long wait = rateLimiter.reserve(relay.getAddress().toString(), addresses);
+		if (TimeUnit.NANOSECONDS.toMillis(wait) > deadline.remainingMillis()) {
+			throw deadline.timedOut("waiting for the rate limit", null);
+		}
+		if (wait > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessagingException("Interrupted while waiting for the rate limit", e);
+			}
+		}
+	}
+
+	private MimeMessage buildMessage(Email email) throws MessagingException,
+			UnsupportedEncodingException {
+		Object event = flightRecorder.beginMessageBuild();
+		long start = System.nanoTime();
+		SendOutcome outcome = SendOutcome.FAILURE;
+		try {
+			MimeMessage message = createMessage(email);
+			outcome = SendOutcome.SUCCESS;
+			return message;
+		} finally {
+			emailTransportConfig.getMetricsRecorder().record(SendPhase.CREATE_MESSAGE, null,
+					outcome, System.nanoTime() - start);
+
+			if (flightRecorder.end(event)) {
+				flightRecorder.commitMessageBuild(event, email.getToAddresses().size()
+						+ email.getCcAddresses().size() + email.getBccAddresses().size(),
+						outcome == SendOutcome.SUCCESS);
+			}
+		}
+	}
+
+	private PooledConnection borrow(SmtpRelay relay, Deadline deadline) throws MessagingException {
+		Object event = flightRecorder.beginConnectionAcquire();
+		boolean success = false;
+		try {
+			PooledConnection connection = relay.getConnectionPool().borrow(deadline);
+			success = true;
+			return connection;
+		} catch (MessagingException e) {
+			if (relay.getConcurrencyLimit() != null && failureClassifier.isEndpointFailure(e)) {
+				relay.getConcurrencyLimit().overloaded();
+			}
+			throw e;
+		} finally {
+			if (flightRecorder.end(event)) {
+				flightRecorder.commitConnectionAcquire(event, relay.getAddress().toString(),
+						success);
+			}
+		}
+	}
+
+	/**
+	 * @return <b>true</b> if the relay throttled (4xx reply) or dropped the
+	 *         send, as opposed to rejecting it for good.
+	 */
+	private boolean isOverload(MessagingException e) {
+		int replyCode = failureClassifier.replyCode(e);
+		return (replyCode >= 400 && replyCode < 500) || failureClassifier.isEndpointFailure(e);
+	}
+
+	private static String messageId(Message message) {
+		try {
+			String[] ids = message.getHeader("Message-ID");
+			return ids == null ? null : ids[0];
+		} catch (MessagingException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return The bytes of the message just sent through <i>transport</i>,
+	 *         as counted while it was written, or -1 if unknown.
+	 */
+	private static long messageSize(SMTPTransport transport) {
+		return transport instanceof EsmtpTransport ? ((EsmtpTransport) transport)
+				.getMessageSize() : -1;
+	}
+
+	protected SMTPTransport connect(RelayAddress relay) throws NoSuchProviderException, MessagingException {
+		return connect(relay, Deadline.NONE);
+	}
+
+	/**
+	 * Like {@link #connect(RelayAddress)}, not waiting past <i>deadline</i>
+	 * to connect or, where the socket can be reached, for the server's
+	 * replies while connecting. Replies are then waited for as configured
+	 * again, as the connection may outlive the deadline in the pool.
+	 */
+	protected SMTPTransport connect(RelayAddress relay, Deadline deadline)
+			throws NoSuchProviderException, MessagingException {
+		deadline.check("before connecting");
+		Session session = getSession();
+		long readTimeout = emailTransportConfig.getSmtpReadTimeoutMillis();
+		boolean clipReads = false;
+		if (deadline != Deadline.NONE) {
+			clipReads = EsmtpTransport.canSetReadTimeout()
+					&& (readTimeout <= 0 || deadline.remainingMillis() < readTimeout);
+			session = clipTimeouts(session, deadline, clipReads);
+		}
+
+		EsmtpTransport smtpTransport = new EsmtpTransport(session, getProtocol(),
+				emailTransportConfig);
 		
 		if (emailTransportConfig.isAuthenticationRequired()) {
-			smtpTransport.connect(emailTransportConfig.getSmtpServer(),
+			smtpTransport.connect(relay.getHost(), relay.getPort(),
 					emailTransportConfig.getUsername(), emailTransportConfig.getPassword());
 		} else {
-			smtpTransport.connect();
+			smtpTransport.connect(relay.getHost(), relay.getPort(), null, null);
+		}
+
+		if (clipReads) {
+			try {
+				smtpTransport.setReadTimeout(readTimeout);
+			} catch (MessagingException e) {
+				smtpTransport.close();
+				throw e;
+			}
+		}
+		return smtpTransport;
+	}
+
+	/**
+	 * @return A session like <i>session</i> whose connect timeout, and read
+	 *         timeout if <i>clipReads</i>, end at <i>deadline</i>.
+	 */
+	private Session clipTimeouts(Session session, Deadline deadline, boolean clipReads) {
+		long remaining = Math.max(1, deadline.remainingMillis());
+		String prefix = "mail." + getProtocol();
+		Properties properties = new Properties(session.getProperties());
+		properties.put(prefix + ".connectiontimeout", String.valueOf(clip(emailTransportConfig
+				.getSmtpConnectTimeoutMillis(), remaining)));
+		if (clipReads) {
+			properties.put(prefix + ".timeout", String.valueOf(clip(emailTransportConfig
+					.getSmtpReadTimeoutMillis(), remaining)));
+		}
+		return Session.getInstance(properties);
+	}
+
+	/**
+	 * @return <i>timeoutMillis</i>, where zero means none, cut to
+	 *         <i>remainingMillis</i>.
+	 */
+	private static long clip(long timeoutMillis, long remainingMillis) {
+		return timeoutMillis > 0 ? Math.min(timeoutMillis, remainingMillis) : remainingMillis;
+	}
+
+	/**
+	 * @return The relays to send through, replaced by new ones with fresh
+	 *         connection pools and health when the SMTP server or
+	 *         credentials change. The old ones are closed once the sends
+	 *         using them are done.
+	 */
+	protected SmtpRelays getRelays() {
+		long generation = emailTransportConfig.getGeneration();
+		RelayGeneration current = connections.relays;
+		if (current != null && current.generation == generation) {
+			return current.relays;
+		}
+		synchronized (connections) {
+			if (connections.retired) {
+				throw new IllegalStateException("Transport was unregistered");
+			}
+			current = connections.relays;
+			if (current == null || current.generation != generation) {
+				RelayGeneration previous = current;
+				current = new RelayGeneration(generation,
+						createRelays(emailTransportConfig.getSmtpServer()));
+				connections.relays = current;
+				if (previous != null) {
+					previous.relays.retire();
+				}
+			}
+			return current.relays;
+		}
+	}
+
+	/**
+	 * @return The current relays, kept open until {@link SmtpRelays#exit()}.
+	 */
+	private SmtpRelays enterRelays() {
+		while (true) {
+			SmtpRelays relays = getRelays();
+			if (relays.enter()) {
+				return relays;
+			}
+		}
+	}
+
+	/**
+	 * Opens the configured number of warm connections to each relay now,
+	 * e.g. at startup, so that the first sends don't pay for DNS, TCP, TLS
+	 * and AUTH. Relays that can't be reached are skipped.
+	 * 
+	 * @return How many connections were opened.
+	 * @see EmailTransportConfiguration#configureKeepAlive(int, long)
+	 */
+	public int prewarm() {
+		int opened = 0;
+		SmtpRelays relays = enterRelays();
+		try {
+			for (SmtpRelay relay : relays.getRelays()) {
+				try {
+					opened += relay.getConnectionPool().prewarm(
+							emailTransportConfig.getPoolWarmConnections());
+				} catch (MessagingException e) {
+					if (failureClassifier.isEndpointFailure(e)) {
+						relay.getCircuitBreaker().recordFailure();
+					}
+				}
+			}
+		} finally {
+			relays.exit();
+		}
+		return opened;
+	}
+
+	/**
+	 * Closes the pooled connections, waiting for the sends in progress to
+	 * release theirs. They are opened again if this service is used
+	 * afterwards.
+	 */
+	public void close() {
+		synchronized (connections) {
+			if (connections.relays != null) {
+				connections.relays.relays.retire();
+				connections.relays = null;
+			}
+		}
+	}
+
+	/**
+	 * Closes the pooled connections for good, e.g. when the transport is
+	 * unregistered: sends started afterwards fail instead of opening new
+	 * ones.
+	 */
+	void retire() {
+		synchronized (connections) {
+			connections.retired = true;
+			close();
+		}
+	}
+
+	private SmtpRelays createRelays(String servers) {
+		List<SmtpRelay> list = new ArrayList<SmtpRelay>();
+		for (final RelayAddress address : RelayAddress.parseList(servers)) {
+			SmtpConnectionPool pool = new SmtpConnectionPool(new ConnectionFactory() {
+				public SMTPTransport connect(Deadline deadline) throws MessagingException {
+					Object event = flightRecorder.beginSmtpConnect();
+					long start = System.nanoTime();
+					SendOutcome outcome = SendOutcome.FAILURE;
+					try {
+						SMTPTransport transport = PostalService.this.connect(address, deadline);
+						outcome = SendOutcome.SUCCESS;
+						return transport;
+					} finally {
+						emailTransportConfig.getMetricsRecorder().record(SendPhase.CONNECT,
+								address.toString(), outcome, System.nanoTime() - start);
+
+						if (flightRecorder.end(event)) {
+							flightRecorder.commitSmtpConnect(event, address.toString(),
+									outcome == SendOutcome.SUCCESS);
+						}
+					}
+				}
+			}, emailTransportConfig);
+			CircuitBreaker circuitBreaker = new CircuitBreaker(address.toString(),
+					emailTransportConfig.getCircuitFailureThreshold(),
+					emailTransportConfig.getCircuitOpenMillis());
+			AdaptiveConcurrencyLimit concurrencyLimit = null;
+			if (emailTransportConfig.useAdaptiveConcurrency()) {
+				concurrencyLimit = AdaptiveConcurrencyLimit.fromConfiguration(emailTransportConfig);
+			}
+			list.add(new SmtpRelay(address, pool, circuitBreaker, concurrencyLimit));
+		}
+		SmtpRelays relays = new SmtpRelays(servers == null ? "" : servers, list,
+				emailTransportConfig.getRelayBalancing().newSelector());
+		if (emailTransportConfig.getPoolKeepAliveMillis() > 0) {
+			relays.keepAlive(emailTransportConfig.getPoolWarmConnections(),
+					emailTransportConfig.getPoolKeepAliveMillis());
+		}
+		return relays;
+	}
+
+	protected RetryPolicy getRetryPolicy() {
+		return RetryPolicy.fromConfiguration(emailTransportConfig);
+	}
+
+	/**
+	 * @return Traffic, health and connection pool counters of each relay.
+	 */
+	public List<RelayStatistics> getRelayStatistics() {
+		List<RelayStatistics> statistics = new ArrayList<RelayStatistics>();
+		for (SmtpRelay relay : getRelays().getRelays()) {
+			statistics.add(relay.getStatistics());
+		}
+		return statistics;
+	}
+
+	/**
+	 * @return Hit/miss and wait-time counters of the SMTP connection pools,
+	 *         summed over all relays, to help sizing them.
+	 */
+	public ConnectionPoolStatistics getConnectionPoolStatistics() {
+		List<ConnectionPoolStatistics> statistics = new ArrayList<ConnectionPoolStatistics>();
+		for (SmtpRelay relay : getRelays().getRelays()) {
+			statistics.add(relay.getConnectionPool().getStatistics());
 		}
-		smtpTransport.sendMessage(message, message.getAllRecipients());
-		smtpTransport.close();
+		return ConnectionPoolStatistics.sum(statistics);
 	}
 
 	protected String getProtocol() {
@@ -90,4 +989,35 @@ public class PostalService {
 		}
 		return protocol;
 	}
+
+	/**
+	 * Session and relays of a configuration. Read without locking on every
+	 * send, and only replaced, under the lock, when the configuration
+	 * changed.
+	 */
+	private static class Connections {
+		volatile MailSession session;
+		volatile RelayGeneration relays;
+		boolean retired;
+	}
+
+	private static class MailSession {
+		final long generation;
+		final Session session;
+
+		MailSession(long generation, Session session) {
+			this.generation = generation;
+			this.session = session;
+		}
+	}
+
+	private static class RelayGeneration {
+		final long generation;
+		final SmtpRelays relays;
+
+		RelayGeneration(long generation, SmtpRelays relays) {
+			this.generation = generation;
+			this.relays = relays;
+		}
+	}
 }
@@ -0,0 +1,58 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Enumeration;
+
+import javax.mail.Address;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Message of one campaign recipient. Writes its own few headers followed by
+ * the bytes pre-rendered by its {@link MessagePrototype}, so nothing is
+ * encoded again per recipient.
+ */
+class PrototypeMessage extends MimeMessage {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private final MessagePrototype prototype;
+
+	PrototypeMessage(Session session, MessagePrototype prototype) {
+		super(session);
+		this.prototype = prototype;
+	}
+
+	@Override
+	public Address[] getFrom() throws MessagingException {
+		return prototype.getFrom();
+	}
+
+	@Override
+	public int getSize() {
+		return prototype.getSize();
+	}
+
+	/**
+	 * Content headers were computed when the prototype was rendered.
+	 */
+	@Override
+	protected void updateHeaders() {
+	}
+
+	@Override
+	public void writeTo(OutputStream out, String[] ignoreList) throws IOException,
+			MessagingException {
+		Enumeration<?> lines = getNonMatchingHeaderLines(ignoreList);
+		while (lines.hasMoreElements()) {
+			out.write(((String) lines.nextElement()).getBytes("ISO-8859-1"));
+			out.write(CRLF);
+		}
+		out.write(prototype.getHeaders());
+		out.write(CRLF);
+		out.write(prototype.getBody());
+		out.flush();
+	}
+}
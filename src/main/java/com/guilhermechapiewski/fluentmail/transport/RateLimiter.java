@@ -0,0 +1,207 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Paces sends to stay under the rates providers accept: one token bucket
+ * per relay (messages per second of the account) and one per recipient
+ * domain, so big mailbox providers are not hit hard enough to defer.
+ * <p>
+ * Buckets of domains under the default limit are dropped once idle, i.e.
+ * full again, when there are more than {@value #DOMAIN_SWEEP_THRESHOLD} of
+ * them, so that mailing many domains doesn't grow them without bound.
+ */
+public class RateLimiter {
+
+	static final int DOMAIN_SWEEP_THRESHOLD = 10000;
+
+	private final double relayPermitsPerSecond;
+	private final int relayBurst;
+	private final double domainPermitsPerSecond;
+	private final int domainBurst;
+
+	private final ConcurrentMap<String, TokenBucket> relayBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final ConcurrentMap<String, TokenBucket> domainBuckets = new ConcurrentHashMap<String, TokenBucket>();
+	private final ConcurrentMap<String, TokenBucket> domainOverrides = new ConcurrentHashMap<String, TokenBucket>();
+	private final AtomicInteger domainSweepAt = new AtomicInteger(DOMAIN_SWEEP_THRESHOLD);
+
+	/**
+	 * @param relayPermitsPerSecond
+	 *            Messages per second to each relay, zero for no limit.
+	 * @param relayBurst
+	 *            Messages that can be sent to a relay at once after it was
+	 *            idle.
+	 * @param domainPermitsPerSecond
+	 *            Messages per second to each recipient domain, zero for no
+	 *            limit.
+	 * @param domainBurst
+	 *            Messages that can be sent to a domain at once after it was
+	 *            idle.
+	 */
+	public RateLimiter(double relayPermitsPerSecond, int relayBurst, double domainPermitsPerSecond,
+			int domainBurst) {
+		this.relayPermitsPerSecond = relayPermitsPerSecond;
+		this.relayBurst = relayBurst;
+		this.domainPermitsPerSecond = domainPermitsPerSecond;
+		this.domainBurst = domainBurst;
+	}
+
+	/**
+	 * @return A limiter with the same default limits and nothing reserved
+	 *         yet. Per-domain overrides are not copied.
+	 */
+	RateLimiter withSameLimits() {
+		return new RateLimiter(relayPermitsPerSecond, relayBurst, domainPermitsPerSecond,
+				domainBurst);
+	}
+
+	/**
+	 * @return A limiter with the same limits, going on at the pace of this
+	 *         one, where <i>domain</i> has a limit of its own.
+	 */
+	RateLimiter withDomainLimit(String domain, double permitsPerSecond, int burst) {
+		RateLimiter copy = withSameLimits();
+		copy.relayBuckets.putAll(relayBuckets);
+		copy.domainBuckets.putAll(domainBuckets);
+		copy.domainOverrides.putAll(domainOverrides);
+		copy.setDomainLimit(domain, permitsPerSecond, burst);
+		return copy;
+	}
+
+	double getRelayPermitsPerSecond() {
+		return relayPermitsPerSecond;
+	}
+
+	int getRelayBurst() {
+		return relayBurst;
+	}
+
+	double getDomainPermitsPerSecond() {
+		return domainPermitsPerSecond;
+	}
+
+	int getDomainBurst() {
+		return domainBurst;
+	}
+
+	boolean hasLimits(double relayPermitsPerSecond, int relayBurst,
+			double domainPermitsPerSecond, int domainBurst) {
+		return this.relayPermitsPerSecond == relayPermitsPerSecond && this.relayBurst == relayBurst
+				&& this.domainPermitsPerSecond == domainPermitsPerSecond
+				&& this.domainBurst == domainBurst;
+	}
+
+	/**
+	 * Overrides the limit of one recipient domain, e.g. a provider known to
+	 * accept less than the default.
+	 */
+	public void setDomainLimit(String domain, double permitsPerSecond, int burst) {
+		domainOverrides.put(domain.toLowerCase(Locale.ENGLISH), new TokenBucket(permitsPerSecond,
+				burst));
+	}
+
+	/**
+	 * Takes a token from the bucket of <i>relay</i> and of each domain of
+	 * <i>recipients</i>.
+	 * 
+	 * @return How long to wait before sending, in nanoseconds.
+	 */
+	public long reserve(String relay, Collection<String> recipients) {
+		long wait = 0;
+		if (relayPermitsPerSecond > 0) {
+			wait = bucket(relayBuckets, relay, relayPermitsPerSecond, relayBurst).reserve();
+		}
+		for (String domain : domainsOf(recipients)) {
+			TokenBucket bucket = domainBucket(domain);
+			if (bucket != null) {
+				wait = Math.max(wait, bucket.reserve());
+			}
+		}
+		return wait;
+	}
+
+	/**
+	 * @return How long until all domains of <i>recipients</i> have a token,
+	 *         in nanoseconds, without taking any. Lets asynchronous sends
+	 *         wait for their turn without holding a thread.
+	 */
+	public long delay(Collection<String> recipients) {
+		long wait = 0;
+		for (String domain : domainsOf(recipients)) {
+			TokenBucket bucket = domainBucket(domain);
+			if (bucket != null) {
+				wait = Math.max(wait, bucket.delay());
+			}
+		}
+		return wait;
+	}
+
+	public boolean isLimited() {
+		return relayPermitsPerSecond > 0 || domainPermitsPerSecond > 0
+				|| !domainOverrides.isEmpty();
+	}
+
+	private TokenBucket domainBucket(String domain) {
+		TokenBucket override = domainOverrides.get(domain);
+		if (override != null || domainPermitsPerSecond <= 0) {
+			return override;
+		}
+		if (domainBuckets.size() > domainSweepAt.get()) {
+			sweepIdleDomains();
+		}
+		return bucket(domainBuckets, domain, domainPermitsPerSecond, domainBurst);
+	}
+
+	/**
+	 * Drops the domain buckets that are full again, which is no different
+	 * from creating them anew. The next sweep waits for the map to double, so
+	 * that many busy domains don't make every send sweep.
+	 */
+	private void sweepIdleDomains() {
+		int sweepAt = domainSweepAt.get();
+		if (!domainSweepAt.compareAndSet(sweepAt, Integer.MAX_VALUE)) {
+			return;
+		}
+		for (Iterator<TokenBucket> buckets = domainBuckets.values().iterator(); buckets.hasNext();) {
+			if (buckets.next().isIdle()) {
+				buckets.remove();
+			}
+		}
+		domainSweepAt.set(Math.max(DOMAIN_SWEEP_THRESHOLD, 2 * domainBuckets.size()));
+	}
+
+	int getDomainBucketCount() {
+		return domainBuckets.size();
+	}
+
+	private static TokenBucket bucket(ConcurrentMap<String, TokenBucket> buckets, String key,
+			double permitsPerSecond, int burst) {
+		TokenBucket bucket = buckets.get(key);
+		if (bucket == null) {
+			TokenBucket created = new TokenBucket(permitsPerSecond, burst);
+			bucket = buckets.putIfAbsent(key, created);
+			if (bucket == null) {
+				bucket = created;
+			}
+		}
+		return bucket;
+	}
+
+	private static Set<String> domainsOf(Collection<String> recipients) {
+		Set<String> domains = new HashSet<String>();
+		for (String recipient : recipients) {
+			int at = recipient.lastIndexOf('@');
+			if (at != -1) {
+				domains.add(recipient.substring(at + 1).toLowerCase(Locale.ENGLISH));
+			}
+		}
+		return domains;
+	}
+}
@@ -0,0 +1,84 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where an SMTP relay listens and how much traffic it should get, parsed
+ * from <code>host[:port][*weight]</code>.
+ */
+public class RelayAddress {
+
+	private final String host;
+	private final int port;
+	private final int weight;
+
+	public RelayAddress(String host, int port, int weight) {
+		if (weight < 1) {
+			throw new IllegalArgumentException("Relay weight must be positive: " + weight);
+		}
+		this.host = host;
+		this.port = port;
+		this.weight = weight;
+	}
+
+	/**
+	 * Parses a comma separated list of relays, e.g.
+	 * <code>relay1.example.com:587*3, relay2.example.com*1</code>. Port
+	 * defaults to the protocol's and weight to 1. An empty list yields a
+	 * single relay without host, which lets JavaMail pick its default.
+	 */
+	public static List<RelayAddress> parseList(String servers) {
+		List<RelayAddress> relays = new ArrayList<RelayAddress>();
+		if (servers != null) {
+			for (String server : servers.split(",")) {
+				if (server.trim().length() > 0) {
+					relays.add(parse(server.trim()));
+				}
+			}
+		}
+		if (relays.isEmpty()) {
+			relays.add(new RelayAddress(null, -1, 1));
+		}
+		return relays;
+	}
+
+	public static RelayAddress parse(String server) {
+		int weight = 1;
+		int star = server.indexOf('*');
+		if (star != -1) {
+			weight = Integer.parseInt(server.substring(star + 1).trim());
+			server = server.substring(0, star).trim();
+		}
+
+		int port = -1;
+		int colon = server.lastIndexOf(':');
+		if (colon != -1 && server.indexOf(']', colon) == -1) {
+			port = Integer.parseInt(server.substring(colon + 1));
+			server = server.substring(0, colon);
+		}
+
+		return new RelayAddress(server, port, weight);
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * @return The port, or -1 for the protocol's default.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	@Override
+	public String toString() {
+		String endpoint = host == null ? "localhost" : host;
+		return port == -1 ? endpoint : endpoint + ":" + port;
+	}
+}
@@ -0,0 +1,23 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+/**
+ * Load balancing strategies available through configuration.
+ */
+public enum RelayBalancing {
+
+	WEIGHTED_ROUND_ROBIN {
+		@Override
+		public RelaySelector newSelector() {
+			return new WeightedRoundRobinSelector();
+		}
+	},
+
+	LEAST_OUTSTANDING {
+		@Override
+		public RelaySelector newSelector() {
+			return new LeastOutstandingSelector();
+		}
+	};
+
+	public abstract RelaySelector newSelector();
+}
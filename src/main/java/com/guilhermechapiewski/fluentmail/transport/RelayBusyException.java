@@ -0,0 +1,16 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import javax.mail.MessagingException;
+
+/**
+ * Thrown when no connection or send slot of a relay became free in time.
+ * The relay itself wasn't tried, so the send may be retried.
+ */
+public class RelayBusyException extends MessagingException {
+
+	private static final long serialVersionUID = 3380945104128893607L;
+
+	public RelayBusyException(String message) {
+		super(message);
+	}
+}
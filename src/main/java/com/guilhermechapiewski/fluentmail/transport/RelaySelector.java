@@ -0,0 +1,15 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.List;
+
+/**
+ * Load balancing strategy choosing the relay for the next send.
+ */
+public interface RelaySelector {
+
+	/**
+	 * @param candidates
+	 *            Healthy relays, never empty.
+	 */
+	SmtpRelay select(List<SmtpRelay> candidates);
+}
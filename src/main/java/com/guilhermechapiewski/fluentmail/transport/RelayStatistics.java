@@ -0,0 +1,74 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+/**
+ * Point-in-time view of the traffic and health of an {@link SmtpRelay}.
+ */
+public class RelayStatistics {
+
+	private final String endpoint;
+	private final int weight;
+	private final CircuitBreaker.State state;
+	private final int outstanding;
+	private final long sent;
+	private final long failed;
+	private final int concurrencyLimit;
+	private final ConnectionPoolStatistics connectionPool;
+
+	RelayStatistics(String endpoint, int weight, CircuitBreaker.State state, int outstanding,
+			long sent, long failed, int concurrencyLimit, ConnectionPoolStatistics connectionPool) {
+		this.endpoint = endpoint;
+		this.weight = weight;
+		this.state = state;
+		this.outstanding = outstanding;
+		this.sent = sent;
+		this.failed = failed;
+		this.concurrencyLimit = concurrencyLimit;
+		this.connectionPool = connectionPool;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public int getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @return {@link CircuitBreaker.State#CLOSED} while the relay is healthy.
+	 */
+	public CircuitBreaker.State getState() {
+		return state;
+	}
+
+	public int getOutstanding() {
+		return outstanding;
+	}
+
+	public long getSent() {
+		return sent;
+	}
+
+	public long getFailed() {
+		return failed;
+	}
+
+	/**
+	 * @return Sends currently allowed in flight by the adaptive concurrency
+	 *         limit, or -1 if the relay has none.
+	 */
+	public int getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	public ConnectionPoolStatistics getConnectionPool() {
+		return connectionPool;
+	}
+
+	@Override
+	public String toString() {
+		return endpoint + " [weight=" + weight + ", state=" + state + ", outstanding="
+				+ outstanding + ", sent=" + sent + ", failed=" + failed + ", concurrencyLimit="
+				+ concurrencyLimit + ", pool={" + connectionPool + "}]";
+	}
+}
@@ -0,0 +1,76 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Capped exponential backoff with jitter between attempts of a send.
+ */
+public class RetryPolicy {
+
+	private final int maxAttempts;
+	private final long initialBackoffMillis;
+	private final long maxBackoffMillis;
+	private final double jitter;
+
+	/**
+	 * @param maxAttempts
+	 *            Total attempts, including the first one. 1 disables retries.
+	 * @param initialBackoffMillis
+	 *            Wait before the first retry. Doubles on each retry.
+	 * @param maxBackoffMillis
+	 *            Upper bound of the wait between attempts.
+	 * @param jitter
+	 *            Fraction (0 to 1) of each wait that is randomized, so
+	 *            senders failing together don't retry together.
+	 */
+	public RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+			double jitter) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("At least one attempt is needed");
+		}
+		if (jitter < 0 || jitter > 1) {
+			throw new IllegalArgumentException("Jitter must be between 0 and 1");
+		}
+		this.maxAttempts = maxAttempts;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+		this.jitter = jitter;
+	}
+
+	public static RetryPolicy fromConfiguration(EmailTransportConfiguration config) {
+		return new RetryPolicy(config.getRetryMaxAttempts(), config.getRetryInitialBackoffMillis(),
+				config.getRetryMaxBackoffMillis(), config.getRetryJitter());
+	}
+
+	/**
+	 * @param attempt
+	 *            The attempt that just failed, starting at 1.
+	 * @return <b>true</b> if another attempt may be made.
+	 */
+	public boolean shouldRetry(int attempt) {
+		return attempt < maxAttempts;
+	}
+
+	/**
+	 * @param attempt
+	 *            The attempt that just failed, starting at 1.
+	 * @return How long to wait before the next attempt.
+	 */
+	public long backoffMillis(int attempt) {
+		long backoff = initialBackoffMillis;
+		for (int i = 1; i < attempt && backoff < maxBackoffMillis; i++) {
+			backoff *= 2;
+		}
+		backoff = Math.min(backoff, maxBackoffMillis);
+
+		long randomized = (long) (backoff * jitter);
+		if (randomized <= 0) {
+			return backoff;
+		}
+		return backoff - randomized + ThreadLocalRandom.current().nextLong(randomized + 1);
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+}
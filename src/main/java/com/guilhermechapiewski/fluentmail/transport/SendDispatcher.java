@@ -0,0 +1,275 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs sends off the caller thread. The number of pending sends (queued plus
+ * in flight) is bounded independently of the {@link Executor} used, so any
+ * executor can be plugged in, including one thread per send.
+ */
+public class SendDispatcher {
+
+	/**
+	 * What to do with a send when the dispatcher is full.
+	 */
+	public enum RejectionPolicy {
+		/** Complete the future exceptionally with a RejectedExecutionException. */
+		ABORT,
+		/** Send synchronously in the calling thread. */
+		CALLER_RUNS,
+		/** Block the calling thread until there is room. */
+		BLOCK
+	}
+
+	private final Executor executor;
+	private final boolean ownsExecutor;
+	private final int maxPending;
+	private final RejectionPolicy rejectionPolicy;
+	private final Semaphore permits;
+
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong callerRuns = new AtomicLong();
+
+	/**
+	 * @param executor
+	 *            Executor that runs the sends.
+	 * @param maxPending
+	 *            Maximum number of sends queued or in flight at once.
+	 * @param rejectionPolicy
+	 *            What to do when <i>maxPending</i> is reached.
+	 */
+	public SendDispatcher(Executor executor, int maxPending, RejectionPolicy rejectionPolicy) {
+		this(executor, false, maxPending, rejectionPolicy);
+	}
+
+	private SendDispatcher(Executor executor, boolean ownsExecutor, int maxPending,
+			RejectionPolicy rejectionPolicy) {
+		if (maxPending < 1) {
+			throw new IllegalArgumentException("Dispatcher must allow at least one pending send");
+		}
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.maxPending = maxPending;
+		this.rejectionPolicy = rejectionPolicy;
+		this.permits = new Semaphore(maxPending);
+	}
+
+	/**
+	 * Dispatcher backed by a fixed number of daemon sender threads.
+	 */
+	public static SendDispatcher withThreads(int threads, int queueCapacity,
+			RejectionPolicy rejectionPolicy) {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+				TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new SenderThreadFactory());
+		executor.allowCoreThreadTimeOut(true);
+		return new SendDispatcher(executor, true, threads + queueCapacity, rejectionPolicy);
+	}
+
+	/**
+	 * Dispatcher that starts a virtual thread per send. Requires Java 21 or
+	 * newer at runtime.
+	 */
+	public static SendDispatcher withVirtualThreads(int maxPending, RejectionPolicy rejectionPolicy) {
+		return new SendDispatcher(newVirtualThreadPerTaskExecutor(), true, maxPending,
+				rejectionPolicy);
+	}
+
+	public static SendDispatcher fromConfiguration(EmailTransportConfiguration config) {
+		RejectionPolicy policy = config.getAsyncRejectionPolicy();
+		if (config.useVirtualThreads()) {
+			return withVirtualThreads(config.getAsyncThreads() + config.getAsyncQueueCapacity(),
+					policy);
+		}
+		return withThreads(config.getAsyncThreads(), config.getAsyncQueueCapacity(), policy);
+	}
+
+	/**
+	 * Schedules a send. The returned future completes with the send result,
+	 * or exceptionally with whatever the send threw.
+	 */
+	public CompletableFuture<SendResult> dispatch(final Callable<SendResult> send) {
+		return dispatch(send, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Schedules a send to start after <i>delay</i>, e.g. to wait for a rate
+	 * limit, without holding a sender thread meanwhile. The send counts as
+	 * queued from now on.
+	 */
+	public CompletableFuture<SendResult> dispatch(final Callable<SendResult> send, long delay,
+			TimeUnit unit) {
+		final CompletableFuture<SendResult> future = new CompletableFuture<SendResult>();
+
+		if (!permits.tryAcquire()) {
+			switch (rejectionPolicy) {
+			case CALLER_RUNS:
+				callerRuns.incrementAndGet();
+				run(send, future);
+				return future;
+			case BLOCK:
+				try {
+					permits.acquire();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					rejected.incrementAndGet();
+					future.completeExceptionally(e);
+					return future;
+				}
+				break;
+			default:
+				rejected.incrementAndGet();
+				future.completeExceptionally(new RejectedExecutionException(
+						"Too many pending sends: " + maxPending));
+				return future;
+			}
+		}
+
+		queued.incrementAndGet();
+		if (delay > 0) {
+			Pacer.SCHEDULER.schedule(new Runnable() {
+				public void run() {
+					execute(send, future);
+				}
+			}, delay, unit);
+		} else {
+			execute(send, future);
+		}
+		return future;
+	}
+
+	private void execute(final Callable<SendResult> send, final CompletableFuture<SendResult> future) {
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					queued.decrementAndGet();
+					inFlight.incrementAndGet();
+					try {
+						SendDispatcher.this.run(send, future);
+					} finally {
+						inFlight.decrementAndGet();
+						permits.release();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			queued.decrementAndGet();
+			permits.release();
+			rejected.incrementAndGet();
+			future.completeExceptionally(e);
+		}
+	}
+
+	private void run(Callable<SendResult> send, CompletableFuture<SendResult> future) {
+		try {
+			future.complete(send.call());
+			completed.incrementAndGet();
+		} catch (Throwable e) {
+			failed.incrementAndGet();
+			future.completeExceptionally(e);
+		}
+	}
+
+	/**
+	 * Stops accepting sends and lets pending ones finish, when the dispatcher
+	 * created its own executor.
+	 */
+	public void shutdown() {
+		if (ownsExecutor) {
+			((ExecutorService) executor).shutdown();
+		}
+	}
+
+	public int getMaxPending() {
+		return maxPending;
+	}
+
+	public RejectionPolicy getRejectionPolicy() {
+		return rejectionPolicy;
+	}
+
+	/**
+	 * @return Sends waiting for a thread.
+	 */
+	public int getQueueDepth() {
+		return queued.get();
+	}
+
+	/**
+	 * @return Sends currently talking to the SMTP server.
+	 */
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	public long getFailed() {
+		return failed.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getCallerRuns() {
+		return callerRuns.get();
+	}
+
+	private static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			throw new UnsupportedOperationException("Virtual threads require Java 21 or newer");
+		} catch (Exception e) {
+			throw new IllegalStateException("Could not create virtual thread executor", e);
+		}
+	}
+
+	/**
+	 * Single daemon thread holding delayed sends until they are due.
+	 */
+	private static class Pacer {
+
+		static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "fluent-mail-pacer");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	private static class SenderThreadFactory implements ThreadFactory {
+
+		private static final AtomicInteger threadNumber = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "fluent-mail-sender-"
+					+ threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
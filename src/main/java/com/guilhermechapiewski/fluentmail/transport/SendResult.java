@@ -0,0 +1,131 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * Outcome of sending one {@link Email}: which recipients the SMTP server
+ * accepted and which it rejected, permanently or for now. Lets callers retry
+ * only the recipients that were not reached instead of sending the whole
+ * email again.
+ */
+public class SendResult {
+
+	private final Email email;
+	private final Exception failure;
+	private final List<String> accepted;
+	private final List<String> rejectedPermanently;
+	private final List<String> rejectedTransiently;
+
+	private SendResult(Email email, Exception failure, Collection<String> accepted,
+			Collection<String> rejectedPermanently, Collection<String> rejectedTransiently) {
+		this.email = email;
+		this.failure = failure;
+		this.accepted = unmodifiableCopy(accepted);
+		this.rejectedPermanently = unmodifiableCopy(rejectedPermanently);
+		this.rejectedTransiently = unmodifiableCopy(rejectedTransiently);
+	}
+
+	/**
+	 * All recipients of the email were accepted.
+	 */
+	public static SendResult success(Email email) {
+		List<String> recipients = new ArrayList<String>();
+		addBareAddresses(recipients, email.getToAddresses());
+		addBareAddresses(recipients, email.getCcAddresses());
+		addBareAddresses(recipients, email.getBccAddresses());
+		return new SendResult(email, null, recipients, null, null);
+	}
+
+	/**
+	 * Lists addresses without display names, like the recipients reported by
+	 * the SMTP server in {@link #of}.
+	 */
+	private static void addBareAddresses(List<String> recipients, Collection<String> addresses) {
+		for (String address : addresses) {
+			try {
+				for (InternetAddress parsed : InternetAddress.parse(address)) {
+					recipients.add(parsed.getAddress());
+				}
+			} catch (AddressException e) {
+				recipients.add(address);
+			}
+		}
+	}
+
+	/**
+	 * The email as a whole could not be sent, e.g. it failed validation or
+	 * the SMTP server was unreachable.
+	 */
+	public static SendResult failure(Email email, Exception failure) {
+		return new SendResult(email, failure, null, null, null);
+	}
+
+	/**
+	 * Some recipients may have been accepted and others rejected.
+	 *
+	 * @param failure
+	 *            What the SMTP server reported for the rejected recipients,
+	 *            or <b>null</b> if none was rejected.
+	 */
+	static SendResult of(Email email, Exception failure, Collection<String> accepted,
+			Collection<String> rejectedPermanently, Collection<String> rejectedTransiently) {
+		return new SendResult(email, failure, accepted, rejectedPermanently, rejectedTransiently);
+	}
+
+	public Email getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return <b>true</b> if every recipient was accepted.
+	 */
+	public boolean isSuccessful() {
+		return failure == null;
+	}
+
+	/**
+	 * @return Why the email was not sent to all its recipients, or <b>null</b>
+	 *         if it was.
+	 */
+	public Exception getFailure() {
+		return failure;
+	}
+
+	/**
+	 * @return Recipients the SMTP server accepted the email for.
+	 */
+	public List<String> getAcceptedRecipients() {
+		return accepted;
+	}
+
+	/**
+	 * @return Recipients rejected with a permanent (5xx) reply. Sending to
+	 *         them again would fail the same way.
+	 */
+	public List<String> getPermanentlyRejectedRecipients() {
+		return rejectedPermanently;
+	}
+
+	/**
+	 * @return Recipients the email was not delivered to yet, which can be
+	 *         retried later.
+	 */
+	public List<String> getTransientlyRejectedRecipients() {
+		return rejectedTransiently;
+	}
+
+	private static List<String> unmodifiableCopy(Collection<String> addresses) {
+		if (addresses == null || addresses.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return Collections.unmodifiableList(new ArrayList<String>(addresses));
+	}
+}
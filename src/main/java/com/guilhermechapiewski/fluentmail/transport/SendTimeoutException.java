@@ -0,0 +1,20 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import javax.mail.MessagingException;
+
+/**
+ * Thrown when the deadline of a send passed before it was done, so the
+ * caller can give up on it or fall back, e.g. to another channel.
+ */
+public class SendTimeoutException extends MessagingException {
+
+	private static final long serialVersionUID = 5120864937362017718L;
+
+	public SendTimeoutException(String message) {
+		super(message);
+	}
+
+	public SendTimeoutException(String message, Exception cause) {
+		super(message, cause);
+	}
+}
@@ -0,0 +1,434 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.mail.MessagingException;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Bounded pool of connected and authenticated SMTP transports, so consecutive
+ * sends don't pay the connect/EHLO/STARTTLS/AUTH handshake every time.
+ * <p>
+ * Limits are read from {@link EmailTransportConfiguration} on every
+ * operation, so reconfiguring the pool takes effect without recreating it.
+ * Network I/O (connect, RSET health checks and QUIT) is always done outside
+ * the pool lock.
+ */
+public class SmtpConnectionPool {
+
+	private static final int SMTP_OK = 250;
+
+	private final ConnectionFactory connectionFactory;
+	private final EmailTransportConfiguration config;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition connectionReleased = lock.newCondition();
+	private final Deque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+	private int active;
+	private boolean closed;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong waits = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong destroyed = new AtomicLong();
+	private final AtomicLong healthCheckFailures = new AtomicLong();
+
+	public SmtpConnectionPool(ConnectionFactory connectionFactory,
+			EmailTransportConfiguration config) {
+		this.connectionFactory = connectionFactory;
+		this.config = config;
+	}
+
+	/**
+	 * Takes a healthy connection from the pool, opening a new one if there is
+	 * no idle connection and the pool is not at its maximum size. Otherwise
+	 * waits for a connection to be released.
+	 *
+	 * @throws MessagingException
+	 *             If no connection could be obtained in time or a new
+	 *             connection could not be opened.
+	 */
+	PooledConnection borrow() throws MessagingException {
+		return borrow(Deadline.NONE);
+	}
+
+	/**
+	 * Like {@link #borrow()}, waiting no longer than <i>deadline</i> and not
+	 * connecting once it passed.
+	 * 
+	 * @throws SendTimeoutException
+	 *             If the deadline passed first.
+	 */
+	PooledConnection borrow(Deadline deadline) throws MessagingException {
+		long waitStarted = 0;
+
+		while (true) {
+			PooledConnection connection;
+			List<PooledConnection> expired;
+
+			lock.lock();
+			try {
+				expired = removeExpired();
+				while (true) {
+					if (closed) {
+						throw new MessagingException("Connection pool is closed");
+					}
+					connection = idle.pollFirst();
+					if (connection != null || active < config.getPoolMaxTotal()) {
+						break;
+					}
+					if (waitStarted == 0) {
+						waitStarted = System.nanoTime();
+						waits.incrementAndGet();
+					}
+					long remaining = TimeUnit.MILLISECONDS.toNanos(config.getPoolMaxWaitMillis())
+							- (System.nanoTime() - waitStarted);
+					long untilDeadline = TimeUnit.MILLISECONDS.toNanos(deadline.remainingMillis());
+					if (untilDeadline <= 0) {
+						timeouts.incrementAndGet();
+						recordWait(waitStarted);
+						throw deadline.timedOut("waiting for an SMTP connection", null);
+					}
+					remaining = Math.min(remaining, untilDeadline);
+					if (remaining <= 0) {
+						timeouts.incrementAndGet();
+						recordWait(waitStarted);
+						throw new RelayBusyException("Timed out after "
+								+ config.getPoolMaxWaitMillis()
+								+ "ms waiting for an SMTP connection");
+					}
+					connectionReleased.awaitNanos(remaining);
+				}
+				active++;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new MessagingException("Interrupted while waiting for an SMTP connection", e);
+			} finally {
+				lock.unlock();
+			}
+
+			destroyAll(expired);
+
+			if (connection == null) {
+				recordWait(waitStarted);
+				if (deadline.isExpired()) {
+					giveBackSlot();
+					throw deadline.timedOut("before connecting", null);
+				}
+				return open(deadline);
+			}
+
+			if (isHealthy(connection)) {
+				hits.incrementAndGet();
+				recordWait(waitStarted);
+				return connection;
+			}
+
+			healthCheckFailures.incrementAndGet();
+			invalidate(connection);
+		}
+	}
+
+	/**
+	 * Gives a connection back to the pool. Connections that already sent
+	 * their quota of messages, or that don't fit in the idle set, are closed.
+	 */
+	void release(PooledConnection connection) {
+		connection.touch();
+
+		boolean keep;
+		lock.lock();
+		try {
+			active--;
+			keep = !closed
+					&& connection.getMessagesSent() < config.getPoolMaxMessagesPerConnection()
+					&& idle.size() < config.getPoolMaxIdle();
+			if (keep) {
+				idle.addFirst(connection);
+			}
+			connectionReleased.signal();
+		} finally {
+			lock.unlock();
+		}
+
+		if (!keep) {
+			destroy(connection);
+		}
+	}
+
+	/**
+	 * Closes a borrowed connection that should not be reused, e.g. after an
+	 * I/O error.
+	 */
+	void invalidate(PooledConnection connection) {
+		lock.lock();
+		try {
+			active--;
+			connectionReleased.signal();
+		} finally {
+			lock.unlock();
+		}
+		destroy(connection);
+	}
+
+	/**
+	 * Closes idle connections that exceeded the idle timeout, keeping at
+	 * least the configured minimum number of idle connections.
+	 */
+	public void evictIdle() {
+		List<PooledConnection> expired;
+		lock.lock();
+		try {
+			expired = removeExpired();
+		} finally {
+			lock.unlock();
+		}
+		destroyAll(expired);
+	}
+
+	/**
+	 * Opens connections until <i>count</i> are idle, within the idle and total
+	 * limits, so the next sends don't wait for DNS, TCP, TLS and AUTH.
+	 * 
+	 * @return How many connections were opened.
+	 * @throws MessagingException
+	 *             If a connection could not be opened.
+	 */
+	int prewarm(int count) throws MessagingException {
+		int opened = 0;
+		while (true) {
+			lock.lock();
+			try {
+				if (closed || idle.size() >= Math.min(count, config.getPoolMaxIdle())
+						|| active + idle.size() >= config.getPoolMaxTotal()) {
+					return opened;
+				}
+				active++;
+			} finally {
+				lock.unlock();
+			}
+
+			SMTPTransport transport;
+			try {
+				transport = connectionFactory.connect(Deadline.NONE);
+			} catch (MessagingException e) {
+				giveBackSlot();
+				throw e;
+			} catch (RuntimeException e) {
+				giveBackSlot();
+				throw e;
+			}
+			created.incrementAndGet();
+			opened++;
+
+			PooledConnection connection = new PooledConnection(transport);
+			boolean keep;
+			lock.lock();
+			try {
+				active--;
+				keep = !closed;
+				if (keep) {
+					idle.addLast(connection);
+				}
+				connectionReleased.signal();
+			} finally {
+				lock.unlock();
+			}
+			if (!keep) {
+				destroy(connection);
+				return opened;
+			}
+		}
+	}
+
+	/**
+	 * Sends a NOOP over each idle connection, so that servers and firewalls
+	 * don't drop them for being idle, and closes the ones that don't answer.
+	 * Connections are checked one at a time, leaving the others free for
+	 * sends. Doesn't count as using them, so the idle timeout still applies.
+	 */
+	void keepAlive() {
+		List<PooledConnection> connections;
+		lock.lock();
+		try {
+			connections = new ArrayList<PooledConnection>(idle);
+		} finally {
+			lock.unlock();
+		}
+
+		for (PooledConnection connection : connections) {
+			lock.lock();
+			try {
+				if (!idle.remove(connection)) {
+					continue;
+				}
+				active++;
+			} finally {
+				lock.unlock();
+			}
+
+			boolean alive = isAlive(connection);
+			boolean keep;
+			lock.lock();
+			try {
+				active--;
+				keep = alive && !closed;
+				if (keep) {
+					idle.addLast(connection);
+				}
+				connectionReleased.signal();
+			} finally {
+				lock.unlock();
+			}
+			if (!keep) {
+				if (!alive) {
+					healthCheckFailures.incrementAndGet();
+				}
+				destroy(connection);
+			}
+		}
+	}
+
+	/**
+	 * Closes all idle connections and refuses further borrows. Connections in
+	 * use are closed when they are released.
+	 */
+	public void close() {
+		List<PooledConnection> connections;
+		lock.lock();
+		try {
+			closed = true;
+			connections = new ArrayList<PooledConnection>(idle);
+			idle.clear();
+			connectionReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		destroyAll(connections);
+	}
+
+	public ConnectionPoolStatistics getStatistics() {
+		int idleCount;
+		int activeCount;
+		lock.lock();
+		try {
+			idleCount = idle.size();
+			activeCount = active;
+		} finally {
+			lock.unlock();
+		}
+		return new ConnectionPoolStatistics(hits.get(), misses.get(), waits.get(),
+				totalWaitNanos.get(), timeouts.get(), created.get(), destroyed.get(),
+				healthCheckFailures.get(), idleCount, activeCount);
+	}
+
+	private PooledConnection open(Deadline deadline) throws MessagingException {
+		misses.incrementAndGet();
+		try {
+			SMTPTransport transport = connectionFactory.connect(deadline);
+			created.incrementAndGet();
+			return new PooledConnection(transport);
+		} catch (MessagingException e) {
+			giveBackSlot();
+			throw e;
+		} catch (RuntimeException e) {
+			giveBackSlot();
+			throw e;
+		}
+	}
+
+	private void giveBackSlot() {
+		lock.lock();
+		try {
+			active--;
+			connectionReleased.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Must be called holding the lock. Idle connections are kept most
+	 * recently used first, so the expired ones are at the tail. Connections
+	 * kept warm count towards the minimum.
+	 */
+	private List<PooledConnection> removeExpired() {
+		long idleTimeout = config.getPoolIdleTimeoutMillis();
+		int minIdle = Math.max(config.getPoolMinIdle(), config.getPoolWarmConnections());
+		if (idleTimeout <= 0 || idle.size() <= minIdle) {
+			return null;
+		}
+
+		List<PooledConnection> expired = null;
+		long now = System.currentTimeMillis();
+		Iterator<PooledConnection> oldestFirst = idle.descendingIterator();
+		while (oldestFirst.hasNext() && idle.size() > minIdle) {
+			PooledConnection connection = oldestFirst.next();
+			if (now - connection.getLastUsedAt() < idleTimeout) {
+				break;
+			}
+			oldestFirst.remove();
+			if (expired == null) {
+				expired = new ArrayList<PooledConnection>();
+			}
+			expired.add(connection);
+		}
+		return expired;
+	}
+
+	/**
+	 * RSET is cheap, harmless on an idle connection and, unlike
+	 * {@link SMTPTransport#isConnected()}, tells whether the server is still
+	 * willing to start a new mail transaction.
+	 */
+	private boolean isHealthy(PooledConnection connection) {
+		try {
+			return connection.getTransport().simpleCommand("RSET") == SMTP_OK;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private boolean isAlive(PooledConnection connection) {
+		try {
+			return connection.getTransport().simpleCommand("NOOP") == SMTP_OK;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	private void recordWait(long waitStarted) {
+		if (waitStarted != 0) {
+			totalWaitNanos.addAndGet(System.nanoTime() - waitStarted);
+		}
+	}
+
+	private void destroyAll(List<PooledConnection> connections) {
+		if (connections != null) {
+			for (PooledConnection connection : connections) {
+				destroy(connection);
+			}
+		}
+	}
+
+	private void destroy(PooledConnection connection) {
+		destroyed.incrementAndGet();
+		try {
+			connection.getTransport().close();
+		} catch (Exception e) {
+			// Connection is being discarded anyway.
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One SMTP relay mail can be sent through, with its own connection pool,
+ * health tracking and statistics.
+ */
+public class SmtpRelay {
+
+	private static final FailureClassifier failureClassifier = new FailureClassifier();
+
+	private final RelayAddress address;
+	private final SmtpConnectionPool connectionPool;
+	private final CircuitBreaker circuitBreaker;
+	private final AdaptiveConcurrencyLimit concurrencyLimit;
+
+	private final AtomicInteger outstanding = new AtomicInteger();
+	private final AtomicLong sent = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+
+	public SmtpRelay(RelayAddress address, SmtpConnectionPool connectionPool,
+			CircuitBreaker circuitBreaker) {
+		this(address, connectionPool, circuitBreaker, null);
+	}
+
+	/**
+	 * @param concurrencyLimit
+	 *            Bound on the sends in flight, or null for none besides the
+	 *            connection pool size.
+	 */
+	public SmtpRelay(RelayAddress address, SmtpConnectionPool connectionPool,
+			CircuitBreaker circuitBreaker, AdaptiveConcurrencyLimit concurrencyLimit) {
+		this.address = address;
+		this.connectionPool = connectionPool;
+		this.circuitBreaker = circuitBreaker;
+		this.concurrencyLimit = concurrencyLimit;
+	}
+
+	public RelayAddress getAddress() {
+		return address;
+	}
+
+	public int getWeight() {
+		return address.getWeight();
+	}
+
+	public SmtpConnectionPool getConnectionPool() {
+		return connectionPool;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return The bound on sends in flight, or null if there is none.
+	 */
+	public AdaptiveConcurrencyLimit getConcurrencyLimit() {
+		return concurrencyLimit;
+	}
+
+	/**
+	 * @return Sends currently going through this relay.
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	void sendStarted() {
+		outstanding.incrementAndGet();
+	}
+
+	void sendSucceeded() {
+		outstanding.decrementAndGet();
+		sent.incrementAndGet();
+		circuitBreaker.recordSuccess();
+	}
+
+	/**
+	 * Only failures of the relay itself count towards tripping its circuit
+	 * breaker. A relay that answered, even to reject the message, is up;
+	 * failures it never saw leave the breaker as it was.
+	 */
+	void sendFailed(Exception failure) {
+		outstanding.decrementAndGet();
+		failed.incrementAndGet();
+		borrowFailed(failure);
+	}
+
+	/**
+	 * Records on the circuit breaker a failure to get a connection, the same
+	 * way as a failed send, so that a probe let through is never left
+	 * pending.
+	 */
+	void borrowFailed(Exception failure) {
+		if (failureClassifier.isEndpointFailure(failure)) {
+			circuitBreaker.recordFailure();
+		} else if (failureClassifier.reachedEndpoint(failure)) {
+			circuitBreaker.recordSuccess();
+		} else {
+			circuitBreaker.recordAborted();
+		}
+	}
+
+	public RelayStatistics getStatistics() {
+		return new RelayStatistics(address.toString(), address.getWeight(),
+				circuitBreaker.getState(), outstanding.get(), sent.get(), failed.get(),
+				concurrencyLimit == null ? -1 : concurrencyLimit.getLimit(),
+				connectionPool.getStatistics());
+	}
+
+	@Override
+	public String toString() {
+		return address.toString();
+	}
+}
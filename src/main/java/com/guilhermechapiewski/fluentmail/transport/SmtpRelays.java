@@ -0,0 +1,161 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The relays of a transport and the strategy that spreads sends across them.
+ * Relays whose circuit breaker is open are left out until their open period
+ * ends; the next send to them is then a probe that re-admits them if it
+ * succeeds.
+ */
+public class SmtpRelays {
+
+	private final String servers;
+	private final List<SmtpRelay> relays;
+	private final RelaySelector selector;
+
+	/** Sends using these relays, or -1 once they were retired and closed. */
+	private final AtomicInteger users = new AtomicInteger();
+	private volatile boolean retired;
+	private ScheduledFuture<?> keepAlive;
+
+	public SmtpRelays(String servers, List<SmtpRelay> relays, RelaySelector selector) {
+		this.servers = servers;
+		this.relays = Collections.unmodifiableList(new ArrayList<SmtpRelay>(relays));
+		this.selector = selector;
+	}
+
+	/**
+	 * Chooses a relay for the next send, preferring relays not in
+	 * <i>excluded</i> (e.g. the ones a failed send already tried).
+	 *
+	 * @throws CircuitBreakerOpenException
+	 *             If every relay is failing.
+	 */
+	public SmtpRelay acquire(Collection<SmtpRelay> excluded) throws CircuitBreakerOpenException {
+		List<SmtpRelay> candidates = new ArrayList<SmtpRelay>(relays);
+		if (excluded != null && !excluded.isEmpty()) {
+			candidates.removeAll(excluded);
+			if (candidates.isEmpty()) {
+				candidates.addAll(relays);
+			}
+		}
+
+		while (!candidates.isEmpty()) {
+			SmtpRelay relay = candidates.size() == 1 ? candidates.get(0) : selector
+					.select(candidates);
+			if (relay.getCircuitBreaker().allowRequest()) {
+				return relay;
+			}
+			candidates.remove(relay);
+		}
+		throw new CircuitBreakerOpenException(relays.size() == 1 ? relays.get(0).toString()
+				: "relays " + relays);
+	}
+
+	public List<SmtpRelay> getRelays() {
+		return relays;
+	}
+
+	public int size() {
+		return relays.size();
+	}
+
+	/**
+	 * @return The server list these relays were built from.
+	 */
+	String getServers() {
+		return servers;
+	}
+
+	/**
+	 * Registers a send that uses these relays, so that they are not closed
+	 * under it. Each successful call must be followed by {@link #exit()}.
+	 * 
+	 * @return <b>false</b> if the relays were retired and already closed.
+	 */
+	boolean enter() {
+		while (true) {
+			int current = users.get();
+			if (current < 0) {
+				return false;
+			}
+			if (users.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	void exit() {
+		if (users.decrementAndGet() == 0 && retired) {
+			closeIfUnused();
+		}
+	}
+
+	/**
+	 * Closes the relays once the sends using them are done. Their idle
+	 * connections are closed then, and the ones in use when released.
+	 */
+	void retire() {
+		retired = true;
+		closeIfUnused();
+	}
+
+	private void closeIfUnused() {
+		if (users.compareAndSet(0, -1)) {
+			close();
+		}
+	}
+
+	/**
+	 * Every <i>intervalMillis</i> until closed, keeps the idle connections
+	 * of each relay alive and opens connections again up to
+	 * <i>warmConnections</i>.
+	 */
+	synchronized void keepAlive(final int warmConnections, long intervalMillis) {
+		keepAlive = KeepAlive.SCHEDULER.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				for (SmtpRelay relay : relays) {
+					relay.getConnectionPool().keepAlive();
+					try {
+						relay.getConnectionPool().prewarm(warmConnections);
+					} catch (Exception e) {
+						// Tried again on the next round.
+					}
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	void close() {
+		synchronized (this) {
+			if (keepAlive != null) {
+				keepAlive.cancel(false);
+			}
+		}
+		for (SmtpRelay relay : relays) {
+			relay.getConnectionPool().close();
+		}
+	}
+
+	private static class KeepAlive {
+
+		static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable, "fluent-mail-keepalive");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+}
@@ -0,0 +1,168 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * Binary encoding of {@link Email} records stored in an {@link EmailSpool}.
+ * Strings are written as a length followed by UTF-8 bytes, with -1 standing
+ * for <b>null</b>. Attachments are stored as references to their files;
+ * streamed bodies and attachments read from streams cannot be spooled.
+ */
+class SpoolCodec {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final byte VERSION = 2;
+	private static final byte VERSION_WITHOUT_ATTACHMENTS = 1;
+
+	private SpoolCodec() {
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If the email has a streamed body or an attachment that is
+	 *             not a file.
+	 */
+	static byte[] encode(Email email) {
+		if (email.getBodySource() != null) {
+			throw new IllegalArgumentException("Streamed bodies cannot be spooled");
+		}
+		for (Attachment attachment : email.getAttachments()) {
+			if (attachment.getFile() == null) {
+				throw new IllegalArgumentException("Only file attachments can be spooled: "
+						+ attachment.getName());
+			}
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(estimateSize(email));
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(VERSION);
+			writeString(out, email.getFromAddress());
+			writeStrings(out, email.getToAddresses());
+			writeStrings(out, email.getCcAddresses());
+			writeStrings(out, email.getBccAddresses());
+			writeString(out, email.getSubject());
+			writeString(out, email.getBody());
+			writeString(out, email.getCharset());
+
+			Map<String, String> headers = email.getHeaders();
+			out.writeInt(headers.size());
+			for (Map.Entry<String, String> header : headers.entrySet()) {
+				writeString(out, header.getKey());
+				writeString(out, header.getValue());
+			}
+
+			List<Attachment> attachments = email.getAttachments();
+			out.writeInt(attachments.size());
+			for (Attachment attachment : attachments) {
+				writeString(out, attachment.getName());
+				writeString(out, attachment.getContentType());
+				writeString(out, attachment.getFile().toString());
+			}
+		} catch (IOException e) {
+			// Writing to memory does not fail.
+			throw new IllegalStateException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	static Email decode(ByteBuffer buffer) {
+		byte version = buffer.get();
+		if (version != VERSION && version != VERSION_WITHOUT_ATTACHMENTS) {
+			throw new IllegalStateException("Unknown spool record version: " + version);
+		}
+
+		String from = readString(buffer);
+		Set<String> to = readStrings(buffer);
+		Set<String> cc = readStrings(buffer);
+		Set<String> bcc = readStrings(buffer);
+		String subject = readString(buffer);
+		String body = readString(buffer);
+		String charset = readString(buffer);
+
+		int headerCount = buffer.getInt();
+		Map<String, String> headers = new LinkedHashMap<String, String>(headerCount * 2);
+		for (int i = 0; i < headerCount; i++) {
+			headers.put(readString(buffer), readString(buffer));
+		}
+
+		List<Attachment> attachments = new ArrayList<Attachment>();
+		if (version != VERSION_WITHOUT_ATTACHMENTS) {
+			int attachmentCount = buffer.getInt();
+			for (int i = 0; i < attachmentCount; i++) {
+				String name = readString(buffer);
+				String contentType = readString(buffer);
+				attachments.add(Attachment.file(Paths.get(readString(buffer)), name, contentType));
+			}
+		}
+
+		return new SpooledEmail(from, to, cc, bcc, subject, body, charset,
+				Collections.unmodifiableMap(headers), Collections.unmodifiableList(attachments));
+	}
+
+	private static int estimateSize(Email email) {
+		int size = 256;
+		if (email.getBody() != null) {
+			size += email.getBody().length();
+		}
+		return size;
+	}
+
+	private static void writeStrings(DataOutputStream out, Set<String> values) throws IOException {
+		out.writeInt(values.size());
+		for (String value : values) {
+			writeString(out, value);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static Set<String> readStrings(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		Set<String> values = new LinkedHashSet<String>(count * 2);
+		for (int i = 0; i < count; i++) {
+			values.add(readString(buffer));
+		}
+		return Collections.unmodifiableSet(values);
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		String value;
+		if (buffer.hasArray()) {
+			value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+			buffer.position(buffer.position() + length);
+		} else {
+			byte[] bytes = new byte[length];
+			buffer.get(bytes);
+			value = new String(bytes, UTF_8);
+		}
+		return value;
+	}
+}
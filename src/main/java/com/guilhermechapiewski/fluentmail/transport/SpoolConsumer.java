@@ -0,0 +1,224 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * Drains an {@link EmailSpool} through a {@link PostalService}. Entries are
+ * acknowledged only after the SMTP server accepted them; entries that failed
+ * transiently go back to the end of the spool and are retried after
+ * <i>retryDelayMillis</i>, up to <i>maxAttempts</i> attempts. When only some
+ * recipients were rejected transiently, a new entry for just those
+ * recipients is spooled before the original is acknowledged, so the others
+ * don't get the email twice.
+ * <p>
+ * Entries that can never be sent (a permanent failure, too many attempts, an
+ * attachment file gone, a record that no longer decodes) are acknowledged
+ * and, if a dead letter spool was given, parked there.
+ */
+public class SpoolConsumer implements Runnable {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+	private static final FailureClassifier failureClassifier = new FailureClassifier();
+
+	private final EmailSpool spool;
+	private final PostalService postalService;
+	private final long retryDelayMillis;
+	private final int maxAttempts;
+	private final EmailSpool deadLetters;
+
+	private volatile boolean running;
+	private Thread thread;
+
+	public SpoolConsumer(EmailSpool spool, PostalService postalService, long retryDelayMillis) {
+		this(spool, postalService, retryDelayMillis, DEFAULT_MAX_ATTEMPTS, null);
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            Attempts to send an entry, counting those of the entries it
+	 *            was spooled again from, before giving up on it.
+	 * @param deadLetters
+	 *            Where entries given up on are spooled, or <b>null</b> to
+	 *            just drop them.
+	 */
+	public SpoolConsumer(EmailSpool spool, PostalService postalService, long retryDelayMillis,
+			int maxAttempts, EmailSpool deadLetters) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts must be at least 1: " + maxAttempts);
+		}
+		this.spool = spool;
+		this.postalService = postalService;
+		this.retryDelayMillis = retryDelayMillis;
+		this.maxAttempts = maxAttempts;
+		this.deadLetters = deadLetters;
+	}
+
+	/**
+	 * Tries to send every entry currently waiting in the spool and due once.
+	 *
+	 * @return How many entries were sent.
+	 */
+	public int drain() {
+		int sent = 0;
+		int remaining = spool.size();
+		while (remaining-- > 0) {
+			SpoolEntry entry = spool.poll();
+			if (entry == null) {
+				break;
+			}
+			if (entry.getDelayMillis() > 0) {
+				spool.release(entry);
+			} else if (send(entry)) {
+				sent++;
+			}
+		}
+		return sent;
+	}
+
+	public void run() {
+		SpoolEntry firstDelayed = null;
+		while (running) {
+			try {
+				SpoolEntry entry = spool.poll(retryDelayMillis, TimeUnit.MILLISECONDS);
+				if (entry == null) {
+					continue;
+				}
+				long delay = entry.getDelayMillis();
+				if (delay == 0) {
+					firstDelayed = null;
+					send(entry);
+					continue;
+				}
+				spool.release(entry);
+				if (entry == firstDelayed) {
+					// Went around the whole spool without anything due.
+					firstDelayed = null;
+					Thread.sleep(delay);
+				} else if (firstDelayed == null) {
+					firstDelayed = entry;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	private boolean send(SpoolEntry entry) {
+		Email email;
+		try {
+			email = entry.getEmail();
+		} catch (RuntimeException e) {
+			giveUp(entry, null);
+			return false;
+		}
+		if (hasMissingAttachment(email)) {
+			giveUp(entry, email);
+			return false;
+		}
+
+		SendResult result;
+		try {
+			result = postalService.send(email);
+		} catch (Exception e) {
+			if (isTransient(e) && entry.failedAttempt() < maxAttempts) {
+				spool.release(entry, retryDelayMillis);
+			} else {
+				giveUp(entry, email);
+			}
+			return false;
+		}
+
+		List<String> unsent = result.getTransientlyRejectedRecipients();
+		if (!unsent.isEmpty()) {
+			Email rest = PersonalizedEmail.forRecipients(email, unsent);
+			int attempts = entry.getFailedAttempts() + 1;
+			try {
+				if (attempts < maxAttempts) {
+					spool.enqueue(rest, attempts, retryDelayMillis);
+				} else if (deadLetters != null) {
+					deadLetters.enqueue(rest);
+				}
+			} catch (Exception e) {
+				spool.release(entry, retryDelayMillis);
+				return false;
+			}
+		}
+		acknowledge(entry);
+		return true;
+	}
+
+	/**
+	 * Failures that escape {@link PostalService#send(Email)} unwrapped are
+	 * classified as they are; runtime ones carry the real failure as their
+	 * cause.
+	 */
+	private boolean isTransient(Exception e) {
+		Throwable cause = e.getCause();
+		Exception failure = e instanceof RuntimeException && cause instanceof Exception
+				? (Exception) cause : e;
+		return failureClassifier.classify(failure) == FailureClassifier.FailureType.TRANSIENT;
+	}
+
+	/**
+	 * Spooled attachments are only references to files, which may be gone by
+	 * the time the entry is sent.
+	 */
+	private boolean hasMissingAttachment(Email email) {
+		for (Attachment attachment : email.getAttachments()) {
+			if (attachment.getFile() != null && !Files.isReadable(attachment.getFile())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void giveUp(SpoolEntry entry, Email email) {
+		if (deadLetters != null && email != null) {
+			try {
+				deadLetters.enqueue(email);
+			} catch (Exception e) {
+				spool.release(entry, retryDelayMillis);
+				return;
+			}
+		}
+		acknowledge(entry);
+	}
+
+	private void acknowledge(SpoolEntry entry) {
+		try {
+			spool.acknowledge(entry);
+		} catch (Exception e) {
+			// At worst the entry is replayed after a restart.
+		}
+	}
+
+	/**
+	 * Starts draining the spool in a daemon thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "fluent-mail-spool-consumer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public synchronized void stop() throws InterruptedException {
+		if (thread == null) {
+			return;
+		}
+		running = false;
+		thread.interrupt();
+		thread.join();
+		thread = null;
+	}
+}
@@ -0,0 +1,79 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * An email waiting in an {@link EmailSpool}. The email is decoded from the
+ * journal only when asked for, so pending entries cost little memory.
+ * <p>
+ * Failed attempts and retry delays are kept in memory only: after a restart
+ * replayed entries start over with a clean slate.
+ */
+public class SpoolEntry {
+
+	private final long sequence;
+	private final SpoolSegment segment;
+	private final int payloadOffset;
+	private final int payloadLength;
+	private final AtomicBoolean acknowledged = new AtomicBoolean();
+	private final AtomicInteger failedAttempts = new AtomicInteger();
+	private volatile long notBeforeNanos = System.nanoTime();
+
+	SpoolEntry(long sequence, SpoolSegment segment, int payloadOffset, int payloadLength) {
+		this.sequence = sequence;
+		this.segment = segment;
+		this.payloadOffset = payloadOffset;
+		this.payloadLength = payloadLength;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public Email getEmail() {
+		return SpoolCodec.decode(segment.read(payloadOffset, payloadLength));
+	}
+
+	/**
+	 * @return Attempts to send this entry that failed so far.
+	 */
+	public int getFailedAttempts() {
+		return failedAttempts.get();
+	}
+
+	/**
+	 * @return Milliseconds left before this entry should be sent, or 0 if it
+	 *         is due.
+	 */
+	public long getDelayMillis() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(notBeforeNanos - System.nanoTime()));
+	}
+
+	int failedAttempt() {
+		return failedAttempts.incrementAndGet();
+	}
+
+	void setFailedAttempts(int attempts) {
+		failedAttempts.set(attempts);
+	}
+
+	void delay(long millis) {
+		notBeforeNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	SpoolSegment getSegment() {
+		return segment;
+	}
+
+	boolean isAcknowledged() {
+		return acknowledged.get();
+	}
+
+	void setAcknowledged() {
+		acknowledged.set(true);
+	}
+}
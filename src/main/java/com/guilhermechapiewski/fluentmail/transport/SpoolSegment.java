@@ -0,0 +1,173 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * One fixed-size, memory-mapped file of an {@link EmailSpool} journal.
+ * <p>
+ * Layout: an 8 byte header (magic and version) followed by records of
+ * <code>[int length][int crc32][byte type][long sequence][payload]</code>,
+ * where <i>length</i> covers type, sequence and payload. The length is
+ * written last, so a record whose length is still zero was never committed.
+ * The CRC catches records torn by a crash, since mapped pages may reach the
+ * disk in any order.
+ */
+class SpoolSegment {
+
+	static final byte TYPE_EMAIL = 1;
+	static final byte TYPE_ACK = 2;
+
+	static final int HEADER_SIZE = 8;
+	static final int RECORD_OVERHEAD = 4 + 4 + 1 + 8;
+
+	private static final int MAGIC = 0x464D5350;
+	private static final int VERSION = 1;
+
+	private final long id;
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final AtomicInteger liveEntries = new AtomicInteger();
+	private int writePosition;
+
+	private SpoolSegment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+		this.id = id;
+		this.path = path;
+		this.channel = channel;
+		this.buffer = buffer;
+	}
+
+	static SpoolSegment create(long id, Path path, int size) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.force();
+
+		SpoolSegment segment = new SpoolSegment(id, path, channel, buffer);
+		segment.writePosition = HEADER_SIZE;
+		return segment;
+	}
+
+	static SpoolSegment open(long id, Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+		if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+			channel.close();
+			throw new IOException("Not a spool segment: " + path);
+		}
+		if (buffer.getInt(4) != VERSION) {
+			channel.close();
+			throw new IOException("Unsupported spool segment version in " + path);
+		}
+		return new SpoolSegment(id, path, channel, buffer);
+	}
+
+	/**
+	 * Callback for {@link SpoolSegment#recover(RecordVisitor)}.
+	 */
+	interface RecordVisitor {
+		void visit(byte type, long sequence, int payloadOffset, int payloadLength);
+	}
+
+	/**
+	 * Visits every committed record and positions the segment for appending
+	 * right after the last one.
+	 */
+	void recover(RecordVisitor visitor) {
+		int position = HEADER_SIZE;
+		while (position + RECORD_OVERHEAD <= buffer.capacity()) {
+			int length = buffer.getInt(position);
+			if (length < 9 || position + 8 + length > buffer.capacity()) {
+				break;
+			}
+			int crc = buffer.getInt(position + 4);
+			if (crc != checksum(position + 8, length)) {
+				break;
+			}
+			byte type = buffer.get(position + 8);
+			long sequence = buffer.getLong(position + 9);
+			visitor.visit(type, sequence, position + RECORD_OVERHEAD, length - 9);
+			position += 8 + length;
+		}
+		writePosition = position;
+	}
+
+	boolean fits(int payloadLength) {
+		return writePosition + RECORD_OVERHEAD + payloadLength <= buffer.capacity();
+	}
+
+	/**
+	 * Appends a record. Callers serialize appends to the same segment.
+	 *
+	 * @return Offset of the record payload.
+	 */
+	int append(byte type, long sequence, byte[] payload) {
+		int position = writePosition;
+		int payloadOffset = position + RECORD_OVERHEAD;
+
+		buffer.put(position + 8, type);
+		buffer.putLong(position + 9, sequence);
+		ByteBuffer target = buffer.duplicate();
+		target.position(payloadOffset);
+		target.put(payload);
+
+		int length = 9 + payload.length;
+		buffer.putInt(position + 4, checksum(position + 8, length));
+		buffer.putInt(position, length);
+
+		writePosition = payloadOffset + payload.length;
+		return payloadOffset;
+	}
+
+	ByteBuffer read(int payloadOffset, int payloadLength) {
+		ByteBuffer payload = buffer.duplicate();
+		payload.position(payloadOffset);
+		payload.limit(payloadOffset + payloadLength);
+		return payload.slice();
+	}
+
+	void force() {
+		buffer.force();
+	}
+
+	long getId() {
+		return id;
+	}
+
+	AtomicInteger getLiveEntries() {
+		return liveEntries;
+	}
+
+	void close() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// Nothing left to flush, the mapping is forced before closing.
+		}
+	}
+
+	void delete() throws IOException {
+		close();
+		Files.deleteIfExists(path);
+	}
+
+	private int checksum(int offset, int length) {
+		CRC32 crc = new CRC32();
+		ByteBuffer region = buffer.duplicate();
+		region.position(offset);
+		region.limit(offset + length);
+		crc.update(region);
+		return (int) crc.getValue();
+	}
+}
@@ -0,0 +1,82 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.BodySource;
+import com.guilhermechapiewski.fluentmail.email.Email;
+
+/**
+ * Email read back from an {@link EmailSpool}.
+ */
+class SpooledEmail implements Email {
+
+	private final String fromAddress;
+	private final Set<String> toAddresses;
+	private final Set<String> ccAddresses;
+	private final Set<String> bccAddresses;
+	private final String subject;
+	private final String body;
+	private final String charset;
+	private final Map<String, String> headers;
+	private final List<Attachment> attachments;
+
+	SpooledEmail(String fromAddress, Set<String> toAddresses, Set<String> ccAddresses,
+			Set<String> bccAddresses, String subject, String body, String charset,
+			Map<String, String> headers, List<Attachment> attachments) {
+		this.fromAddress = fromAddress;
+		this.toAddresses = toAddresses;
+		this.ccAddresses = ccAddresses;
+		this.bccAddresses = bccAddresses;
+		this.subject = subject;
+		this.body = body;
+		this.charset = charset;
+		this.headers = headers;
+		this.attachments = attachments;
+	}
+
+	public String getFromAddress() {
+		return fromAddress;
+	}
+
+	public Set<String> getToAddresses() {
+		return toAddresses;
+	}
+
+	public Set<String> getCcAddresses() {
+		return ccAddresses;
+	}
+
+	public Set<String> getBccAddresses() {
+		return bccAddresses;
+	}
+
+	public String getSubject() {
+		return subject;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	/**
+	 * Streamed bodies are not spooled.
+	 */
+	public BodySource getBodySource() {
+		return null;
+	}
+
+	public String getCharset() {
+		return charset;
+	}
+
+	public Map<String, String> getHeaders() {
+		return headers;
+	}
+
+	public List<Attachment> getAttachments() {
+		return attachments;
+	}
+}
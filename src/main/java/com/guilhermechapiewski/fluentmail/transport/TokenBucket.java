@@ -0,0 +1,64 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, kept as the time at which the bucket would be
+ * empty again (the generic cell rate algorithm) so that taking a token is a
+ * single compare-and-set.
+ */
+class TokenBucket {
+
+	private final long intervalNanos;
+	private final long burstNanos;
+	private final AtomicLong theoreticalArrival;
+
+	/**
+	 * @param permitsPerSecond
+	 *            Sustained rate.
+	 * @param burst
+	 *            Tokens that can be taken at once after being idle.
+	 */
+	TokenBucket(double permitsPerSecond, int burst) {
+		if (permitsPerSecond <= 0) {
+			throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+		}
+		this.intervalNanos = Math.max(1, (long) (1000000000L / permitsPerSecond));
+		this.burstNanos = Math.max(1, burst) * intervalNanos;
+		this.theoreticalArrival = new AtomicLong(System.nanoTime());
+	}
+
+	/**
+	 * Takes a token, whether or not one is available now.
+	 * 
+	 * @return How long the caller has to wait before using the token, in
+	 *         nanoseconds.
+	 */
+	long reserve() {
+		long now = System.nanoTime();
+		while (true) {
+			long current = theoreticalArrival.get();
+			long next = (current - now > 0 ? current : now) + intervalNanos;
+			if (theoreticalArrival.compareAndSet(current, next)) {
+				return Math.max(0, next - now - burstNanos);
+			}
+		}
+	}
+
+	/**
+	 * @return How long until a token would be available, without taking it.
+	 */
+	long delay() {
+		long now = System.nanoTime();
+		long current = theoreticalArrival.get();
+		long next = (current - now > 0 ? current : now) + intervalNanos;
+		return Math.max(0, next - now - burstNanos);
+	}
+
+	/**
+	 * @return <b>true</b> if the bucket is full again, as if just created.
+	 */
+	boolean isIdle() {
+		return theoreticalArrival.get() - System.nanoTime() <= 0;
+	}
+}
@@ -0,0 +1,76 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Transports registered by name, e.g. one per tenant SMTP account. Each has
+ * its own configuration, session, connection pools and statistics, so
+ * tenants send concurrently without sharing anything. Looking a transport up
+ * doesn't lock.
+ * 
+ * <pre>
+ * Transports.register(&quot;acme&quot;, EmailTransportConfiguration.builder()
+ * 		.smtp(&quot;smtp.acme.com:587&quot;, true, false, &quot;acme&quot;, secret).build());
+ * 
+ * new EmailMessage().via(&quot;acme&quot;).from(...).to(...).send();
+ * </pre>
+ */
+public class Transports {
+
+	private static final ConcurrentMap<String, PostalService> transports = new ConcurrentHashMap<String, PostalService>();
+
+	/**
+	 * Registers a transport, replacing any other one registered under
+	 * <i>name</i>. The one replaced is closed and can no longer send.
+	 * 
+	 * @return The transport, which can also be used directly.
+	 */
+	public static PostalService register(String name, EmailTransportConfiguration config) {
+		PostalService postalService = new PostalService(config);
+		PostalService previous = transports.put(name, postalService);
+		if (previous != null) {
+			previous.retire();
+		}
+		return postalService;
+	}
+
+	/**
+	 * @return The transport registered under <i>name</i>, or null.
+	 */
+	static PostalService find(String name) {
+		return transports.get(name);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             If no transport is registered under <i>name</i>.
+	 */
+	public static PostalService get(String name) {
+		PostalService postalService = transports.get(name);
+		if (postalService == null) {
+			throw new IllegalArgumentException("No transport registered as " + name);
+		}
+		return postalService;
+	}
+
+	/**
+	 * Removes a transport and closes its connections. It can no longer send.
+	 * 
+	 * @return <b>false</b> if no transport was registered under <i>name</i>.
+	 */
+	public static boolean unregister(String name) {
+		PostalService postalService = transports.remove(name);
+		if (postalService == null) {
+			return false;
+		}
+		postalService.retire();
+		return true;
+	}
+
+	public static Set<String> getNames() {
+		return Collections.unmodifiableSet(transports.keySet());
+	}
+}
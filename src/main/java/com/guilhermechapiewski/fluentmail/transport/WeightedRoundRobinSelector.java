@@ -0,0 +1,34 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Smooth weighted round-robin: a relay with weight 3 gets three sends out of
+ * every four next to one with weight 1, interleaved rather than in bursts.
+ */
+public class WeightedRoundRobinSelector implements RelaySelector {
+
+	private final Map<SmtpRelay, Integer> currentWeights = new IdentityHashMap<SmtpRelay, Integer>();
+
+	public synchronized SmtpRelay select(List<SmtpRelay> candidates) {
+		SmtpRelay selected = null;
+		int selectedWeight = Integer.MIN_VALUE;
+		int totalWeight = 0;
+
+		for (SmtpRelay relay : candidates) {
+			Integer current = currentWeights.get(relay);
+			int weight = (current == null ? 0 : current) + relay.getWeight();
+			currentWeights.put(relay, weight);
+			totalWeight += relay.getWeight();
+			if (weight > selectedWeight) {
+				selected = relay;
+				selectedWeight = weight;
+			}
+		}
+
+		currentWeights.put(selected, selectedWeight - totalWeight);
+		return selected;
+	}
+}
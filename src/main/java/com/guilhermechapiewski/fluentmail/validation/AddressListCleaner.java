@@ -0,0 +1,191 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Cleans large address lists, one address per line, before a campaign.
+ * Addresses are normalized (surrounding whitespace and display names
+ * dropped, lower case), validated in parallel and deduplicated, then handed
+ * to an {@link AddressSink} as valid or invalid with a reason.
+ * <p>
+ * Input is read in chunks of <i>chunkSize</i> lines; each chunk is split
+ * across the fork/join pool and emitted in input order before the next one
+ * is read, so memory stays flat whatever the list size. Duplicates are
+ * detected by a 64-bit hash of the normalized address, costing 8 bytes per
+ * distinct address. Blank lines are skipped.
+ */
+public class AddressListCleaner {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	private static final int SEQUENTIAL_THRESHOLD = 1024;
+
+	private final EmailAddressValidator validator;
+	private final ForkJoinPool pool;
+	private final int chunkSize;
+
+	public AddressListCleaner() {
+		this(new EmailAddressValidator(), ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+	}
+
+	public AddressListCleaner(EmailAddressValidator validator, ForkJoinPool pool, int chunkSize) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size must be positive");
+		}
+		this.validator = validator;
+		this.pool = pool;
+		this.chunkSize = chunkSize;
+	}
+
+	public CleaningReport clean(Reader input, AddressSink sink) throws IOException {
+		BufferedReader reader = input instanceof BufferedReader ? (BufferedReader) input
+				: new BufferedReader(input);
+		CleaningReport report = new CleaningReport();
+		LongHashSet seen = new LongHashSet();
+
+		String[] lines = new String[chunkSize];
+		String[] normalized = new String[chunkSize];
+		AddressValidationResult[] results = new AddressValidationResult[chunkSize];
+
+		while (true) {
+			int count = 0;
+			String line;
+			while (count < chunkSize && (line = reader.readLine()) != null) {
+				if (line.trim().length() > 0) {
+					lines[count++] = line;
+				}
+			}
+			if (count == 0) {
+				break;
+			}
+
+			pool.invoke(new ValidateChunk(lines, normalized, results, 0, count));
+
+			for (int i = 0; i < count; i++) {
+				if (!results[i].isValid()) {
+					report.countInvalid(results[i]);
+					sink.invalid(lines[i], results[i]);
+				} else if (seen.add(hash64(normalized[i]))) {
+					report.countValid();
+					sink.valid(normalized[i]);
+				} else {
+					report.countDuplicate();
+				}
+				lines[i] = null;
+				normalized[i] = null;
+			}
+		}
+		return report;
+	}
+
+	/**
+	 * Cleans a file into a file of valid addresses and a file of invalid
+	 * lines, each followed by a tab and the reason.
+	 */
+	public CleaningReport clean(Path input, Path validOutput, Path invalidOutput, Charset charset)
+			throws IOException {
+		Reader reader = Files.newBufferedReader(input, charset);
+		try {
+			final Writer valid = Files.newBufferedWriter(validOutput, charset);
+			try {
+				final Writer invalid = Files.newBufferedWriter(invalidOutput, charset);
+				try {
+					return clean(reader, new AddressSink() {
+						public void valid(String address) throws IOException {
+							valid.write(address);
+							valid.write('\n');
+						}
+
+						public void invalid(String line, AddressValidationResult reason)
+								throws IOException {
+							invalid.write(line);
+							invalid.write('\t');
+							invalid.write(reason.name());
+							invalid.write('\n');
+						}
+					});
+				} finally {
+					invalid.close();
+				}
+			} finally {
+				valid.close();
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Drops surrounding whitespace and any display name, and lower-cases the
+	 * address. Only called on valid input.
+	 */
+	static String normalize(String line) {
+		String address = line.trim();
+		if (address.endsWith(">")) {
+			address = address.substring(address.lastIndexOf('<') + 1, address.length() - 1).trim();
+		}
+		return address.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * FNV-1a over the UTF-16 chars, with a final avalanche so similar
+	 * addresses spread over the whole range.
+	 */
+	static long hash64(String s) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++) {
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private class ValidateChunk extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String[] lines;
+		private final String[] normalized;
+		private final AddressValidationResult[] results;
+		private final int from;
+		private final int to;
+
+		ValidateChunk(String[] lines, String[] normalized, AddressValidationResult[] results,
+				int from, int to) {
+			this.lines = lines;
+			this.normalized = normalized;
+			this.results = results;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= SEQUENTIAL_THRESHOLD) {
+				for (int i = from; i < to; i++) {
+					results[i] = validator.check(lines[i]);
+					if (results[i].isValid()) {
+						normalized[i] = normalize(lines[i]);
+					}
+				}
+				return;
+			}
+			int middle = (from + to) >>> 1;
+			invokeAll(new ValidateChunk(lines, normalized, results, from, middle),
+					new ValidateChunk(lines, normalized, results, middle, to));
+		}
+	}
+}
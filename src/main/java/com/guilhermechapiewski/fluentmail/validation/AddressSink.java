@@ -0,0 +1,22 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+import java.io.IOException;
+
+/**
+ * Receives the partitions produced by {@link AddressListCleaner}, in input
+ * order and on the thread that called it.
+ */
+public interface AddressSink {
+
+	/**
+	 * @param address
+	 *            Normalized address, seen for the first time.
+	 */
+	void valid(String address) throws IOException;
+
+	/**
+	 * @param line
+	 *            The input line as read.
+	 */
+	void invalid(String line, AddressValidationResult reason) throws IOException;
+}
@@ -0,0 +1,31 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+/**
+ * Verdict of {@link EmailAddressValidator#check(String)}: either
+ * {@link #VALID} or the reason the address was rejected.
+ */
+public enum AddressValidationResult {
+
+	VALID,
+	NULL,
+	EMPTY,
+	/** Longer than the 254 characters that fit in an SMTP path. */
+	ADDRESS_TOO_LONG,
+	/** Text before <code>&lt;address&gt;</code> is not a valid phrase. */
+	INVALID_DISPLAY_NAME,
+	MISSING_AT,
+	EMPTY_LOCAL_PART,
+	/** Local part longer than 64 characters. */
+	LOCAL_PART_TOO_LONG,
+	INVALID_LOCAL_PART,
+	EMPTY_DOMAIN,
+	/** Domain longer than 253 characters or with a label over 63. */
+	DOMAIN_TOO_LONG,
+	INVALID_DOMAIN,
+	/** Rejected by javax.mail, which gives no finer reason. */
+	INVALID_SYNTAX;
+
+	public boolean isValid() {
+		return this == VALID;
+	}
+}
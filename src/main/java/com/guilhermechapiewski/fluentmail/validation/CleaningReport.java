@@ -0,0 +1,71 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Counts of an {@link AddressListCleaner} run.
+ */
+public class CleaningReport {
+
+	private long total;
+	private long valid;
+	private long duplicates;
+	private final Map<AddressValidationResult, Long> invalid = new EnumMap<AddressValidationResult, Long>(
+			AddressValidationResult.class);
+
+	void countValid() {
+		total++;
+		valid++;
+	}
+
+	void countDuplicate() {
+		total++;
+		duplicates++;
+	}
+
+	void countInvalid(AddressValidationResult reason) {
+		total++;
+		Long count = invalid.get(reason);
+		invalid.put(reason, count == null ? 1 : count + 1);
+	}
+
+	/**
+	 * @return Non-blank lines read.
+	 */
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * @return Distinct valid addresses.
+	 */
+	public long getValid() {
+		return valid;
+	}
+
+	/**
+	 * @return Valid addresses dropped because they were already seen.
+	 */
+	public long getDuplicates() {
+		return duplicates;
+	}
+
+	public long getInvalid() {
+		return total - valid - duplicates;
+	}
+
+	/**
+	 * @return How many lines were rejected for each reason.
+	 */
+	public Map<AddressValidationResult, Long> getInvalidByReason() {
+		return Collections.unmodifiableMap(invalid);
+	}
+
+	@Override
+	public String toString() {
+		return "total=" + total + ", valid=" + valid + ", duplicates=" + duplicates + ", invalid="
+				+ invalid;
+	}
+}
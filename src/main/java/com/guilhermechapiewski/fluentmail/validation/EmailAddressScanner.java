@@ -0,0 +1,223 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+import static com.guilhermechapiewski.fluentmail.validation.AddressValidationResult.*;
+
+/**
+ * Single-pass scanner for RFC 5322 addresses, with the UTF-8 local parts and
+ * domains of RFC 6531. It walks the string by index and returns a constant,
+ * so validating garbage costs no more than validating a good address: no
+ * exceptions, no allocation.
+ * <p>
+ * Accepts <code>local@domain</code> and
+ * <code>Display Name &lt;local@domain&gt;</code>, where the local part is a
+ * dot-atom or a quoted string and the domain a dot-atom or a domain literal.
+ * Comments and obsolete syntax are not supported.
+ */
+final class EmailAddressScanner {
+
+	static final int MAX_ADDRESS_LENGTH = 254;
+	static final int MAX_LOCAL_PART_LENGTH = 64;
+	static final int MAX_DOMAIN_LENGTH = 253;
+	static final int MAX_LABEL_LENGTH = 63;
+
+	private EmailAddressScanner() {
+	}
+
+	static AddressValidationResult scan(String address) {
+		if (address == null) {
+			return NULL;
+		}
+
+		int start = 0;
+		int end = address.length();
+		while (start < end && isWhitespace(address.charAt(start))) {
+			start++;
+		}
+		while (end > start && isWhitespace(address.charAt(end - 1))) {
+			end--;
+		}
+		if (start == end) {
+			return EMPTY;
+		}
+
+		if (address.charAt(end - 1) == '>') {
+			int open = address.lastIndexOf('<', end - 1);
+			if (open < start || !isPhrase(address, start, open)) {
+				return INVALID_DISPLAY_NAME;
+			}
+			start = open + 1;
+			end = end - 1;
+			if (start == end) {
+				return EMPTY;
+			}
+		}
+
+		return scanAddrSpec(address, start, end);
+	}
+
+	private static AddressValidationResult scanAddrSpec(String s, int start, int end) {
+		if (end - start > MAX_ADDRESS_LENGTH) {
+			return ADDRESS_TOO_LONG;
+		}
+
+		int i = start;
+		if (s.charAt(i) == '"') {
+			i = skipQuotedString(s, i, end);
+			if (i == -1) {
+				return INVALID_LOCAL_PART;
+			}
+			if (i < end && s.charAt(i) != '@') {
+				return INVALID_LOCAL_PART;
+			}
+		} else {
+			boolean afterDot = true;
+			while (i < end && s.charAt(i) != '@') {
+				char c = s.charAt(i);
+				if (c == '.') {
+					if (afterDot) {
+						return INVALID_LOCAL_PART;
+					}
+					afterDot = true;
+				} else if (isAtext(c)) {
+					afterDot = false;
+				} else {
+					return INVALID_LOCAL_PART;
+				}
+				i++;
+			}
+			if (i == start) {
+				return i < end ? EMPTY_LOCAL_PART : EMPTY;
+			}
+			if (afterDot) {
+				return INVALID_LOCAL_PART;
+			}
+		}
+
+		if (i == end) {
+			return MISSING_AT;
+		}
+		if (i - start > MAX_LOCAL_PART_LENGTH) {
+			return LOCAL_PART_TOO_LONG;
+		}
+		return scanDomain(s, i + 1, end);
+	}
+
+	private static AddressValidationResult scanDomain(String s, int start, int end) {
+		if (start == end) {
+			return EMPTY_DOMAIN;
+		}
+		if (end - start > MAX_DOMAIN_LENGTH) {
+			return DOMAIN_TOO_LONG;
+		}
+
+		if (s.charAt(start) == '[') {
+			if (end - start < 3 || s.charAt(end - 1) != ']') {
+				return INVALID_DOMAIN;
+			}
+			for (int i = start + 1; i < end - 1; i++) {
+				char c = s.charAt(i);
+				if (c <= ' ' || c == '[' || c == ']' || c == '\\' || c == 127) {
+					return INVALID_DOMAIN;
+				}
+			}
+			return VALID;
+		}
+
+		int labelStart = start;
+		for (int i = start; i <= end; i++) {
+			if (i == end || s.charAt(i) == '.') {
+				int length = i - labelStart;
+				if (length == 0) {
+					return INVALID_DOMAIN;
+				}
+				if (length > MAX_LABEL_LENGTH) {
+					return DOMAIN_TOO_LONG;
+				}
+				labelStart = i + 1;
+			} else if (!isAtext(s.charAt(i))) {
+				return INVALID_DOMAIN;
+			}
+		}
+		return VALID;
+	}
+
+	/**
+	 * @return Index right after the closing quote, or -1 if the quoted string
+	 *         is malformed.
+	 */
+	private static int skipQuotedString(String s, int i, int end) {
+		i++;
+		while (i < end) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				return i + 1;
+			}
+			if (c == '\\') {
+				if (i + 1 == end || isControl(s.charAt(i + 1)) && s.charAt(i + 1) != '\t') {
+					return -1;
+				}
+				i += 2;
+				continue;
+			}
+			if (!isQtext(c) && c != ' ' && c != '\t') {
+				return -1;
+			}
+			i++;
+		}
+		return -1;
+	}
+
+	/**
+	 * Display names are words (atoms or quoted strings) separated by spaces.
+	 * Dots are allowed too, as in the common "John Q. Public".
+	 */
+	private static boolean isPhrase(String s, int start, int end) {
+		int i = start;
+		while (i < end) {
+			char c = s.charAt(i);
+			if (c == '"') {
+				i = skipQuotedString(s, i, end);
+				if (i == -1) {
+					return false;
+				}
+			} else if (isAtext(c) || c == '.' || isWhitespace(c)) {
+				i++;
+			} else {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * RFC 5322 atext, plus any non-ASCII character (RFC 6531).
+	 */
+	private static boolean isAtext(char c) {
+		if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9') {
+			return true;
+		}
+		switch (c) {
+		case '!': case '#': case '$': case '%': case '&': case '\'': case '*': case '+':
+		case '-': case '/': case '=': case '?': case '^': case '_': case '`': case '{':
+		case '|': case '}': case '~':
+			return true;
+		default:
+			return c >= 0x80 && !isControl(c);
+		}
+	}
+
+	private static boolean isQtext(char c) {
+		if (c >= 0x80) {
+			return !isControl(c);
+		}
+		return c == 33 || c >= 35 && c <= 91 || c >= 93 && c <= 126;
+	}
+
+	private static boolean isControl(char c) {
+		return c < 32 || c >= 127 && c < 160;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t';
+	}
+}
@@ -5,6 +5,37 @@ import javax.mail.internet.InternetAddress;
 
 public class EmailAddressValidator {
 
+	/**
+	 * How addresses are checked.
+	 */
+	public enum Mode {
+		/** Hand-written RFC 5322/6531 scanner. No exceptions, no allocation. */
+		SCANNER,
+		/**
+		 * Strict javax.mail {@link InternetAddress} parsing, as in previous
+		 * versions. Much slower on invalid input, kept for compatibility.
+		 */
+		INTERNET_ADDRESS
+	}
+
+	private final Mode mode;
+	private final ValidationCache cache;
+
+	public EmailAddressValidator() {
+		this(Mode.SCANNER, 0);
+	}
+
+	/**
+	 * @param cacheSize
+	 *            How many recent verdicts to remember, or 0 for no cache.
+	 *            Worth it when the same addresses are validated over and
+	 *            over.
+	 */
+	public EmailAddressValidator(Mode mode, int cacheSize) {
+		this.mode = mode;
+		this.cache = cacheSize > 0 ? new ValidationCache(cacheSize) : null;
+	}
+
 	/**
 	 * Checks if an e-mail address is valid.
 	 * 
@@ -13,18 +44,56 @@ public class EmailAddressValidator {
 	 * @return <b>true</b> if the address is valid, <b>false</b> otherwise.
 	 */
 	public boolean validate(String emailAddress) {
+		return check(emailAddress).isValid();
+	}
+
+	/**
+	 * Checks an e-mail address and tells why it is invalid.
+	 */
+	public AddressValidationResult check(String emailAddress) {
 		if (emailAddress == null) {
-			return false;
+			return AddressValidationResult.NULL;
+		}
+		if (cache == null) {
+			return uncachedCheck(emailAddress);
 		}
 
+		AddressValidationResult result = cache.get(emailAddress);
+		if (result == null) {
+			result = uncachedCheck(emailAddress);
+			cache.put(emailAddress, result);
+		}
+		return result;
+	}
+
+	public Mode getMode() {
+		return mode;
+	}
+
+	/**
+	 * @return How many checks were answered from the cache.
+	 */
+	public long getCacheHits() {
+		return cache == null ? 0 : cache.getHits();
+	}
+
+	public long getCacheMisses() {
+		return cache == null ? 0 : cache.getMisses();
+	}
+
+	private AddressValidationResult uncachedCheck(String emailAddress) {
+		if (mode == Mode.SCANNER) {
+			return EmailAddressScanner.scan(emailAddress);
+		}
+
+		if (emailAddress.length() == 0) {
+			return AddressValidationResult.EMPTY;
+		}
 		try {
-			// Validate using Java Mail API
-			// Don't know if this is the best way, but it's good enough for now
 			new InternetAddress(emailAddress, true);
 		} catch (AddressException e) {
-			return false;
+			return AddressValidationResult.INVALID_SYNTAX;
 		}
-
-		return true;
+		return AddressValidationResult.VALID;
 	}
 }
@@ -0,0 +1,60 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+/**
+ * Open-addressing set of longs, 8 bytes per entry instead of a String and a
+ * map node. Zero is stored out of band so it can mark empty slots.
+ */
+class LongHashSet {
+
+	private long[] slots = new long[1024];
+	private int size;
+	private boolean containsZero;
+
+	/**
+	 * @return <b>true</b> if the value was not in the set yet.
+	 */
+	boolean add(long value) {
+		if (value == 0) {
+			if (containsZero) {
+				return false;
+			}
+			containsZero = true;
+			return true;
+		}
+		if (size * 2 >= slots.length) {
+			grow();
+		}
+		if (!insert(slots, value)) {
+			return false;
+		}
+		size++;
+		return true;
+	}
+
+	int size() {
+		return size + (containsZero ? 1 : 0);
+	}
+
+	private static boolean insert(long[] table, long value) {
+		int mask = table.length - 1;
+		int i = (int) (value ^ (value >>> 32)) & mask;
+		while (table[i] != 0) {
+			if (table[i] == value) {
+				return false;
+			}
+			i = (i + 1) & mask;
+		}
+		table[i] = value;
+		return true;
+	}
+
+	private void grow() {
+		long[] table = new long[slots.length * 2];
+		for (long value : slots) {
+			if (value != 0) {
+				insert(table, value);
+			}
+		}
+		slots = table;
+	}
+}
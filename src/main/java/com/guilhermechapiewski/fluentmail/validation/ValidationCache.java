@@ -0,0 +1,69 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size, lock-free cache of recent verdicts. Each address maps to one
+ * slot by hash and a newer verdict simply overwrites whatever was there, so
+ * the cache never grows and readers never block.
+ */
+class ValidationCache {
+
+	private final AtomicReferenceArray<Entry> slots;
+	private final int mask;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param size
+	 *            Number of slots, rounded up to a power of two.
+	 */
+	ValidationCache(int size) {
+		int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+		this.slots = new AtomicReferenceArray<Entry>(capacity);
+		this.mask = capacity - 1;
+	}
+
+	AddressValidationResult get(String address) {
+		Entry entry = slots.get(slot(address));
+		if (entry != null && entry.address.equals(address)) {
+			hits.incrementAndGet();
+			return entry.result;
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	void put(String address, AddressValidationResult result) {
+		slots.set(slot(address), new Entry(address, result));
+	}
+
+	int size() {
+		return slots.length();
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	private int slot(String address) {
+		int h = address.hashCode();
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	private static class Entry {
+
+		final String address;
+		final AddressValidationResult result;
+
+		Entry(String address, AddressValidationResult result) {
+			this.address = address;
+			this.result = result;
+		}
+	}
+}
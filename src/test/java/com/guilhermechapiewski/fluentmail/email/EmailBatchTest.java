@@ -0,0 +1,69 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+import com.guilhermechapiewski.fluentmail.validation.IncompleteEmailException;
+import com.guilhermechapiewski.fluentmail.validation.InvalidEmailAddressException;
+
+/**
+ * Tests to {@link EmailBatch}.
+ */
+public class EmailBatchTest {
+
+	Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
+
+	@After
+	public void cleanup() {
+		EmailMessage.setPostalService(new PostalService());
+	}
+
+	@Test
+	public void should_report_invalid_emails_and_send_the_rest() {
+		final PostalService postalService = context.mock(PostalService.class);
+		EmailMessage.setPostalService(postalService);
+
+		final EmailBuilder valid = new EmailMessage().from("a@a.com").to("b@b.com")
+				.withSubject("subject").withBody("body");
+		EmailBuilder incomplete = new EmailMessage().from("a@a.com").to("b@b.com");
+		EmailBuilder invalid = new EmailMessage().from("a@a.com").to("not an address")
+				.withSubject("subject").withBody("body");
+
+		final SendResult sent = SendResult.success((Email) valid);
+
+		context.checking(new Expectations() {
+			{
+				one(postalService).sendAll(Arrays.asList((EmailMessage) valid));
+				will(returnValue(Arrays.asList(sent)));
+			}
+		});
+
+		List<SendResult> results = new EmailBatch().add(incomplete, valid, invalid).send();
+
+		assertEquals("Should return one result per email", 3, results.size());
+		assertFalse("Should not send incomplete email", results.get(0).isSuccessful());
+		assertTrue("Should report missing info",
+				results.get(0).getFailure() instanceof IncompleteEmailException);
+		assertSame("Should keep results in order", sent, results.get(1));
+		assertTrue("Should report invalid address",
+				results.get(2).getFailure() instanceof InvalidEmailAddressException);
+		context.assertIsSatisfied();
+	}
+}
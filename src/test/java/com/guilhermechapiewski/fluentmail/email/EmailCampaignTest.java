@@ -0,0 +1,64 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+import com.guilhermechapiewski.fluentmail.validation.InvalidEmailAddressException;
+
+/**
+ * Tests to {@link EmailCampaign}.
+ */
+public class EmailCampaignTest {
+
+	Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
+
+	@After
+	public void cleanup() {
+		EmailMessage.setPostalService(new PostalService());
+	}
+
+	@Test
+	public void should_report_invalid_recipients_and_send_to_the_rest() {
+		final PostalService postalService = context.mock(PostalService.class);
+		EmailMessage.setPostalService(postalService);
+
+		EmailBuilder template = new EmailMessage().from("a@a.com").withSubject("subject")
+				.withBody("body");
+		final SendResult first = SendResult.success(new EmailMessage());
+		final SendResult second = SendResult.success(new EmailMessage());
+
+		context.checking(new Expectations() {
+			{
+				one(postalService).sendCampaign(with(any(Email.class)),
+						with(equal(Arrays.asList("b@b.com", "c@c.com"))));
+				will(returnValue(Arrays.asList(first, second)));
+			}
+		});
+
+		List<SendResult> results = new EmailCampaign(template).to("b@b.com", "not an address",
+				"c@c.com").send();
+
+		assertEquals("Should return one result per recipient", 3, results.size());
+		assertSame(first, results.get(0));
+		assertTrue("Should report invalid address",
+				results.get(1).getFailure() instanceof InvalidEmailAddressException);
+		assertSame("Should keep results in order", second, results.get(2));
+		context.assertIsSatisfied();
+	}
+}
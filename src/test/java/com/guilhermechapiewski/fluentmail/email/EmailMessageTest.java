@@ -4,10 +4,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
@@ -16,6 +21,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.transport.SendDispatcher;
+import com.guilhermechapiewski.fluentmail.transport.SendDispatcher.RejectionPolicy;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
 import com.guilhermechapiewski.fluentmail.validation.EmailAddressValidator;
 import com.guilhermechapiewski.fluentmail.validation.IncompleteEmailException;
 
@@ -319,4 +327,84 @@ public class EmailMessageTest {
 		assertEquals("Should contain header.", "text/plain", headers.get("Content-type"));
 		assertEquals("Should contain header.", "8BIT", headers.get("Content-transfer-encoding"));
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void should_send_snapshot_asynchronously() throws Exception {
+		final List<Email> sent = new ArrayList<Email>();
+		final List<Runnable> scheduled = new ArrayList<Runnable>();
+
+		EmailMessage.setPostalService(new PostalService() {
+			@Override
+			public SendResult send(Email email) {
+				sent.add(email);
+				return SendResult.success(email);
+			}
+		});
+		EmailMessage.setSendDispatcher(new SendDispatcher(new Executor() {
+			public void execute(Runnable command) {
+				scheduled.add(command);
+			}
+		}, 10, RejectionPolicy.ABORT));
+
+		try {
+			EmailBuilder builder = new EmailMessage().from("a@a.com").to("b@b.com")
+					.withSubject("subject").withBody("body");
+			CompletableFuture<SendResult> future = builder.sendAsync();
+
+			builder.to("c@c.com").withSubject("changed");
+			scheduled.get(0).run();
+
+			assertTrue("Should send successfully", future.get().isSuccessful());
+			assertEquals("Should send one email", 1, sent.size());
+			assertEquals("Should send original recipients", 1, sent.get(0).getToAddresses().size());
+			assertEquals("Should send original subject", "subject", sent.get(0).getSubject());
+		} finally {
+			EmailMessage.setSendDispatcher(null);
+		}
+	}
+
+	@Test
+	public void should_build_immutable_snapshot() throws Exception {
+		EmailBuilder builder = new EmailMessage().from("a@a.com").to("b@b.com")
+				.withSubject("subject").withBody("body").addHeaders("X-Campaign", "spring");
+		Email email = builder.build();
+
+		builder.to("c@c.com").withSubject("changed").addHeaders("X-Campaign", "summer");
+
+		assertEquals("Should keep original recipients", 1, email.getToAddresses().size());
+		assertTrue("Should keep original recipients", email.getToAddresses().contains("b@b.com"));
+		assertEquals("Should keep original subject", "subject", email.getSubject());
+		assertEquals("Should keep original headers", "spring", email.getHeaders().get("X-Campaign"));
+
+		try {
+			email.getToAddresses().add("d@d.com");
+			fail("Should not allow changing recipients");
+		} catch (UnsupportedOperationException expected) {
+		}
+		try {
+			email.getHeaders().put("X-Other", "value");
+			fail("Should not allow changing headers");
+		} catch (UnsupportedOperationException expected) {
+		}
+	}
+
+	@Test(expected = IncompleteEmailException.class)
+	public void should_validate_when_building() throws Exception {
+		new EmailMessage().from("a@a.com").withSubject("subject").withBody("body").build();
+	}
+
+	@Test
+	public void should_copy_builder_from_prototype() throws Exception {
+		Email prototype = new EmailMessage().from("a@a.com").to("b@b.com")
+				.withSubject("subject").withBody("body").build();
+
+		EmailBuilder first = EmailMessage.copyOf(prototype).to("c@c.com");
+		EmailBuilder second = first.copy().withSubject("other");
+
+		assertEquals("Should not change prototype", 1, prototype.getToAddresses().size());
+		assertEquals("Should add to copy", 2, first.build().getToAddresses().size());
+		assertEquals("Should keep subject of original", "subject", first.build().getSubject());
+		assertEquals("Should change subject of copy", "other", second.build().getSubject());
+		assertEquals("Should keep body", "body", second.build().getBody());
+	}
+}
@@ -0,0 +1,74 @@
+package com.guilhermechapiewski.fluentmail.email;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests to {@link Template} and {@link TemplateCache}.
+ */
+public class TemplateTest {
+
+	@Test
+	public void should_render_placeholders() {
+		Template template = Template.compile("Hi ${name}, you owe $$${amount}.");
+
+		Map<String, Object> values = new HashMap<String, Object>();
+		values.put("name", "John");
+		values.put("amount", 10);
+
+		assertEquals("Hi John, you owe $10.", template.render(values));
+		assertEquals(2, template.getPlaceholders().length);
+	}
+
+	@Test
+	public void should_fail_on_missing_value_or_malformed_placeholder() {
+		try {
+			Template.compile("Hi ${name}").render(new HashMap<String, Object>());
+			fail("Should require a value for every placeholder");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+
+		try {
+			Template.compile("Hi ${name");
+			fail("Should not compile an unclosed placeholder");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void should_apply_subject_and_body_to_email() {
+		MailTemplate template = MailTemplate.compile("Welcome, ${name}", "Hi ${name}!");
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("name", "John");
+
+		Email email = (Email) template.applyTo(new EmailMessage(), values);
+
+		assertEquals("Welcome, John", email.getSubject());
+		assertEquals("Hi John!", email.getBody());
+	}
+
+	@Test
+	public void should_cache_compiled_templates_and_evict_least_recently_used() {
+		TemplateCache cache = new TemplateCache(2);
+
+		Template first = cache.get("first", "${a}");
+		cache.get("second", "${b}");
+		assertSame("Should reuse compiled template", first, cache.get("first", "${a}"));
+
+		cache.get("third", "${c}");
+
+		assertEquals(2, cache.size());
+		assertNull("Should evict least recently used", cache.get("second"));
+		assertNotSame("Should recompile changed source", first, cache.get("first", "${a}!"));
+	}
+}
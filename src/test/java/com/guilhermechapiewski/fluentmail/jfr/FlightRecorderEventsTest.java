@@ -0,0 +1,100 @@
+package com.guilhermechapiewski.fluentmail.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+import com.guilhermechapiewski.fluentmail.transport.EmailTransportConfiguration;
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.validation.EmailAddressValidator;
+
+public class FlightRecorderEventsTest {
+
+	static final EmailTransportConfiguration config = new EmailTransportConfiguration();
+
+	SmtpSinkServer server;
+	String smtpServer;
+	boolean authenticationRequired;
+	boolean secure;
+	String username;
+	String password;
+
+	@Before
+	public void setup() throws Exception {
+		smtpServer = config.getSmtpServer();
+		authenticationRequired = config.isAuthenticationRequired();
+		secure = config.useSecureSmtp();
+		username = config.getUsername();
+		password = config.getPassword();
+
+		server = new SmtpSinkServer();
+		EmailTransportConfiguration.configure(server.getAddress(), false, false, null, null);
+		EmailMessage.setEmailAddressValidator(new EmailAddressValidator());
+		EmailMessage.setPostalService(new PostalService());
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		server.close();
+		EmailTransportConfiguration.configure(smtpServer, authenticationRequired, secure,
+				username, password);
+	}
+
+	@Test
+	public void should_emit_an_event_for_each_phase_of_a_send() throws Exception {
+		File file = File.createTempFile("fluent-mail", ".jfr");
+		Recording recording = new Recording();
+		try {
+			recording.enable(ValidationEvent.class);
+			recording.enable(MessageBuildEvent.class);
+			recording.enable(ConnectionAcquireEvent.class);
+			recording.enable(SmtpConnectEvent.class);
+			recording.enable(DataTransferEvent.class);
+			recording.start();
+
+			new EmailMessage().from("from.john@doe.com").to("to.john@doe.com", "to.jane@doe.com")
+					.withSubject("subject").withBody("body").send();
+
+			recording.stop();
+			recording.dump(file.toPath());
+		} finally {
+			recording.close();
+		}
+
+		Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+		List<RecordedEvent> recorded = RecordingFile.readAllEvents(file.toPath());
+		for (RecordedEvent event : recorded) {
+			events.put(event.getEventType().getName(), event);
+		}
+		file.delete();
+
+		assertNotNull(events.get("com.guilhermechapiewski.fluentmail.Validation"));
+		assertNotNull(events.get("com.guilhermechapiewski.fluentmail.MessageBuild"));
+		assertEquals(server.getAddress(), events.get(
+				"com.guilhermechapiewski.fluentmail.ConnectionAcquire").getString("relay"));
+		assertTrue(events.get("com.guilhermechapiewski.fluentmail.SmtpConnect").getBoolean(
+				"success"));
+
+		RecordedEvent transfer = events.get("com.guilhermechapiewski.fluentmail.DataTransfer");
+		assertEquals(server.getAddress(), transfer.getString("relay"));
+		assertEquals(2, transfer.getInt("recipients"));
+		assertEquals("SUCCESS", transfer.getString("outcome"));
+		assertNotNull(transfer.getString("messageId"));
+		assertTrue("Should record the message size", transfer.getLong("size") > 0);
+	}
+}
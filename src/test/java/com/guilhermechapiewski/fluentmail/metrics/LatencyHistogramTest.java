@@ -0,0 +1,62 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void should_compute_percentiles_within_bucket_precision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long i = 1; i <= 100000; i++) {
+			histogram.record(i * 1000);
+		}
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(100000, snapshot.getCount());
+		assertEquals(100000000, snapshot.getMax());
+		assertEquals(50000500, snapshot.getMean(), 1);
+		assertClose(50000000, snapshot.getP50());
+		assertClose(99000000, snapshot.getP99());
+		assertClose(99900000, snapshot.getP999());
+		assertEquals(100000000, snapshot.getPercentile(100));
+	}
+
+	@Test
+	public void should_keep_small_values_exact() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		histogram.record(3);
+		histogram.record(7);
+		histogram.record(-5);
+
+		HistogramSnapshot snapshot = histogram.snapshot();
+		assertEquals(0, snapshot.getPercentile(0));
+		assertEquals(3, snapshot.getP50());
+		assertEquals(7, snapshot.getP99());
+	}
+
+	@Test
+	public void should_map_every_value_to_a_bucket_covering_it() {
+		long[] values = { 0, 31, 32, 33, 63, 64, 1000, 123456789, Long.MAX_VALUE };
+		for (long value : values) {
+			int bucket = LatencyHistogram.bucketOf(value);
+			assertTrue(value + " above its bucket", value <= LatencyHistogram.highestValueOf(bucket));
+			assertTrue(value + " below its bucket", bucket == 0
+					|| value > LatencyHistogram.highestValueOf(bucket - 1));
+		}
+	}
+
+	@Test
+	public void should_report_zero_when_empty() {
+		HistogramSnapshot snapshot = new LatencyHistogram().snapshot();
+		assertEquals(0, snapshot.getCount());
+		assertEquals(0, snapshot.getP99());
+	}
+
+	private void assertClose(long expected, long actual) {
+		assertTrue("Expected about " + expected + " but was " + actual,
+				Math.abs(actual - expected) <= expected * 0.04);
+	}
+}
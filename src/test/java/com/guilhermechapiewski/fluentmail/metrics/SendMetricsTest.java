@@ -0,0 +1,98 @@
+package com.guilhermechapiewski.fluentmail.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+import com.guilhermechapiewski.fluentmail.transport.EmailTransportConfiguration;
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.validation.EmailAddressValidator;
+import com.guilhermechapiewski.fluentmail.validation.InvalidEmailAddressException;
+
+public class SendMetricsTest {
+
+	static final EmailTransportConfiguration config = new EmailTransportConfiguration();
+
+	SmtpSinkServer server;
+	SendMetrics metrics;
+	String smtpServer;
+	boolean authenticationRequired;
+	boolean secure;
+	String username;
+	String password;
+
+	@Before
+	public void setup() throws Exception {
+		smtpServer = config.getSmtpServer();
+		authenticationRequired = config.isAuthenticationRequired();
+		secure = config.useSecureSmtp();
+		username = config.getUsername();
+		password = config.getPassword();
+
+		server = new SmtpSinkServer();
+		metrics = new SendMetrics();
+		EmailTransportConfiguration.configure(server.getAddress(), false, false, null, null);
+		EmailTransportConfiguration.configureMetrics(metrics);
+		EmailMessage.setEmailAddressValidator(new EmailAddressValidator());
+		EmailMessage.setPostalService(new PostalService());
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		server.close();
+		EmailTransportConfiguration.configure(smtpServer, authenticationRequired, secure,
+				username, password);
+		EmailTransportConfiguration.configureMetrics(null);
+	}
+
+	@Test
+	public void should_record_every_phase_of_a_send() {
+		new EmailMessage().from("from.john@doe.com").to("to.john@doe.com").withSubject("subject")
+				.withBody("body").send();
+
+		List<PhaseStatistics> statistics = metrics.snapshot();
+		assertEquals(5, statistics.size());
+		SendPhase[] phases = SendPhase.values();
+		for (int i = 0; i < phases.length; i++) {
+			assertEquals(phases[i], statistics.get(i).getPhase());
+			assertEquals(SendOutcome.SUCCESS, statistics.get(i).getOutcome());
+			assertEquals(1, statistics.get(i).getCount());
+		}
+		assertNull(statistics.get(0).getRelay());
+		assertEquals(server.getAddress(), statistics.get(3).getRelay());
+		assertEquals(server.getAddress(), statistics.get(4).getRelay());
+	}
+
+	@Test
+	public void should_record_failed_phase() {
+		try {
+			new EmailMessage().from("from.john@doe.com").to("not an address").withSubject("subject")
+					.withBody("body").send();
+		} catch (InvalidEmailAddressException e) {
+			// expected
+		}
+
+		List<PhaseStatistics> statistics = metrics.snapshot();
+		assertEquals(2, statistics.size());
+		assertEquals(SendPhase.VALIDATE_ADDRESSES, statistics.get(1).getPhase());
+		assertEquals(SendOutcome.FAILURE, statistics.get(1).getOutcome());
+	}
+
+	@Test
+	public void should_merge_outcomes_of_a_phase() {
+		metrics.record(SendPhase.SEND_MESSAGE, "relay1", SendOutcome.SUCCESS, 1000);
+		metrics.record(SendPhase.SEND_MESSAGE, "relay2", SendOutcome.FAILURE, 3000);
+		metrics.record(SendPhase.CONNECT, "relay1", SendOutcome.SUCCESS, 9000);
+
+		HistogramSnapshot sendMessage = metrics.snapshot(SendPhase.SEND_MESSAGE);
+		assertEquals(2, sendMessage.getCount());
+		assertEquals(3000, sendMessage.getMax());
+	}
+}
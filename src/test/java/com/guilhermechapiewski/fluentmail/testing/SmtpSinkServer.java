@@ -0,0 +1,661 @@
+package com.guilhermechapiewski.fluentmail.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process SMTP server that accepts mail and throws it away, for
+ * integration and load tests without a real relay.
+ * <p>
+ * A single selector thread serves every connection. Pipelined commands are
+ * answered in one write, and message data is scanned in place for the end
+ * marker without being copied unless a {@link MessageListener} is set.
+ * Supports EHLO/HELO, AUTH PLAIN, MAIL, RCPT, DATA, BDAT, RSET, NOOP and
+ * QUIT.
+ * <p>
+ * Replies can be delayed by a fixed latency and any reply can be replaced
+ * with {@link #injectReply(String, String, int)}, e.g. to make RCPT answer
+ * 450 or the end of DATA answer 554.
+ */
+public class SmtpSinkServer implements Closeable {
+
+	/** Verb to inject the greeting sent on connect. */
+	public static final String GREETING = "CONNECT";
+
+	/**
+	 * Verb to inject the reply to the end of message data, sent with DATA or
+	 * as the last BDAT chunk.
+	 */
+	public static final String END_OF_DATA = ".";
+
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+	private static final int MAX_LINE_LENGTH = 4096;
+
+	/**
+	 * Receives each message when it is complete, on the server thread.
+	 */
+	public interface MessageListener {
+		void messageReceived(String from, List<String> recipients, byte[] data);
+	}
+
+	private final Selector selector;
+	private final ServerSocketChannel serverChannel;
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	private volatile long latencyMillis;
+	private volatile String username;
+	private volatile String password;
+	private volatile MessageListener listener;
+	private final Map<String, Injection> injections = new ConcurrentHashMap<String, Injection>();
+	private final ArrayDeque<PendingReply> delayed = new ArrayDeque<PendingReply>();
+
+	private final AtomicLong connections = new AtomicLong();
+	private final AtomicLong messages = new AtomicLong();
+	private final AtomicLong recipients = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final Map<String, AtomicLong> commands = new ConcurrentHashMap<String, AtomicLong>();
+
+	/**
+	 * Starts listening on an ephemeral port of the loopback interface.
+	 */
+	public SmtpSinkServer() throws IOException {
+		this(0);
+	}
+
+	public SmtpSinkServer(int port) throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.socket().setReuseAddress(true);
+		serverChannel.socket().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+				1024);
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				loop();
+			}
+		}, "smtp-sink-server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public int getPort() {
+		return serverChannel.socket().getLocalPort();
+	}
+
+	/**
+	 * @return <code>host:port</code>, as expected by
+	 *         EmailTransportConfiguration.
+	 */
+	public String getAddress() {
+		return "127.0.0.1:" + getPort();
+	}
+
+	/**
+	 * Delays every reply by <i>millis</i>, simulating a remote relay.
+	 */
+	public void setLatencyMillis(long millis) {
+		this.latencyMillis = millis;
+	}
+
+	/**
+	 * Requires AUTH PLAIN with these credentials. By default any client is
+	 * accepted with or without authentication.
+	 */
+	public void setCredentials(String username, String password) {
+		this.username = username;
+		this.password = password;
+	}
+
+	public void setMessageListener(MessageListener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * Answers the next <i>times</i> commands with verb <i>verb</i> (e.g.
+	 * "RCPT", {@link #END_OF_DATA} or {@link #GREETING}) with <i>reply</i>
+	 * instead of the normal reply.
+	 *
+	 * @param times
+	 *            How many commands to answer this way, or -1 for all of them.
+	 */
+	public void injectReply(String verb, String reply, int times) {
+		injections.put(verb.toUpperCase(Locale.ROOT), new Injection(reply, times));
+	}
+
+	public void clearInjectedReplies() {
+		injections.clear();
+	}
+
+	public long getConnectionCount() {
+		return connections.get();
+	}
+
+	public long getMessageCount() {
+		return messages.get();
+	}
+
+	/**
+	 * @return Recipients accepted across all messages.
+	 */
+	public long getRecipientCount() {
+		return recipients.get();
+	}
+
+	/**
+	 * @return Message data bytes received.
+	 */
+	public long getByteCount() {
+		return bytes.get();
+	}
+
+	/**
+	 * @return How many commands with verb <i>verb</i> were received, e.g.
+	 *         "BDAT".
+	 */
+	public long getCommandCount(String verb) {
+		AtomicLong count = commands.get(verb.toUpperCase(Locale.ROOT));
+		return count == null ? 0 : count.get();
+	}
+
+	public void close() throws IOException {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void loop() {
+		try {
+			while (running) {
+				long timeout = 0;
+				PendingReply next = delayed.peekFirst();
+				if (next != null) {
+					timeout = Math.max(1, next.due - System.currentTimeMillis());
+				}
+				selector.select(timeout);
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) {
+							continue;
+						}
+						if (key.isAcceptable()) {
+							accept();
+						} else {
+							Session session = (Session) key.attachment();
+							if (key.isReadable()) {
+								session.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								session.flush();
+							}
+						}
+					} catch (IOException e) {
+						close(key);
+					}
+				}
+
+				sendDueReplies();
+			}
+		} catch (IOException e) {
+			// Selector failed, shut down.
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				close(key);
+			}
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// Ignore.
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+			Session session = new Session(key, channel);
+			key.attach(session);
+			connections.incrementAndGet();
+			session.reply(GREETING, "220 localhost ESMTP sink");
+			session.flush();
+		}
+	}
+
+	private void sendDueReplies() {
+		long now = System.currentTimeMillis();
+		while (!delayed.isEmpty() && delayed.peekFirst().due <= now) {
+			PendingReply reply = delayed.pollFirst();
+			try {
+				reply.session.output(reply.text);
+				reply.session.flush();
+			} catch (IOException e) {
+				close(reply.session.key);
+			}
+		}
+	}
+
+	private void close(SelectionKey key) {
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// Ignore.
+		}
+	}
+
+	private class Session {
+
+		final SelectionKey key;
+		final SocketChannel channel;
+		ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+		ByteBuffer out = ByteBuffer.allocate(4 * 1024);
+
+		boolean authenticated;
+		boolean awaitingAuth;
+		boolean inData;
+		boolean quitting;
+		int dataState;
+		long chunkRemaining = -1;
+		boolean lastChunk;
+		String from;
+		List<String> to = new ArrayList<String>();
+		ByteArrayOutputStream data;
+
+		Session(SelectionKey key, SocketChannel channel) {
+			this.key = key;
+			this.channel = channel;
+		}
+
+		void read() throws IOException {
+			if (!in.hasRemaining()) {
+				in = grow(in, in.capacity() * 2);
+			}
+			int read = channel.read(in);
+			if (read == -1) {
+				throw new IOException("Connection closed");
+			}
+			in.flip();
+			process();
+			in.compact();
+			flush();
+		}
+
+		void process() throws IOException {
+			while (in.hasRemaining() || chunkRemaining == 0) {
+				if (inData) {
+					scanData();
+					continue;
+				}
+				if (chunkRemaining >= 0) {
+					readChunk();
+					continue;
+				}
+				int end = findLineEnd();
+				if (end == -1) {
+					if (in.remaining() > MAX_LINE_LENGTH) {
+						throw new IOException("Line too long");
+					}
+					return;
+				}
+				byte[] line = new byte[end - in.position()];
+				in.get(line);
+				in.get();
+				int length = line.length;
+				if (length > 0 && line[length - 1] == '\r') {
+					length--;
+				}
+				command(new String(line, 0, length, ASCII));
+				if (quitting) {
+					return;
+				}
+			}
+		}
+
+		private int findLineEnd() {
+			for (int i = in.position(); i < in.limit(); i++) {
+				if (in.get(i) == '\n') {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Looks for CRLF.CRLF byte by byte. States: 0 mid-line, 1 after CR,
+		 * 2 at line start, 3 after a leading dot, 4 after dot and CR.
+		 */
+		private void scanData() throws IOException {
+			int start = in.position();
+			try {
+				scanData(in);
+			} finally {
+				bytes.addAndGet(in.position() - start);
+			}
+		}
+
+		private void scanData(ByteBuffer in) throws IOException {
+			while (in.hasRemaining()) {
+				byte b = in.get();
+				switch (dataState) {
+				case 0:
+					dataState = b == '\r' ? 1 : 0;
+					capture(b);
+					break;
+				case 1:
+					dataState = b == '\n' ? 2 : b == '\r' ? 1 : 0;
+					capture(b);
+					break;
+				case 2:
+					if (b == '.') {
+						dataState = 3;
+					} else {
+						dataState = b == '\r' ? 1 : 0;
+						capture(b);
+					}
+					break;
+				case 3:
+					if (b == '\r') {
+						dataState = 4;
+					} else {
+						// Dot-stuffed line: the leading dot is dropped.
+						dataState = 0;
+						capture(b);
+					}
+					break;
+				default:
+					if (b == '\n') {
+						endOfData();
+						return;
+					}
+					capture((byte) '\r');
+					dataState = b == '\r' ? 1 : 0;
+					capture(b);
+				}
+			}
+		}
+
+		/**
+		 * Takes the bytes of a BDAT chunk as they are.
+		 */
+		private void readChunk() throws IOException {
+			int length = (int) Math.min(chunkRemaining, in.remaining());
+			if (data != null) {
+				data.write(in.array(), in.arrayOffset() + in.position(), length);
+			}
+			in.position(in.position() + length);
+			bytes.addAndGet(length);
+			chunkRemaining -= length;
+			if (chunkRemaining > 0) {
+				return;
+			}
+			chunkRemaining = -1;
+			if (to.isEmpty()) {
+				reply("BDAT", "554 5.5.1 No valid recipients");
+				resetTransaction();
+			} else if (lastChunk) {
+				endOfMessage();
+			} else {
+				reply("BDAT", "250 2.0.0 OK chunk received");
+			}
+		}
+
+		private void capture(byte b) {
+			if (data != null) {
+				data.write(b);
+			}
+		}
+
+		private void endOfData() throws IOException {
+			inData = false;
+			endOfMessage();
+		}
+
+		private void endOfMessage() throws IOException {
+			if (reply(END_OF_DATA, "250 2.0.0 OK queued")) {
+				messages.incrementAndGet();
+				recipients.addAndGet(to.size());
+				MessageListener current = listener;
+				if (current != null) {
+					current.messageReceived(from, new ArrayList<String>(to), data.toByteArray());
+				}
+			}
+			resetTransaction();
+		}
+
+		private void command(String line) throws IOException {
+			if (awaitingAuth) {
+				awaitingAuth = false;
+				authenticate(line);
+				return;
+			}
+
+			int space = line.indexOf(' ');
+			String verb = (space == -1 ? line : line.substring(0, space)).toUpperCase(Locale.ROOT);
+			String argument = space == -1 ? "" : line.substring(space + 1).trim();
+			AtomicLong count = commands.get(verb);
+			if (count == null) {
+				commands.putIfAbsent(verb, new AtomicLong());
+				count = commands.get(verb);
+			}
+			count.incrementAndGet();
+
+			if (verb.equals("EHLO")) {
+				resetTransaction();
+				reply(verb, "250-localhost\r\n250-PIPELINING\r\n250-8BITMIME\r\n250-CHUNKING\r\n"
+						+ "250-SIZE 0\r\n250-AUTH PLAIN\r\n250 ENHANCEDSTATUSCODES");
+			} else if (verb.equals("HELO")) {
+				resetTransaction();
+				reply(verb, "250 localhost");
+			} else if (verb.equals("AUTH")) {
+				if (!argument.toUpperCase(Locale.ROOT).startsWith("PLAIN")) {
+					reply(verb, "504 5.5.4 Unrecognized authentication type");
+				} else if (argument.length() > 5) {
+					authenticate(argument.substring(5).trim());
+				} else {
+					awaitingAuth = true;
+					output("334 \r\n");
+				}
+			} else if (verb.equals("MAIL")) {
+				if (username != null && !authenticated) {
+					reply(verb, "530 5.7.0 Authentication required");
+				} else if (reply(verb, "250 2.1.0 OK")) {
+					from = address(argument);
+					to.clear();
+				}
+			} else if (verb.equals("RCPT")) {
+				if (from == null) {
+					reply(verb, "503 5.5.1 Need MAIL first");
+				} else if (reply(verb, "250 2.1.5 OK")) {
+					to.add(address(argument));
+				}
+			} else if (verb.equals("DATA")) {
+				if (to.isEmpty()) {
+					reply(verb, "554 5.5.1 No valid recipients");
+				} else if (reply(verb, "354 End data with <CR><LF>.<CR><LF>")) {
+					inData = true;
+					dataState = 2;
+					data = listener == null ? null : new ByteArrayOutputStream();
+				}
+			} else if (verb.equals("BDAT")) {
+				String[] words = argument.split(" +");
+				chunkRemaining = Long.parseLong(words[0]);
+				lastChunk = words.length > 1 && words[1].equalsIgnoreCase("LAST");
+				if (data == null && listener != null) {
+					data = new ByteArrayOutputStream();
+				}
+			} else if (verb.equals("RSET")) {
+				resetTransaction();
+				reply(verb, "250 2.0.0 OK");
+			} else if (verb.equals("NOOP")) {
+				reply(verb, "250 2.0.0 OK");
+			} else if (verb.equals("QUIT")) {
+				reply(verb, "221 2.0.0 Bye");
+				quitting = true;
+			} else {
+				reply(verb, "500 5.5.2 Command not recognized");
+			}
+		}
+
+		private void authenticate(String response) throws IOException {
+			boolean valid;
+			try {
+				String[] parts = new String(Base64.getDecoder().decode(response), "UTF-8")
+						.split("\u0000", -1);
+				valid = parts.length == 3
+						&& (username == null || username.equals(parts[1])
+								&& password.equals(parts[2]));
+			} catch (IllegalArgumentException e) {
+				valid = false;
+			}
+			if (valid) {
+				if (reply("AUTH", "235 2.7.0 Authentication successful")) {
+					authenticated = true;
+				}
+			} else {
+				reply("AUTH", "535 5.7.8 Authentication credentials invalid");
+			}
+		}
+
+		private void resetTransaction() {
+			from = null;
+			to.clear();
+			data = null;
+		}
+
+		private String address(String argument) {
+			int open = argument.indexOf('<');
+			int close = argument.indexOf('>', open + 1);
+			return open == -1 || close == -1 ? argument : argument.substring(open + 1, close);
+		}
+
+		/**
+		 * Queues the reply to a command, or the injected one if any.
+		 *
+		 * @return <b>true</b> if the normal reply was sent, i.e. the command
+		 *         succeeded.
+		 */
+		boolean reply(String verb, String normal) throws IOException {
+			String text = normal;
+			Injection injection = injections.get(verb);
+			if (injection != null) {
+				String injected = injection.take();
+				if (injected != null) {
+					text = injected;
+				}
+			}
+
+			long latency = latencyMillis;
+			if (latency > 0) {
+				delayed.addLast(new PendingReply(this, text + "\r\n", System.currentTimeMillis()
+						+ latency));
+			} else {
+				output(text + "\r\n");
+			}
+			return text == normal;
+		}
+
+		void output(String text) {
+			byte[] encoded = text.getBytes(ASCII);
+			if (out.remaining() < encoded.length) {
+				out = grow(out, Math.max(out.capacity() * 2, out.position() + encoded.length));
+			}
+			out.put(encoded);
+		}
+
+		void flush() throws IOException {
+			if (!key.isValid()) {
+				return;
+			}
+			out.flip();
+			channel.write(out);
+			boolean pending = out.hasRemaining();
+			out.compact();
+
+			if (pending) {
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			} else if (quitting && delayed.isEmpty()) {
+				close(key);
+			} else {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+
+		private ByteBuffer grow(ByteBuffer buffer, int capacity) {
+			ByteBuffer bigger = ByteBuffer.allocate(capacity);
+			buffer.flip();
+			bigger.put(buffer);
+			return bigger;
+		}
+	}
+
+	private static class PendingReply {
+
+		final Session session;
+		final String text;
+		final long due;
+
+		PendingReply(Session session, String text, long due) {
+			this.session = session;
+			this.text = text;
+			this.due = due;
+		}
+	}
+
+	private static class Injection {
+
+		final String reply;
+		final AtomicInteger remaining;
+
+		Injection(String reply, int times) {
+			this.reply = reply;
+			this.remaining = new AtomicInteger(times);
+		}
+
+		/**
+		 * @return The injected reply, or <b>null</b> if it was used up.
+		 */
+		String take() {
+			while (true) {
+				int current = remaining.get();
+				if (current == 0) {
+					return null;
+				}
+				if (current < 0 || remaining.compareAndSet(current, current - 1)) {
+					return reply;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.guilhermechapiewski.fluentmail.testing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.transport.EmailTransportConfiguration;
+import com.guilhermechapiewski.fluentmail.transport.PostalService;
+import com.guilhermechapiewski.fluentmail.transport.SendResult;
+
+/**
+ * Tests to {@link SmtpSinkServer}, also exercising {@link PostalService}
+ * against a real SMTP conversation.
+ */
+public class SmtpSinkServerTest {
+
+	static final EmailTransportConfiguration config = new EmailTransportConfiguration();
+
+	SmtpSinkServer server;
+	String smtpServer;
+	boolean authenticationRequired;
+	boolean secure;
+	String username;
+	String password;
+	int retryMaxAttempts;
+	long retryInitialBackoff;
+	long retryMaxBackoff;
+	double retryJitter;
+
+	@Before
+	public void setup() throws Exception {
+		smtpServer = config.getSmtpServer();
+		authenticationRequired = config.isAuthenticationRequired();
+		secure = config.useSecureSmtp();
+		username = config.getUsername();
+		password = config.getPassword();
+		retryMaxAttempts = config.getRetryMaxAttempts();
+		retryInitialBackoff = config.getRetryInitialBackoffMillis();
+		retryMaxBackoff = config.getRetryMaxBackoffMillis();
+		retryJitter = config.getRetryJitter();
+
+		server = new SmtpSinkServer();
+		EmailTransportConfiguration.configure(server.getAddress(), false, false, null, null);
+		EmailTransportConfiguration.configureRetry(3, 0, 0, 0);
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		server.close();
+		EmailTransportConfiguration.configure(smtpServer, authenticationRequired, secure,
+				username, password);
+		EmailTransportConfiguration.configureRetry(retryMaxAttempts, retryInitialBackoff,
+				retryMaxBackoff, retryJitter);
+	}
+
+	@Test
+	public void should_receive_messages_sent_by_postal_service() throws Exception {
+		final List<String> received = new ArrayList<String>();
+		server.setMessageListener(new SmtpSinkServer.MessageListener() {
+			public void messageReceived(String from, List<String> recipients, byte[] data) {
+				received.add(from + " -> " + recipients + "\n" + new String(data));
+			}
+		});
+
+		new PostalService().send(email("to.john@doe.com"));
+
+		assertEquals(1, server.getMessageCount());
+		assertTrue(received.get(0).startsWith("from.john@doe.com -> [to.john@doe.com]"));
+		assertTrue("Should receive the content", received.get(0).contains("Subject: subject"));
+	}
+
+	@Test
+	public void should_retry_recipient_rejected_with_injected_reply() throws Exception {
+		server.injectReply("RCPT", "450 4.2.1 Mailbox busy", 1);
+
+		SendResult result = new PostalService().send((Email) new EmailMessage().from(
+				"from.john@doe.com").to("busy@doe.com").withSubject("subject").withBody("body"));
+
+		assertTrue("Should deliver on retry", result.isSuccessful());
+		assertEquals(Arrays.asList("busy@doe.com"), result.getAcceptedRecipients());
+		assertEquals(1, server.getMessageCount());
+	}
+
+	@Test
+	public void should_answer_pipelined_commands_and_authenticate() throws Exception {
+		server.setCredentials("john", "doe");
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					"US-ASCII"));
+			OutputStream out = socket.getOutputStream();
+			assertTrue(in.readLine().startsWith("220"));
+
+			out.write(("EHLO test\r\nAUTH PLAIN AGpvaG4AZG9l\r\nMAIL FROM:<a@doe.com>\r\n"
+					+ "RCPT TO:<b@doe.com>\r\nDATA\r\n").getBytes("US-ASCII"));
+			String line;
+			while ((line = in.readLine()).startsWith("250-")) {
+				// EHLO capabilities.
+			}
+			assertTrue(line.startsWith("250 "));
+			assertTrue(in.readLine().startsWith("235"));
+			assertTrue(in.readLine().startsWith("250"));
+			assertTrue(in.readLine().startsWith("250"));
+			assertTrue(in.readLine().startsWith("354"));
+
+			out.write("Subject: hi\r\n\r\n..dot stuffed\r\n.\r\nQUIT\r\n".getBytes("US-ASCII"));
+			assertTrue(in.readLine().startsWith("250"));
+			assertTrue(in.readLine().startsWith("221"));
+		} finally {
+			socket.close();
+		}
+
+		assertEquals(1, server.getMessageCount());
+		assertEquals(1, server.getRecipientCount());
+	}
+
+	@Test
+	public void should_delay_replies() throws Exception {
+		server.setLatencyMillis(100);
+		Socket socket = new Socket("127.0.0.1", server.getPort());
+		try {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+					"US-ASCII"));
+			in.readLine();
+
+			long start = System.currentTimeMillis();
+			socket.getOutputStream().write("NOOP\r\n".getBytes("US-ASCII"));
+			assertTrue(in.readLine().startsWith("250"));
+			assertTrue("Should wait for the latency", System.currentTimeMillis() - start >= 90);
+		} finally {
+			socket.close();
+		}
+	}
+
+	private Email email(String to) {
+		return (Email) new EmailMessage().from("from.john@doe.com").to(to).withSubject("subject")
+				.withBody("body");
+	}
+}
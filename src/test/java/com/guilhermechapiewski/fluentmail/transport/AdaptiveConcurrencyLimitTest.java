@@ -0,0 +1,71 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import javax.mail.MessagingException;
+
+import org.junit.Test;
+
+/**
+ * Tests to {@link AdaptiveConcurrencyLimit}.
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+	static final long MILLIS = 1000000;
+
+	@Test
+	public void should_raise_limit_while_latency_stays_low() throws Exception {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 10, 0.9, 2);
+
+		for (int i = 0; i < 20; i++) {
+			limit.acquire(0);
+			limit.acquire(0);
+			limit.release(10 * MILLIS, false);
+			limit.release(10 * MILLIS, false);
+		}
+
+		assertTrue("Should have raised the limit: " + limit.getLimit(), limit.getLimit() > 2);
+		assertEquals(0, limit.getInFlight());
+	}
+
+	@Test
+	public void should_cut_limit_when_relay_throttles() throws Exception {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 2, 10, 0.5, 2);
+
+		limit.acquire(0);
+		limit.release(10 * MILLIS, true);
+		assertEquals(5, limit.getLimit());
+
+		limit.overloaded();
+		limit.overloaded();
+		assertEquals("Should not go below the minimum", 2, limit.getLimit());
+	}
+
+	@Test
+	public void should_cut_limit_when_latency_grows() throws Exception {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 10, 0.5, 2);
+
+		limit.acquire(0);
+		limit.release(10 * MILLIS, false);
+		assertEquals(10, limit.getLimit());
+
+		limit.acquire(0);
+		limit.release(30 * MILLIS, false);
+		assertEquals(5, limit.getLimit());
+	}
+
+	@Test
+	public void should_time_out_when_all_slots_are_taken() throws Exception {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 10, 0.9, 2);
+		limit.acquire(0);
+
+		try {
+			limit.acquire(10);
+			fail("Should have timed out");
+		} catch (MessagingException e) {
+			assertEquals(1, limit.getInFlight());
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.transport.CircuitBreaker.State;
+
+/**
+ * Tests to {@link CircuitBreaker}.
+ */
+public class CircuitBreakerTest {
+
+	long now = 0;
+
+	CircuitBreaker circuitBreaker = new CircuitBreaker("smtp.server.com", 2, 1000) {
+		@Override
+		protected long currentTimeMillis() {
+			return now;
+		}
+	};
+
+	@Test
+	public void should_open_after_consecutive_failures() {
+		circuitBreaker.recordFailure();
+		assertTrue("Should still allow sends", circuitBreaker.allowRequest());
+
+		circuitBreaker.recordFailure();
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		assertFalse("Should fail fast", circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void should_reset_failures_on_success() {
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordSuccess();
+		circuitBreaker.recordFailure();
+
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+	}
+
+	@Test
+	public void should_let_a_single_probe_through_after_open_period() {
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordFailure();
+		now = 1000;
+
+		assertTrue("Should allow a probe", circuitBreaker.allowRequest());
+		assertEquals(State.HALF_OPEN, circuitBreaker.getState());
+		assertFalse("Should allow only one probe", circuitBreaker.allowRequest());
+
+		circuitBreaker.recordSuccess();
+		assertEquals(State.CLOSED, circuitBreaker.getState());
+	}
+
+	@Test
+	public void should_let_another_probe_through_when_one_is_aborted() {
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordFailure();
+		now = 1000;
+		circuitBreaker.allowRequest();
+
+		circuitBreaker.recordAborted();
+
+		assertEquals("Should not close", State.HALF_OPEN, circuitBreaker.getState());
+		assertTrue("Should allow another probe", circuitBreaker.allowRequest());
+	}
+
+	@Test
+	public void should_reopen_when_probe_fails() {
+		circuitBreaker.recordFailure();
+		circuitBreaker.recordFailure();
+		now = 1000;
+
+		circuitBreaker.allowRequest();
+		circuitBreaker.recordFailure();
+
+		assertEquals(State.OPEN, circuitBreaker.getState());
+		now = 1500;
+		assertFalse("Should fail fast again", circuitBreaker.allowRequest());
+	}
+}
@@ -0,0 +1,112 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+
+/**
+ * Tests to {@link ConfigurationWatcher}.
+ */
+public class ConfigurationWatcherTest {
+
+	SmtpSinkServer before;
+	SmtpSinkServer after;
+	Path directory;
+	Path file;
+	ConfigurationWatcher watcher;
+
+	@Before
+	public void setup() throws Exception {
+		before = new SmtpSinkServer();
+		after = new SmtpSinkServer();
+		directory = Files.createTempDirectory("fluent-mail-config");
+		file = directory.resolve("fluent-mail-api.properties");
+		write("smtp.server=" + before.getAddress());
+		watcher = ConfigurationWatcher.watch(file, "tenant");
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		watcher.close();
+		Transports.unregister("tenant");
+		before.close();
+		after.close();
+		for (File created : directory.toFile().listFiles()) {
+			created.delete();
+		}
+		Files.delete(directory);
+	}
+
+	@Test
+	public void should_send_through_new_relay_after_the_file_changes() throws Exception {
+		send();
+		write("smtp.server=" + after.getAddress() + "\nretry.max.attempts=1");
+		awaitReloads(2);
+		send();
+
+		assertEquals("Should send to the relay configured first", 1, before.getMessageCount());
+		assertEquals("Should send to the relay configured next", 1, after.getMessageCount());
+		assertEquals("Should apply the other settings", 1, Transports.get("tenant")
+				.getConfiguration().getRetryMaxAttempts());
+	}
+
+	@Test
+	public void should_keep_the_relays_of_the_transport_when_they_do_not_change()
+			throws Exception {
+		PostalService postalService = Transports.get("tenant");
+		send();
+		write("smtp.server=" + before.getAddress() + "\nretry.max.attempts=1");
+		awaitReloads(2);
+		send();
+
+		assertSame("Should keep the transport", postalService, Transports.get("tenant"));
+		assertEquals("Should apply the other settings", 1, postalService.getConfiguration()
+				.getRetryMaxAttempts());
+		assertEquals("Should keep the statistics of the relay", 2, postalService
+				.getRelayStatistics().get(0).getSent());
+		assertEquals("Should keep the connection", 1, before.getConnectionCount());
+	}
+
+	@Test
+	public void should_keep_configuration_when_the_file_is_invalid() throws Exception {
+		write("pool.max.total=4");
+		long deadline = System.currentTimeMillis() + 10000;
+		while (watcher.getLastFailure() == null && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+
+		assertNotNull("Should report the failure", watcher.getLastFailure());
+		assertEquals("Should keep the relay", before.getAddress(), Transports.get("tenant")
+				.getConfiguration().getSmtpServer());
+	}
+
+	private void send() {
+		new EmailMessage().via("tenant").from("from@doe.com").to("to@doe.com")
+				.withSubject("subject").withBody("body").send();
+	}
+
+	private void write(String properties) throws Exception {
+		Files.write(file, properties.getBytes(Charset.forName("ISO-8859-1")));
+	}
+
+	private void awaitReloads(long count) throws Exception {
+		long deadline = System.currentTimeMillis() + 10000;
+		while (watcher.getReloadCount() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertTrue("Should reload the changed file", watcher.getReloadCount() >= count);
+	}
+}
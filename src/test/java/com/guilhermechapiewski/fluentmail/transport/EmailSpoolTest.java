@@ -0,0 +1,336 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+
+/**
+ * Tests to {@link EmailSpool} and {@link SpoolConsumer}.
+ */
+public class EmailSpoolTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void should_read_back_spooled_email() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+
+		spool.enqueue((Email) new EmailMessage().from("from@doe.com").to("a@doe.com", "b@doe.com")
+				.cc("c@doe.com").withSubject("subject").withBody("body \u00e7\u00e3o")
+				.withCharset("UTF-8").addHeaders("X-Campaign", "42"));
+
+		Email email = spool.poll().getEmail();
+		assertEquals("Should keep from", "from@doe.com", email.getFromAddress());
+		assertEquals("Should keep tos", 2, email.getToAddresses().size());
+		assertTrue("Should keep ccs", email.getCcAddresses().contains("c@doe.com"));
+		assertTrue("Should keep bccs", email.getBccAddresses().isEmpty());
+		assertEquals("Should keep subject", "subject", email.getSubject());
+		assertEquals("Should keep body", "body \u00e7\u00e3o", email.getBody());
+		assertEquals("Should keep charset", "UTF-8", email.getCharset());
+		assertEquals("Should keep headers", "42", email.getHeaders().get("X-Campaign"));
+		spool.close();
+	}
+
+	@Test
+	public void should_spool_file_attachments_by_reference() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		Path file = Paths.get("/var/reports/report.pdf");
+
+		spool.enqueue(withAttachment(Attachment.file(file, "report.pdf", "application/pdf")));
+
+		Attachment attachment = spool.poll().getEmail().getAttachments().get(0);
+		assertEquals("Should keep the file", file, attachment.getFile());
+		assertEquals("Should keep the name", "report.pdf", attachment.getName());
+		assertEquals("Should keep the content type", "application/pdf", attachment
+				.getContentType());
+		spool.close();
+	}
+
+	@Test
+	public void should_refuse_to_spool_stream_attachments() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		try {
+			spool.enqueue(withAttachment(Attachment.stream("a.txt", null,
+					new Attachment.Source() {
+						public InputStream open() {
+							return new ByteArrayInputStream(new byte[0]);
+						}
+					})));
+			fail("Should not spool an attachment it cannot read back");
+		} catch (IllegalArgumentException e) {
+			assertNull("Should not write anything", spool.poll());
+		} finally {
+			spool.close();
+		}
+	}
+
+	@Test
+	public void should_replay_unacknowledged_entries_after_reopening() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		spool.enqueue(email("first@doe.com"));
+		spool.enqueue(email("second@doe.com"));
+		spool.enqueue(email("third@doe.com"));
+
+		spool.acknowledge(spool.poll());
+		spool.poll();
+		spool.close();
+
+		EmailSpool reopened = new EmailSpool(folder.getRoot().toPath(), 4096);
+		assertEquals("Should replay unacknowledged entries", 2, reopened.size());
+		assertEquals("Should replay in order", "second@doe.com", firstTo(reopened.poll()));
+		assertEquals("Should replay in order", "third@doe.com", firstTo(reopened.poll()));
+
+		long sequence = reopened.enqueue(email("fourth@doe.com"));
+		assertEquals("Should continue the sequence", 5, sequence);
+		reopened.close();
+	}
+
+	@Test
+	public void should_roll_segments_and_delete_acknowledged_ones() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 512);
+		for (int i = 0; i < 20; i++) {
+			spool.enqueue(email("to" + i + "@doe.com"));
+		}
+		assertTrue("Should roll over to new segments", segmentFiles() > 1);
+
+		SpoolEntry entry;
+		while ((entry = spool.poll()) != null) {
+			spool.acknowledge(entry);
+		}
+
+		assertEquals("Should keep only the active segment", 1, segmentFiles());
+		spool.close();
+	}
+
+	@Test
+	public void should_acknowledge_an_entry_only_once() throws Exception {
+		int recordSize = SpoolSegment.RECORD_OVERHEAD
+				+ SpoolCodec.encode(email("first@doe.com")).length;
+		int segmentSize = SpoolSegment.HEADER_SIZE + 2 * recordSize;
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), segmentSize);
+		spool.enqueue(email("first@doe.com"));
+		spool.enqueue(email("secnd@doe.com"));
+		spool.enqueue(email("third@doe.com"));
+		assertEquals("Should hold two entries per segment", 2, segmentFiles());
+
+		SpoolEntry first = spool.poll();
+		spool.acknowledge(first);
+		spool.acknowledge(first);
+		spool.close();
+
+		EmailSpool reopened = new EmailSpool(folder.getRoot().toPath(), segmentSize);
+		assertEquals("Should keep the segment of the other entry", "secnd@doe.com",
+				firstTo(reopened.poll()));
+		reopened.close();
+	}
+
+	@Test
+	public void should_ignore_torn_record_when_recovering() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		spool.enqueue(email("first@doe.com"));
+		spool.enqueue(email("second@doe.com"));
+		spool.close();
+
+		File segment = folder.getRoot().listFiles()[0];
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		try {
+			int firstLength = readInt(file, SpoolSegment.HEADER_SIZE);
+			int secondPayload = SpoolSegment.HEADER_SIZE + 8 + firstLength + SpoolSegment.RECORD_OVERHEAD;
+			file.seek(secondPayload + 10);
+			file.write(0x7F);
+		} finally {
+			file.close();
+		}
+
+		EmailSpool reopened = new EmailSpool(folder.getRoot().toPath(), 4096);
+		assertEquals("Should recover only the intact record", 1, reopened.size());
+		reopened.enqueue(email("third@doe.com"));
+		reopened.close();
+
+		EmailSpool again = new EmailSpool(folder.getRoot().toPath(), 4096);
+		assertEquals("Should append over the torn record", "first@doe.com", firstTo(again.poll()));
+		assertEquals("Should append over the torn record", "third@doe.com", firstTo(again.poll()));
+		assertNull("Should not have other entries", again.poll());
+		again.close();
+	}
+
+	@Test
+	public void should_drain_spool_and_retry_failed_sends() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		spool.enqueue(email("ok@doe.com"));
+		spool.enqueue(email("fails@doe.com"));
+
+		final List<String> sent = new ArrayList<String>();
+		PostalService postalService = new PostalService() {
+			@Override
+			public SendResult send(Email email) {
+				String to = email.getToAddresses().iterator().next();
+				if (to.startsWith("fails")) {
+					throw new EmailTransportException("421 try again later", null);
+				}
+				sent.add(to);
+				return SendResult.success(email);
+			}
+		};
+
+		SpoolConsumer consumer = new SpoolConsumer(spool, postalService, 10);
+		assertEquals("Should send one email", 1, consumer.drain());
+		assertEquals("Should keep failed email for retry", 1, spool.size());
+		assertEquals("Should send the right email", "ok@doe.com", sent.get(0));
+		spool.close();
+
+		EmailSpool reopened = new EmailSpool(folder.getRoot().toPath(), 4096);
+		assertEquals("Should replay only the failed email", "fails@doe.com", firstTo(reopened.poll()));
+		reopened.close();
+	}
+
+	@Test
+	public void should_spool_again_only_transiently_rejected_recipients() throws Exception {
+		SmtpSinkServer server = new SmtpSinkServer();
+		server.injectReply("RCPT", "450 4.2.1 Mailbox busy", 1);
+		PostalService postalService = new PostalService(EmailTransportConfiguration.builder()
+				.smtp(server.getAddress(), false, false, null, null).retry(1, 0, 0, 0).build());
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		spool.enqueue((Email) new EmailMessage().from("from@doe.com").to("busy@doe.com",
+				"ok@doe.com").cc("John Doe <cc@doe.com>").withSubject("subject").withBody("body"));
+
+		try {
+			SpoolConsumer consumer = new SpoolConsumer(spool, postalService, 60000);
+			assertEquals("Should send the email", 1, consumer.drain());
+			assertEquals("Should not retry the rejected recipient right away", 0, consumer
+					.drain());
+		} finally {
+			postalService.close();
+			server.close();
+		}
+		assertEquals("Should deliver to the other recipients", 2, server.getRecipientCount());
+		assertEquals("Should keep the rejected recipient for later", 1, spool.size());
+		spool.close();
+
+		EmailSpool reopened = new EmailSpool(folder.getRoot().toPath(), 4096);
+		Email email = reopened.poll().getEmail();
+		assertEquals("Should keep only the rejected recipient", Collections
+				.singleton("busy@doe.com"), email.getToAddresses());
+		assertTrue("Should not send to the others again", email.getCcAddresses().isEmpty());
+		assertEquals("Should keep the content", "subject", email.getSubject());
+		assertNull("Should have acknowledged the original", reopened.poll());
+		reopened.close();
+	}
+
+	@Test
+	public void should_park_emails_that_fail_permanently() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		EmailSpool deadLetters = new EmailSpool(folder.newFolder("dead").toPath(), 4096);
+		spool.enqueue(email("unknown@doe.com"));
+
+		PostalService postalService = new PostalService() {
+			@Override
+			public SendResult send(Email email) throws MessagingException {
+				throw new MessagingException("550 5.1.1 User unknown");
+			}
+		};
+
+		assertEquals("Should not send the email", 0, new SpoolConsumer(spool, postalService, 0,
+				5, deadLetters).drain());
+		assertEquals("Should not retry the email", 0, spool.size());
+		assertEquals("Should park the email", "unknown@doe.com", firstTo(deadLetters.poll()));
+		spool.close();
+		deadLetters.close();
+
+		EmailSpool reopened = new EmailSpool(folder.getRoot().toPath(), 4096);
+		assertNull("Should have acknowledged the email", reopened.poll());
+		reopened.close();
+	}
+
+	@Test
+	public void should_give_up_after_max_attempts() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		spool.enqueue(email("busy@doe.com"));
+
+		final int[] attempts = { 0 };
+		PostalService postalService = new PostalService() {
+			@Override
+			public SendResult send(Email email) {
+				attempts[0]++;
+				throw new EmailTransportException("Could not send", new MessagingException(
+						"421 4.3.2 Try again later"));
+			}
+		};
+
+		SpoolConsumer consumer = new SpoolConsumer(spool, postalService, 0, 3, null);
+		for (int i = 0; i < 5; i++) {
+			consumer.drain();
+		}
+		assertEquals("Should stop at max attempts", 3, attempts[0]);
+		assertEquals("Should drop the email", 0, spool.size());
+		spool.close();
+	}
+
+	@Test
+	public void should_give_up_when_an_attachment_is_gone() throws Exception {
+		EmailSpool spool = new EmailSpool(folder.getRoot().toPath(), 4096);
+		File file = folder.newFile("report.pdf");
+		spool.enqueue(withAttachment(Attachment.file(file.toPath())));
+		assertTrue(file.delete());
+
+		PostalService postalService = new PostalService() {
+			@Override
+			public SendResult send(Email email) {
+				throw new EmailTransportException("Could not send", new MessagingException(
+						"IOException while sending message", new NoSuchFileException("report.pdf")));
+			}
+		};
+
+		assertEquals("Should not send the email", 0, new SpoolConsumer(spool, postalService, 0)
+				.drain());
+		assertEquals("Should not retry the email", 0, spool.size());
+		spool.close();
+	}
+
+	private Email email(String to) {
+		return (Email) new EmailMessage().from("from@doe.com").to(to).withSubject("subject")
+				.withBody("body");
+	}
+
+	private Email withAttachment(Attachment attachment) {
+		return (Email) new EmailMessage().from("from@doe.com").to("a@doe.com")
+				.withSubject("subject").withBody("body").attach(attachment);
+	}
+
+	private String firstTo(SpoolEntry entry) {
+		return entry.getEmail().getToAddresses().iterator().next();
+	}
+
+	private int segmentFiles() {
+		return folder.getRoot().list().length;
+	}
+
+	private int readInt(RandomAccessFile file, long position) throws Exception {
+		file.seek(position);
+		return file.readInt();
+	}
+}
@@ -4,6 +4,8 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Properties;
+
 import org.junit.Test;
 
 /**
@@ -26,4 +28,55 @@ public class EmailTransportConfigurationTest {
 		assertTrue("Should configure authentication correctly", config.isAuthenticationRequired());
 		assertFalse("Should configure secure smtp correctly", config.useSecureSmtp());
 	}
+
+	@Test
+	public void should_start_a_new_generation_when_a_relay_setting_is_reloaded() {
+		int failureThreshold = config.getCircuitFailureThreshold();
+		long openMillis = config.getCircuitOpenMillis();
+		Properties properties = new Properties();
+		properties.setProperty("smtp.server", config.getSmtpServer());
+		properties.setProperty("smtp.username", config.getUsername());
+		properties.setProperty("smtp.password", config.getPassword());
+		properties.setProperty("auth.required", String.valueOf(config.isAuthenticationRequired()));
+		try {
+			EmailTransportConfiguration.configure(properties);
+			long generation = config.getGeneration();
+
+			EmailTransportConfiguration.configure(properties);
+			assertEquals("Should keep the relays when nothing changed", generation, config
+					.getGeneration());
+
+			properties.setProperty("circuit.failure.threshold", String.valueOf(failureThreshold + 1));
+			EmailTransportConfiguration.configure(properties);
+			assertTrue("Should replace the relays", generation != config.getGeneration());
+		} finally {
+			EmailTransportConfiguration.configureCircuitBreaker(failureThreshold, openMillis);
+		}
+	}
+
+	@Test
+	public void should_not_change_configurations_already_built_when_adding_a_domain_limit() {
+		EmailTransportConfiguration.Builder builder = EmailTransportConfiguration.builder()
+				.smtp("smtp.server.com", false, false, null, null);
+		EmailTransportConfiguration before = builder.build();
+
+		EmailTransportConfiguration after = builder.domainRateLimit("doe.com", 1, 1).build();
+
+		assertFalse("Should not limit the configuration built before", before.getRateLimiter()
+				.isLimited());
+		assertTrue("Should limit the configuration built after", after.getRateLimiter()
+				.isLimited());
+	}
+
+	@Test
+	public void should_keep_rate_limits_missing_from_properties() {
+		Properties properties = new Properties();
+		properties.setProperty("smtp.server", "smtp.server.com");
+		properties.setProperty("rate.domain.per.second", "2");
+
+		RateLimiter rateLimiter = EmailTransportConfiguration.builder().rateLimits(10, 5, 1, 1)
+				.load(properties).build().getRateLimiter();
+
+		assertTrue("Should keep the relay limit", rateLimiter.hasLimits(10, 5, 2, 1));
+	}
 }
\ No newline at end of file
@@ -0,0 +1,216 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+
+/**
+ * Tests to {@link EsmtpTransport}, against the extensions advertised by
+ * {@link SmtpSinkServer}.
+ */
+public class EsmtpTransportTest {
+
+	SmtpSinkServer server;
+	PostalService postalService;
+	final List<String> received = new ArrayList<String>();
+
+	@Before
+	public void setup() throws Exception {
+		server = new SmtpSinkServer();
+		server.setMessageListener(new SmtpSinkServer.MessageListener() {
+			public void messageReceived(String from, List<String> recipients, byte[] data) {
+				try {
+					received.add(new String(data, "UTF-8"));
+				} catch (UnsupportedEncodingException e) {
+					throw new AssertionError(e);
+				}
+			}
+		});
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		if (postalService != null) {
+			postalService.close();
+		}
+		server.close();
+	}
+
+	@Test
+	public void should_send_message_data_in_chunks() throws Exception {
+		postalService = postalService(true, true, 1024);
+		StringBuilder body = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			body.append("line ").append(i).append(" of a body longer than one chunk\n");
+		}
+		body.append(".a line starting with a dot");
+
+		postalService.send(email(body.toString(), "john@doe.com"));
+
+		assertEquals(1, server.getMessageCount());
+		assertEquals("Should not use DATA", 0, server.getCommandCount("DATA"));
+		assertTrue("Should send several chunks", server.getCommandCount("BDAT") > 1);
+		String data = received.get(0);
+		assertTrue("Should keep every line", data.contains("line 199 of a body"));
+		assertTrue("Should not dot-stuff", data.contains("\r\n.a line starting with a dot"));
+	}
+
+	@Test
+	public void should_send_message_data_with_data_when_chunking_is_disabled() throws Exception {
+		postalService = postalService(true, true, 0);
+
+		postalService.send(email("body", "john@doe.com"));
+
+		assertEquals(1, server.getMessageCount());
+		assertEquals("Should use DATA", 1, server.getCommandCount("DATA"));
+		assertEquals("Should not use BDAT", 0, server.getCommandCount("BDAT"));
+	}
+
+	@Test
+	public void should_send_text_as_8bit_and_restore_the_encoding_afterwards() throws Exception {
+		postalService = postalService(true, true, 1024);
+		Email email = email("Ol\u00e1, Jos\u00e9! \u00c7a va tr\u00e8s bien.", "john@doe.com");
+		MimeMessage message = postalService.createMessage(email);
+
+		postalService.send(email, message);
+
+		String data = received.get(0);
+		assertTrue("Should declare 8bit", data.contains("Content-Transfer-Encoding: 8bit"));
+		assertTrue("Should send the text as it is",
+				data.contains("Ol\u00e1, Jos\u00e9! \u00c7a va tr\u00e8s bien."));
+		assertEquals("Should restore the encoding for other relays", "quoted-printable",
+				message.getEncoding());
+	}
+
+	@Test
+	public void should_keep_encoding_when_8bitmime_is_disabled() throws Exception {
+		postalService = postalService(true, false, 1024);
+
+		postalService.send(email("Ol\u00e1, Jos\u00e9!", "john@doe.com"));
+
+		assertTrue("Should encode the text", received.get(0).contains(
+				"Content-Transfer-Encoding: quoted-printable"));
+	}
+
+	@Test
+	public void should_send_recipients_without_waiting_for_each_reply() throws Exception {
+		server.setLatencyMillis(50);
+		postalService = postalService(true, true, 1024);
+		String[] recipients = new String[20];
+		for (int i = 0; i < recipients.length; i++) {
+			recipients[i] = "john" + i + "@doe.com";
+		}
+
+		long start = System.nanoTime();
+		SendResult result = postalService.send(email("body", recipients));
+		long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+		assertTrue("Should deliver", result.isSuccessful());
+		assertEquals(recipients.length, server.getRecipientCount());
+		assertTrue("Should not wait a round trip per recipient, took " + elapsedMillis + "ms",
+				elapsedMillis < (recipients.length + 1) * 50);
+	}
+
+	@Test
+	public void should_read_pipelined_replies_in_order_after_a_rejected_sender()
+			throws Exception {
+		server.injectReply("MAIL", "451 4.3.0 Try again later", 1);
+		postalService = postalService(true, true, 1024);
+
+		SendResult result = postalService.send(email("body", "john@doe.com", "jane@doe.com"));
+
+		assertTrue("Should deliver on retry", result.isSuccessful());
+		assertEquals(1, server.getMessageCount());
+		assertEquals("Should reuse the connection", 1, server.getConnectionCount());
+	}
+
+	@Test
+	public void should_count_the_message_data_while_sending_it() throws Exception {
+		for (int chunkSize : new int[] { 0, 1024 }) {
+			received.clear();
+			postalService = postalService(true, true, chunkSize);
+			EsmtpTransport transport = (EsmtpTransport) postalService.connect(RelayAddress
+					.parse(server.getAddress()));
+			try {
+				assertEquals("Should not count before sending", -1, transport.getMessageSize());
+				MimeMessage message = postalService.createMessage(email("body\r\n",
+						"john@doe.com"));
+
+				transport.sendMessage(message, message.getAllRecipients());
+
+				assertEquals("Should count what was sent", received.get(0).length(), transport
+						.getMessageSize());
+			} finally {
+				transport.close();
+				postalService.close();
+			}
+		}
+	}
+
+	@Test
+	public void should_not_wait_for_a_slow_server_past_the_deadline_while_connecting()
+			throws Exception {
+		server.setLatencyMillis(5000);
+		postalService = postalService(true, true, 0);
+		long start = System.nanoTime();
+
+		try {
+			postalService.connect(RelayAddress.parse(server.getAddress()), Deadline.after(200,
+					TimeUnit.MILLISECONDS)).close();
+			fail("Should give up on the greeting");
+		} catch (MessagingException e) {
+			// expected
+		}
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		assertTrue("Should give up at the deadline, took " + elapsedMillis + "ms",
+				elapsedMillis < 2000);
+	}
+
+	@Test
+	public void should_wait_for_replies_as_configured_once_connected_under_a_deadline()
+			throws Exception {
+		postalService = postalService(true, true, 0);
+		RelayAddress relay = RelayAddress.parse(server.getAddress());
+		// Loads what connecting needs, so the deadline only covers the server.
+		postalService.connect(relay).close();
+		EsmtpTransport transport = (EsmtpTransport) postalService.connect(relay, Deadline.after(
+				500, TimeUnit.MILLISECONDS));
+		try {
+			server.setLatencyMillis(700);
+			MimeMessage message = postalService.createMessage(email("body", "john@doe.com"));
+
+			transport.sendMessage(message, message.getAllRecipients());
+
+			assertEquals("Should deliver", 1, server.getMessageCount());
+		} finally {
+			transport.close();
+		}
+	}
+
+	private PostalService postalService(boolean pipelining, boolean eightBitMime, int chunkSize) {
+		return new PostalService(EmailTransportConfiguration.builder()
+				.smtp(server.getAddress(), false, false, null, null).retry(3, 0, 0, 0)
+				.esmtp(pipelining, eightBitMime, chunkSize).build());
+	}
+
+	private Email email(String body, String... to) {
+		return new EmailMessage().from("from.john@doe.com").to(to).withSubject("subject")
+				.withBody(body).withCharset("UTF-8").build();
+	}
+}
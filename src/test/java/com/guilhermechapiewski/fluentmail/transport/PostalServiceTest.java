@@ -1,24 +1,51 @@
 package com.guilhermechapiewski.fluentmail.transport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
-
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
 
+import javax.mail.Address;
+import javax.mail.BodyPart;
 import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
 import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
 import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
 
 import org.jmock.Expectations;
 import org.jmock.Mockery;
+import org.jmock.api.Invocation;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.legacy.ClassImposteriser;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.guilhermechapiewski.fluentmail.email.Attachment;
+import com.guilhermechapiewski.fluentmail.email.BodySource;
 import com.guilhermechapiewski.fluentmail.email.Email;
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.sun.mail.smtp.SMTPTransport;
 
 public class PostalServiceTest {
 
@@ -30,7 +57,11 @@ public class PostalServiceTest {
 	static String USERNAME = "john";
 	static String PASSWORD = "doe";
 
-	Mockery context = new Mockery();
+	Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
 
 	@BeforeClass
 	public static void setup() {
@@ -106,6 +137,12 @@ public class PostalServiceTest {
 				
 				one(email).getHeaders();
 				will(returnValue(headers));
+
+				one(email).getAttachments();
+				will(returnValue(Collections.emptyList()));
+
+				one(email).getBodySource();
+				will(returnValue(null));
 			}
 		});
 
@@ -131,6 +168,74 @@ public class PostalServiceTest {
 		assertEquals("Should contain header.", "8BIT", message.getHeader("Content-transfer-encoding")[0]);
 	}
 
+	@Test
+	public void should_stream_body_source_while_writing_the_message() throws Exception {
+		final int[] written = new int[1];
+		Email email = (Email) new EmailMessage().from("from@doe.com").to("to@doe.com")
+				.withSubject("subject").withCharset("UTF-8").withBody(
+						BodySource.reader("text/html", new BodySource.ReaderSource() {
+							public Reader open() {
+								written[0]++;
+								return new StringReader("<p>Caf\u00e9 =\u20ac</p>");
+							}
+						}));
+
+		MimeMessage message = new PostalService().createMessage(email);
+		message.saveChanges();
+		assertEquals("Should not produce the body to build the message", 0, written[0]);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.writeTo(out);
+		assertEquals("Should produce the body once per write", 1, written[0]);
+
+		MimeMessage received = new MimeMessage(Session.getInstance(new Properties()),
+				new ByteArrayInputStream(out.toByteArray()));
+		assertEquals("text/html; charset=UTF-8", received.getContentType());
+		assertEquals("quoted-printable", received.getEncoding());
+		assertEquals("<p>Caf\u00e9 =\u20ac</p>", received.getContent());
+	}
+
+	@Test
+	public void should_read_attachments_only_while_writing_the_message() throws Exception {
+		final int[] opened = new int[1];
+		final byte[] content = new byte[100000];
+		for (int i = 0; i < content.length; i++) {
+			content[i] = (byte) i;
+		}
+		Email email = (Email) new EmailMessage().from("from@doe.com").to("to@doe.com")
+				.withSubject("subject").withBody("body").attach(
+						Attachment.stream("report.bin", "application/octet-stream",
+								new Attachment.Source() {
+									public InputStream open() {
+										opened[0]++;
+										return new ByteArrayInputStream(content);
+									}
+								}));
+
+		MimeMessage message = new PostalService().createMessage(email);
+		message.saveChanges();
+		assertEquals("Should not read the attachment to build the message", 0, opened[0]);
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.writeTo(out);
+		assertEquals("Should read the attachment once per write", 1, opened[0]);
+
+		MimeMessage received = new MimeMessage(Session.getInstance(new Properties()),
+				new ByteArrayInputStream(out.toByteArray()));
+		BodyPart attachment = ((MimeMultipart) received.getContent()).getBodyPart(1);
+		assertEquals("report.bin", attachment.getFileName());
+		assertEquals("base64", attachment.getHeader("Content-Transfer-Encoding")[0]);
+
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+		InputStream in = attachment.getInputStream();
+		byte[] buffer = new byte[8192];
+		for (int n; (n = in.read(buffer)) != -1;) {
+			decoded.write(buffer, 0, n);
+		}
+		assertTrue("Should carry the attachment content", Arrays.equals(content, decoded
+				.toByteArray()));
+	}
+
 	@Test
 	public void should_get_session_with_correct_config() {
 		EmailTransportConfiguration.configure(SMTP_SERVER, AUTH_REQUIRED,
@@ -142,5 +247,549 @@ public class PostalServiceTest {
 		assertNotNull("Session cannot be null", session);
 		assertEquals("Should get correct smtp server", SMTP_SERVER, session
 				.getProperty("mail.smtp.host"));
+		assertEquals("Should bound server replies", String.valueOf(config
+				.getSmtpReadTimeoutMillis()), session.getProperty("mail.smtp.timeout"));
+		assertEquals("Should bound connecting", String.valueOf(config
+				.getSmtpConnectTimeoutMillis()), session.getProperty("mail.smtp.connectiontimeout"));
+	}
+
+	@Test
+	public void should_send_batch_over_a_single_connection() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+
+		Email first = email("first@doe.com");
+		Email malformed = email("<<malformed");
+		Email rejected = email("rejected@doe.com");
+		Email last = email("last@doe.com");
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				exactly(2).of(transport).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+
+				one(transport).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+				will(throwException(new SendFailedException("550 No such user")));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, new CircuitBreaker(SMTP_SERVER, 5, 1000));
+			}
+		};
+
+		List<SendResult> results = postalService.sendAll(Arrays.asList(first,
+				malformed, last, rejected));
+
+		assertEquals("Should return one result per email", 4, results.size());
+		assertTrue("Should send first email", results.get(0).isSuccessful());
+		assertFalse("Should not build malformed email", results.get(1).isSuccessful());
+		assertTrue("Should send email after a failed one", results.get(2).isSuccessful());
+		assertFalse("Should report rejected email", results.get(3).isSuccessful());
+		assertEquals("Should keep the connection", 1, pool.getStatistics().getIdle());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_not_hold_a_connection_while_waiting_for_a_send_slot() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+		final AdaptiveConcurrencyLimit concurrencyLimit = new AdaptiveConcurrencyLimit(1, 1, 1,
+				0.5, 2);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+			}
+		});
+		pool.release(pool.borrow());
+		concurrencyLimit.acquire(0);
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return new SmtpRelays(SMTP_SERVER, Arrays.asList(new SmtpRelay(RelayAddress
+						.parse(SMTP_SERVER), pool, new CircuitBreaker(SMTP_SERVER, 5, 1000),
+						concurrencyLimit)), new WeightedRoundRobinSelector());
+			}
+		};
+
+		try {
+			postalService.send(email("john@doe.com"), Deadline.after(50, TimeUnit.MILLISECONDS));
+			fail("Should give up waiting for a send slot");
+		} catch (MessagingException e) {
+			// expected
+		}
+		assertEquals("Should keep the connection", 1, pool.getStatistics().getIdle());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_not_hold_a_connection_while_waiting_for_the_rate_limit()
+			throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+			}
+		});
+		pool.release(pool.borrow());
+
+		EmailTransportConfiguration limited = EmailTransportConfiguration.builder().rateLimits(
+				0.1, 1, 0, 0).build();
+		limited.getRateLimiter().reserve(RelayAddress.parse(SMTP_SERVER).toString(),
+				Collections.<String> emptyList());
+		PostalService postalService = new PostalService(limited) {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, new CircuitBreaker(SMTP_SERVER, 5, 1000));
+			}
+		};
+
+		try {
+			postalService.send(email("john@doe.com"), Deadline.after(50, TimeUnit.MILLISECONDS));
+			fail("Should give up waiting for the rate limit");
+		} catch (SendTimeoutException e) {
+			// expected
+		}
+		assertEquals("Should keep the connection", 1, pool.getStatistics().getIdle());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_retry_transient_failure_on_a_new_connection() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport broken = context.mock(SMTPTransport.class, "broken");
+		final SMTPTransport healthy = context.mock(SMTPTransport.class, "healthy");
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+		final CircuitBreaker circuitBreaker = new CircuitBreaker(SMTP_SERVER, 5, 1000);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(broken));
+
+				one(broken).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+				will(throwException(new MessagingException("Exception reading response",
+						new SocketException("Connection reset"))));
+
+				one(broken).close();
+
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(healthy));
+
+				one(healthy).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, circuitBreaker);
+			}
+
+			@Override
+			protected RetryPolicy getRetryPolicy() {
+				return new RetryPolicy(3, 0, 0, 0);
+			}
+		};
+
+		postalService.send(email("to.john@doe.com"));
+
+		assertEquals("Should close the circuit again", CircuitBreaker.State.CLOSED,
+				circuitBreaker.getState());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_not_retry_once_the_deadline_passed() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport slow = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+		final CircuitBreaker circuitBreaker = new CircuitBreaker(SMTP_SERVER, 5, 1000);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(slow));
+
+				one(slow).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+				will(new CustomAction("time out after a while") {
+					public Object invoke(Invocation invocation) throws Throwable {
+						Thread.sleep(100);
+						throw new MessagingException("Exception reading response",
+								new SocketException("Read timed out"));
+					}
+				});
+
+				one(slow).close();
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, circuitBreaker);
+			}
+
+			@Override
+			protected RetryPolicy getRetryPolicy() {
+				return new RetryPolicy(3, 0, 0, 0);
+			}
+		};
+
+		try {
+			postalService.send(email("to.john@doe.com"), Deadline.after(50,
+					TimeUnit.MILLISECONDS));
+			fail("Should give up at the deadline");
+		} catch (SendTimeoutException e) {
+			assertTrue("Should keep the last failure", e.getCause() instanceof MessagingException);
+		}
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_not_retry_permanent_failure() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+				will(throwException(new MessagingException("554 5.7.1 Message rejected")));
+
+				one(transport).close();
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, new CircuitBreaker(SMTP_SERVER, 5, 1000));
+			}
+
+			@Override
+			protected RetryPolicy getRetryPolicy() {
+				return new RetryPolicy(3, 0, 0, 0);
+			}
+		};
+
+		try {
+			postalService.send(email("to.john@doe.com"));
+			fail("Should not retry a permanent failure");
+		} catch (MessagingException e) {
+			assertEquals("554 5.7.1 Message rejected", e.getMessage());
+		}
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_fail_fast_while_circuit_is_open() throws Exception {
+		final CircuitBreaker circuitBreaker = new CircuitBreaker(SMTP_SERVER, 1, 60000);
+		circuitBreaker.recordFailure();
+
+		final SmtpConnectionPool pool = new SmtpConnectionPool(
+				context.mock(ConnectionFactory.class), config);
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, circuitBreaker);
+			}
+		};
+
+		try {
+			postalService.send(email("to.john@doe.com"));
+			fail("Should not try the SMTP server");
+		} catch (CircuitBreakerOpenException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void should_open_circuit_only_when_a_batch_cannot_reach_the_relay()
+			throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+		final CircuitBreaker circuitBreaker = new CircuitBreaker(SMTP_SERVER, 1, 60000);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(throwException(new MessagingException("535 5.7.8 Authentication failed")));
+
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(throwException(new MessagingException("Could not connect",
+						new SocketException("Connection refused"))));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, circuitBreaker);
+			}
+		};
+
+		assertFalse("Should fail the send", postalService.sendAll(
+				Arrays.asList(email("first@doe.com"))).get(0).isSuccessful());
+		assertEquals("Should not count a rejected login against the relay",
+				CircuitBreaker.State.CLOSED, circuitBreaker.getState());
+
+		postalService.sendAll(Arrays.asList(email("second@doe.com")));
+		assertEquals("Should count an unreachable relay", CircuitBreaker.State.OPEN,
+				circuitBreaker.getState());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_keep_relay_in_rotation_when_a_batch_probe_cannot_log_in()
+			throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+		final CircuitBreaker circuitBreaker = new CircuitBreaker(SMTP_SERVER, 1, 0);
+		circuitBreaker.recordFailure();
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(throwException(new MessagingException("535 5.7.8 Authentication failed")));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, circuitBreaker);
+			}
+		};
+
+		assertFalse("Should fail the send", postalService.sendAll(
+				Arrays.asList(email("first@doe.com"))).get(0).isSuccessful());
+		assertTrue("Should still pick the relay", circuitBreaker.allowRequest());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_retry_only_recipients_that_were_not_sent() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+
+		final Address accepted = new InternetAddress("accepted@doe.com");
+		final Address busy = new InternetAddress("busy@doe.com");
+		final Address unknown = new InternetAddress("unknown@doe.com");
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+				will(throwException(new SendFailedException("Invalid Addresses", null,
+						new Address[] { accepted }, new Address[] { busy },
+						new Address[] { unknown })));
+
+				allowing(transport).simpleCommand("RSET");
+				will(returnValue(250));
+
+				one(transport).sendMessage(with(any(Message.class)),
+						with(equal(new Address[] { busy })));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, new CircuitBreaker(SMTP_SERVER, 5, 1000));
+			}
+
+			@Override
+			protected RetryPolicy getRetryPolicy() {
+				return new RetryPolicy(3, 0, 0, 0);
+			}
+		};
+
+		Email email = (Email) new EmailMessage().from("from.john@doe.com").to(
+				"accepted@doe.com", "busy@doe.com", "unknown@doe.com").withSubject("subject")
+				.withBody("body");
+		SendResult result = postalService.send(email);
+
+		assertFalse("Should report the rejected recipient", result.isSuccessful());
+		assertEquals(Arrays.asList("accepted@doe.com", "busy@doe.com"), result
+				.getAcceptedRecipients());
+		assertEquals(Arrays.asList("unknown@doe.com"), result.getPermanentlyRejectedRecipients());
+		assertTrue(result.getTransientlyRejectedRecipients().isEmpty());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_report_unsent_recipients_when_retries_run_out() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+				will(throwException(new SendFailedException("Invalid Addresses", null,
+						new Address[] { new InternetAddress("accepted@doe.com") },
+						new Address[] { new InternetAddress("busy@doe.com") }, null)));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, new CircuitBreaker(SMTP_SERVER, 5, 1000));
+			}
+
+			@Override
+			protected RetryPolicy getRetryPolicy() {
+				return new RetryPolicy(1, 0, 0, 0);
+			}
+		};
+
+		SendResult result = postalService.send(email("accepted@doe.com"));
+
+		assertEquals(Arrays.asList("accepted@doe.com"), result.getAcceptedRecipients());
+		assertEquals(Arrays.asList("busy@doe.com"), result.getTransientlyRejectedRecipients());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_fail_over_to_another_relay() throws Exception {
+		final ConnectionFactory downFactory = context.mock(ConnectionFactory.class, "down");
+		final ConnectionFactory upFactory = context.mock(ConnectionFactory.class, "up");
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpRelay down = new SmtpRelay(RelayAddress.parse("down.server.com"),
+				new SmtpConnectionPool(downFactory, config), new CircuitBreaker("down", 5, 1000));
+		final SmtpRelay up = new SmtpRelay(RelayAddress.parse("up.server.com"),
+				new SmtpConnectionPool(upFactory, config), new CircuitBreaker("up", 5, 1000));
+
+		context.checking(new Expectations() {
+			{
+				one(downFactory).connect(with(any(Deadline.class)));
+				will(throwException(new MessagingException("Could not connect",
+						new SocketException("Connection refused"))));
+
+				one(upFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).sendMessage(with(any(Message.class)), with(any(Address[].class)));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return new SmtpRelays(SMTP_SERVER, Arrays.asList(down, up),
+						new WeightedRoundRobinSelector());
+			}
+
+			@Override
+			protected RetryPolicy getRetryPolicy() {
+				return new RetryPolicy(3, 0, 0, 0);
+			}
+		};
+
+		postalService.send(email("to.john@doe.com"));
+
+		assertEquals("Should count the failure on the down relay", 1, down.getStatistics()
+				.getFailed());
+		assertEquals("Should send through the other relay", 1, up.getStatistics().getSent());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_render_campaign_messages_from_prototype() throws Exception {
+		PostalService postalService = new PostalService();
+		MessagePrototype prototype = postalService.createPrototype(email("ignored@doe.com"));
+
+		String first = render(prototype.newMessage("first@doe.com"));
+		String second = render(prototype.newMessage("second@doe.com"));
+
+		assertTrue("Should address the recipient", first.contains("To: first@doe.com\r\n"));
+		assertFalse("Should not keep template recipients", first.contains("ignored@doe.com"));
+		assertTrue("Should include the subject", first.contains("Subject: subject\r\n"));
+		assertTrue("Should include the body", first.endsWith("\r\n\r\nbody"));
+		assertFalse("Should give each message its own id", messageId(first).equals(
+				messageId(second)));
+	}
+
+	@Test
+	public void should_send_campaign_over_a_single_connection() throws Exception {
+		final ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+		final SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory, config);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).sendMessage(with(any(Message.class)),
+						with(equal(new Address[] { new InternetAddress("first@doe.com") })));
+				one(transport).sendMessage(with(any(Message.class)),
+						with(equal(new Address[] { new InternetAddress("second@doe.com") })));
+			}
+		});
+
+		PostalService postalService = new PostalService() {
+			@Override
+			protected SmtpRelays getRelays() {
+				return relays(pool, new CircuitBreaker(SMTP_SERVER, 5, 1000));
+			}
+		};
+
+		List<SendResult> results = postalService.sendCampaign(email("ignored@doe.com"), Arrays
+				.asList("first@doe.com", "<<malformed", "Jane Doe <second@doe.com>"));
+
+		assertTrue(results.get(0).isSuccessful());
+		assertEquals(Arrays.asList("first@doe.com"), results.get(0).getAcceptedRecipients());
+		assertFalse("Should not send to malformed address", results.get(1).isSuccessful());
+		assertTrue(results.get(2).isSuccessful());
+		assertEquals("Should list bare addresses", Arrays.asList("second@doe.com"), results.get(2)
+				.getAcceptedRecipients());
+		context.assertIsSatisfied();
+	}
+
+	private String render(MimeMessage message) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.writeTo(out);
+		return out.toString("US-ASCII");
+	}
+
+	private String messageId(String message) {
+		int start = message.indexOf("Message-ID: ");
+		return message.substring(start, message.indexOf("\r\n", start));
+	}
+
+	private SmtpRelays relays(SmtpConnectionPool pool, CircuitBreaker circuitBreaker) {
+		return new SmtpRelays(SMTP_SERVER, Arrays.asList(new SmtpRelay(RelayAddress
+				.parse(SMTP_SERVER), pool, circuitBreaker)), new WeightedRoundRobinSelector());
+	}
+
+	private Email email(String to) {
+		return (Email) new EmailMessage().from("from.john@doe.com").to(to)
+				.withSubject("subject").withBody("body");
 	}
 }
@@ -0,0 +1,95 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Tests to {@link RateLimiter}.
+ */
+public class RateLimiterTest {
+
+	static final long ONE_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+	final List<String> gmail = Arrays.asList("john@gmail.com");
+	final List<String> yahoo = Arrays.asList("john@yahoo.com");
+
+	@Test
+	public void should_let_a_burst_through_and_then_pace() {
+		RateLimiter rateLimiter = new RateLimiter(1, 2, 0, 1);
+
+		assertEquals(0, rateLimiter.reserve("relay", gmail));
+		assertEquals(0, rateLimiter.reserve("relay", gmail));
+		assertAbout(ONE_SECOND, rateLimiter.reserve("relay", gmail));
+		assertAbout(2 * ONE_SECOND, rateLimiter.reserve("relay", gmail));
+		assertEquals("Should pace each relay on its own", 0, rateLimiter.reserve("other", gmail));
+	}
+
+	@Test
+	public void should_pace_each_recipient_domain() {
+		RateLimiter rateLimiter = new RateLimiter(0, 1, 1, 1);
+
+		assertEquals(0, rateLimiter.reserve("relay", gmail));
+		assertAbout(ONE_SECOND, rateLimiter.reserve("relay", Arrays.asList("jane@GMAIL.com",
+				"john@yahoo.com")));
+		assertAbout("Should have taken a yahoo token too", ONE_SECOND, rateLimiter.delay(yahoo));
+	}
+
+	@Test
+	public void should_use_domain_override() {
+		RateLimiter rateLimiter = new RateLimiter(0, 1, 0, 1);
+		rateLimiter.setDomainLimit("gmail.com", 1, 1);
+
+		assertTrue(rateLimiter.isLimited());
+		assertEquals(0, rateLimiter.reserve("relay", gmail));
+		assertAbout(ONE_SECOND, rateLimiter.delay(gmail));
+		assertEquals("Should not limit other domains", 0, rateLimiter.reserve("relay", yahoo));
+		assertEquals(0, rateLimiter.reserve("relay", yahoo));
+	}
+
+	@Test
+	public void should_not_take_tokens_when_only_asking_delay() {
+		RateLimiter rateLimiter = new RateLimiter(0, 1, 1, 1);
+
+		assertEquals(0, rateLimiter.delay(gmail));
+		assertEquals(0, rateLimiter.delay(gmail));
+		assertEquals(0, rateLimiter.reserve("relay", gmail));
+	}
+
+	@Test
+	public void should_not_limit_by_default() {
+		RateLimiter rateLimiter = new RateLimiter(0, 1, 0, 1);
+
+		assertFalse(rateLimiter.isLimited());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(0, rateLimiter.reserve("relay", gmail));
+		}
+	}
+
+	@Test
+	public void should_drop_idle_domain_buckets() {
+		RateLimiter rateLimiter = new RateLimiter(0, 1, 1000000000, 1);
+		rateLimiter.setDomainLimit("gmail.com", 1, 1);
+		rateLimiter.reserve("relay", gmail);
+
+		for (int i = 0; i <= RateLimiter.DOMAIN_SWEEP_THRESHOLD + 1; i++) {
+			rateLimiter.reserve("relay", Arrays.asList("john@domain" + i + ".com"));
+		}
+		assertTrue("Should drop idle buckets", rateLimiter.getDomainBucketCount() < 10);
+		assertTrue("Should keep domain overrides", rateLimiter.delay(gmail) > 0);
+	}
+
+	private void assertAbout(long expected, long actual) {
+		assertAbout("Expected about " + expected + " but was " + actual, expected, actual);
+	}
+
+	private void assertAbout(String message, long expected, long actual) {
+		assertTrue(message, actual <= expected && actual > expected - ONE_SECOND / 10);
+	}
+}
@@ -0,0 +1,100 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.SocketException;
+
+import javax.mail.AuthenticationFailedException;
+import javax.mail.MessagingException;
+import javax.mail.NoSuchProviderException;
+import javax.mail.internet.AddressException;
+
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.transport.FailureClassifier.FailureType;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+/**
+ * Tests to {@link RetryPolicy} and {@link FailureClassifier}.
+ */
+public class RetryPolicyTest {
+
+	FailureClassifier classifier = new FailureClassifier();
+
+	@Test
+	public void should_back_off_exponentially_up_to_the_cap() {
+		RetryPolicy policy = new RetryPolicy(10, 100, 1000, 0);
+
+		assertEquals(100, policy.backoffMillis(1));
+		assertEquals(200, policy.backoffMillis(2));
+		assertEquals(400, policy.backoffMillis(3));
+		assertEquals(800, policy.backoffMillis(4));
+		assertEquals("Should cap backoff", 1000, policy.backoffMillis(5));
+		assertEquals("Should cap backoff", 1000, policy.backoffMillis(9));
+	}
+
+	@Test
+	public void should_randomize_backoff_within_jitter() {
+		RetryPolicy policy = new RetryPolicy(10, 1000, 1000, 0.5);
+
+		for (int i = 0; i < 100; i++) {
+			long backoff = policy.backoffMillis(1);
+			assertTrue("Should not wait less than half", backoff >= 500);
+			assertTrue("Should not wait more than the backoff", backoff <= 1000);
+		}
+	}
+
+	@Test
+	public void should_limit_attempts() {
+		RetryPolicy policy = new RetryPolicy(3, 0, 0, 0);
+
+		assertTrue(policy.shouldRetry(1));
+		assertTrue(policy.shouldRetry(2));
+		assertFalse("Should stop after max attempts", policy.shouldRetry(3));
+	}
+
+	@Test
+	public void should_classify_reply_codes() {
+		assertEquals(FailureType.TRANSIENT, classifier.classify(new SMTPSendFailedException(
+				"MAIL FROM", 451, "451 Try again later", null, null, null, null)));
+		assertEquals(FailureType.PERMANENT, classifier.classify(new SMTPSendFailedException(
+				"DATA", 554, "554 Message rejected", null, null, null, null)));
+		assertEquals(FailureType.TRANSIENT, classifier.classify(new MessagingException(
+				"421 4.7.0 Too many connections")));
+		assertEquals(FailureType.PERMANENT, classifier.classify(new MessagingException(
+				"550 5.1.1 User unknown")));
+	}
+
+	@Test
+	public void should_classify_io_errors_as_transient_endpoint_failures() {
+		MessagingException reset = new MessagingException("Exception reading response",
+				new SocketException("Connection reset"));
+
+		assertEquals(FailureType.TRANSIENT, classifier.classify(reset));
+		assertTrue("Should blame the server", classifier.isEndpointFailure(reset));
+		assertFalse("Should not blame the server for a rejected message", classifier
+				.isEndpointFailure(new MessagingException("550 5.1.1 User unknown")));
+	}
+
+	@Test
+	public void should_classify_bad_input_and_credentials_as_permanent() {
+		assertEquals(FailureType.PERMANENT, classifier.classify(new AddressException("bad")));
+		assertEquals(FailureType.PERMANENT, classifier
+				.classify(new AuthenticationFailedException("535 Authentication failed")));
+		assertEquals(FailureType.PERMANENT, classifier.classify(new IllegalStateException()));
+	}
+
+	@Test
+	public void should_classify_local_failures_as_permanent_unless_the_relay_is_busy() {
+		assertEquals(FailureType.PERMANENT, classifier.classify(new NoSuchProviderException(
+				"smtp")));
+		assertEquals(FailureType.PERMANENT, classifier.classify(new MessagingException(
+				"Connection pool is closed")));
+		assertEquals(FailureType.TRANSIENT, classifier.classify(new RelayBusyException(
+				"Timed out after 100ms waiting for an SMTP connection")));
+		assertFalse("Should not have reached the server", classifier
+				.reachedEndpoint(new RelayBusyException("Timed out")));
+	}
+}
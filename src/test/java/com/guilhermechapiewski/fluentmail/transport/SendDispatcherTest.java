@@ -0,0 +1,137 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.transport.SendDispatcher.RejectionPolicy;
+
+/**
+ * Tests to {@link SendDispatcher}.
+ */
+public class SendDispatcherTest {
+
+	final List<Runnable> scheduled = new ArrayList<Runnable>();
+
+	final Executor deferred = new Executor() {
+		public void execute(Runnable command) {
+			synchronized (scheduled) {
+				scheduled.add(command);
+			}
+		}
+	};
+
+	final SendResult result = SendResult.success(new EmailMessage());
+
+	final Callable<SendResult> send = new Callable<SendResult>() {
+		public SendResult call() {
+			return result;
+		}
+	};
+
+	@Test
+	public void should_complete_future_when_send_runs() throws Exception {
+		SendDispatcher dispatcher = new SendDispatcher(deferred, 2, RejectionPolicy.ABORT);
+
+		CompletableFuture<SendResult> future = dispatcher.dispatch(send);
+
+		assertEquals("Should count queued send", 1, dispatcher.getQueueDepth());
+		scheduled.get(0).run();
+
+		assertSame("Should complete with send result", result, future.get());
+		assertEquals("Should count completed send", 1, dispatcher.getCompleted());
+		assertEquals("Should not have queued sends", 0, dispatcher.getQueueDepth());
+		assertEquals("Should not have sends in flight", 0, dispatcher.getInFlight());
+	}
+
+	@Test
+	public void should_reject_when_full_and_policy_is_abort() throws Exception {
+		SendDispatcher dispatcher = new SendDispatcher(deferred, 1, RejectionPolicy.ABORT);
+
+		dispatcher.dispatch(send);
+		CompletableFuture<SendResult> rejected = dispatcher.dispatch(send);
+
+		try {
+			rejected.get();
+			fail("Should reject send");
+		} catch (ExecutionException e) {
+			assertTrue("Should be rejected", e.getCause() instanceof RejectedExecutionException);
+		}
+		assertEquals("Should count rejection", 1, dispatcher.getRejected());
+	}
+
+	@Test
+	public void should_run_in_caller_when_full_and_policy_is_caller_runs() throws Exception {
+		SendDispatcher dispatcher = new SendDispatcher(deferred, 1, RejectionPolicy.CALLER_RUNS);
+
+		dispatcher.dispatch(send);
+		CompletableFuture<SendResult> future = dispatcher.dispatch(send);
+
+		assertTrue("Should send synchronously", future.isDone());
+		assertEquals("Should count caller run", 1, dispatcher.getCallerRuns());
+		assertEquals("Should schedule only the first send", 1, scheduled.size());
+	}
+
+	@Test
+	public void should_complete_exceptionally_when_send_fails() throws Exception {
+		SendDispatcher dispatcher = new SendDispatcher(deferred, 1, RejectionPolicy.ABORT);
+		final EmailTransportException failure = new EmailTransportException("failed", null);
+
+		CompletableFuture<SendResult> future = dispatcher.dispatch(new Callable<SendResult>() {
+			public SendResult call() {
+				throw failure;
+			}
+		});
+		scheduled.get(0).run();
+
+		try {
+			future.get();
+			fail("Should fail");
+		} catch (ExecutionException e) {
+			assertSame("Should propagate failure", failure, e.getCause());
+		}
+		assertEquals("Should count failure", 1, dispatcher.getFailed());
+
+		dispatcher.dispatch(send);
+		assertEquals("Should release the slot", 0, dispatcher.getRejected());
+	}
+
+	@Test
+	public void should_hand_delayed_send_to_executor_when_due() throws Exception {
+		SendDispatcher dispatcher = new SendDispatcher(deferred, 1, RejectionPolicy.ABORT);
+
+		dispatcher.dispatch(send, 100, TimeUnit.MILLISECONDS);
+		assertEquals("Should count delayed send as queued", 1, dispatcher.getQueueDepth());
+		assertTrue("Should not reach the executor yet", scheduled.isEmpty());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		synchronized (scheduled) {
+			while (scheduled.isEmpty() && System.currentTimeMillis() < deadline) {
+				scheduled.wait(10);
+			}
+		}
+		assertEquals("Should reach the executor after the delay", 1, scheduled.size());
+	}
+
+	@Test
+	public void should_send_on_sender_threads() throws Exception {
+		SendDispatcher dispatcher = SendDispatcher.withThreads(2, 10, RejectionPolicy.ABORT);
+
+		assertSame("Should send in background", result, dispatcher.dispatch(send).get());
+		assertEquals("Should bound pending sends", 12, dispatcher.getMaxPending());
+		dispatcher.shutdown();
+	}
+}
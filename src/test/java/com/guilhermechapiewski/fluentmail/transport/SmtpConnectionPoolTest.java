@@ -0,0 +1,265 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+
+import org.jmock.Expectations;
+import org.jmock.Mockery;
+import org.jmock.lib.legacy.ClassImposteriser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Tests to {@link SmtpConnectionPool}.
+ */
+public class SmtpConnectionPoolTest {
+
+	Mockery context = new Mockery() {
+		{
+			setImposteriser(ClassImposteriser.INSTANCE);
+		}
+	};
+
+	ConnectionFactory connectionFactory = context.mock(ConnectionFactory.class);
+	SmtpConnectionPool pool = new SmtpConnectionPool(connectionFactory,
+			new EmailTransportConfiguration());
+
+	@Before
+	public void setup() {
+		EmailTransportConfiguration.configurePool(0, 2, 2, 50, 3, 60000);
+	}
+
+	@After
+	public void restore_defaults() {
+		EmailTransportConfiguration.configurePool(0, 4, 8, 30000, 100, 60000);
+	}
+
+	@Test
+	public void should_reuse_released_connection_after_rset() throws Exception {
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).simpleCommand("RSET");
+				will(returnValue(250));
+			}
+		});
+
+		PooledConnection first = pool.borrow();
+		pool.release(first);
+		PooledConnection second = pool.borrow();
+
+		assertSame("Should reuse the idle connection", first, second);
+		assertEquals("Should count one miss", 1, pool.getStatistics().getMisses());
+		assertEquals("Should count one hit", 1, pool.getStatistics().getHits());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_replace_connection_that_fails_health_check() throws Exception {
+		final SMTPTransport broken = context.mock(SMTPTransport.class, "broken");
+		final SMTPTransport healthy = context.mock(SMTPTransport.class, "healthy");
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(broken));
+
+				one(broken).simpleCommand("RSET");
+				will(throwException(new MessagingException("Connection reset")));
+
+				one(broken).close();
+
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(healthy));
+			}
+		});
+
+		pool.release(pool.borrow());
+		PooledConnection connection = pool.borrow();
+
+		assertSame("Should open a new connection", healthy, connection.getTransport());
+		assertEquals("Should count the failed check", 1, pool.getStatistics()
+				.getHealthCheckFailures());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_close_connection_after_max_messages() throws Exception {
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).close();
+			}
+		});
+
+		PooledConnection connection = pool.borrow();
+		connection.messageSent();
+		connection.messageSent();
+		connection.messageSent();
+		pool.release(connection);
+
+		assertEquals("Should not keep the connection", 0, pool.getStatistics().getIdle());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_evict_idle_connections() throws Exception {
+		EmailTransportConfiguration.configurePool(0, 2, 2, 50, 3, 10);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+
+				one(transport).close();
+			}
+		});
+
+		pool.release(pool.borrow());
+		Thread.sleep(30);
+		pool.evictIdle();
+
+		assertEquals("Should evict the idle connection", 0, pool.getStatistics().getIdle());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_time_out_when_pool_is_exhausted() throws Exception {
+		final SMTPTransport first = context.mock(SMTPTransport.class, "first");
+		final SMTPTransport second = context.mock(SMTPTransport.class, "second");
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(first));
+
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(second));
+			}
+		});
+
+		pool.borrow();
+		pool.borrow();
+
+		try {
+			pool.borrow();
+			fail("Should not exceed the maximum number of connections");
+		} catch (MessagingException e) {
+			// expected
+		}
+
+		ConnectionPoolStatistics statistics = pool.getStatistics();
+		assertEquals("Should count the wait", 1, statistics.getWaits());
+		assertEquals("Should count the timeout", 1, statistics.getTimeouts());
+		assertTrue("Should record wait time", statistics.getTotalWaitNanos() > 0);
+	}
+
+	@Test
+	public void should_stop_waiting_for_a_connection_at_the_deadline() throws Exception {
+		EmailTransportConfiguration.configurePool(0, 1, 1, 30000, 3, 60000);
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+			}
+		});
+
+		pool.borrow();
+
+		long started = System.nanoTime();
+		try {
+			pool.borrow(Deadline.after(50, TimeUnit.MILLISECONDS));
+			fail("Should time out at the deadline");
+		} catch (SendTimeoutException e) {
+			// expected
+		}
+		assertTrue("Should not wait the whole pool timeout",
+				System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+		assertEquals("Should count the timeout", 1, pool.getStatistics().getTimeouts());
+	}
+
+	@Test
+	public void should_not_connect_once_the_deadline_passed() throws Exception {
+		Deadline deadline = Deadline.after(1, TimeUnit.MILLISECONDS);
+		Thread.sleep(5);
+
+		try {
+			pool.borrow(deadline);
+			fail("Should not connect after the deadline");
+		} catch (SendTimeoutException e) {
+			// expected
+		}
+		assertEquals("Should give the slot back", 0, pool.getStatistics().getActive());
+	}
+
+	@Test
+	public void should_prewarm_idle_connections_within_limits() throws Exception {
+		final SMTPTransport transport = context.mock(SMTPTransport.class);
+
+		context.checking(new Expectations() {
+			{
+				exactly(2).of(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(transport));
+			}
+		});
+
+		assertEquals("Should open up to the pool size", 2, pool.prewarm(3));
+		assertEquals("Should not open more once warm", 0, pool.prewarm(3));
+		assertEquals("Should keep the connections idle", 2, pool.getStatistics().getIdle());
+		assertEquals("Should not count sends waiting for a connection", 0, pool
+				.getStatistics().getMisses());
+		context.assertIsSatisfied();
+	}
+
+	@Test
+	public void should_close_idle_connections_that_do_not_answer_noop() throws Exception {
+		final SMTPTransport alive = context.mock(SMTPTransport.class, "alive");
+		final SMTPTransport dropped = context.mock(SMTPTransport.class, "dropped");
+
+		context.checking(new Expectations() {
+			{
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(alive));
+
+				one(connectionFactory).connect(with(any(Deadline.class)));
+				will(returnValue(dropped));
+
+				one(alive).simpleCommand("NOOP");
+				will(returnValue(250));
+
+				one(dropped).simpleCommand("NOOP");
+				will(throwException(new MessagingException("Connection closed by server")));
+
+				one(dropped).close();
+			}
+		});
+
+		pool.prewarm(2);
+		pool.keepAlive();
+
+		assertEquals("Should keep the live connection", 1, pool.getStatistics().getIdle());
+		assertEquals("Should count the dropped connection", 1, pool.getStatistics()
+				.getHealthCheckFailures());
+		context.assertIsSatisfied();
+	}
+}
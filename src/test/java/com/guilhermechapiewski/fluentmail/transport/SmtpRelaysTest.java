@@ -0,0 +1,136 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.mail.MessagingException;
+
+import org.junit.Test;
+
+/**
+ * Tests to {@link SmtpRelays} and its selectors.
+ */
+public class SmtpRelaysTest {
+
+	static final EmailTransportConfiguration config = new EmailTransportConfiguration();
+
+	@Test
+	public void should_parse_relay_list() {
+		List<RelayAddress> relays = RelayAddress.parseList("relay1.doe.com:587*3, relay2.doe.com");
+
+		assertEquals("Should parse both relays", 2, relays.size());
+		assertEquals("relay1.doe.com", relays.get(0).getHost());
+		assertEquals(587, relays.get(0).getPort());
+		assertEquals(3, relays.get(0).getWeight());
+		assertEquals("relay2.doe.com", relays.get(1).getHost());
+		assertEquals("Should default to protocol port", -1, relays.get(1).getPort());
+		assertEquals("Should default to weight 1", 1, relays.get(1).getWeight());
+	}
+
+	@Test
+	public void should_spread_sends_by_weight() throws Exception {
+		SmtpRelay heavy = relay("heavy.doe.com*3");
+		SmtpRelay light = relay("light.doe.com*1");
+		SmtpRelays relays = new SmtpRelays("", Arrays.asList(heavy, light),
+				new WeightedRoundRobinSelector());
+
+		int heavyCount = 0;
+		for (int i = 0; i < 40; i++) {
+			if (relays.acquire(null) == heavy) {
+				heavyCount++;
+			}
+		}
+
+		assertEquals("Should send three times as much to the heavier relay", 30, heavyCount);
+	}
+
+	@Test
+	public void should_prefer_relay_with_fewer_outstanding_sends() throws Exception {
+		SmtpRelay busy = relay("busy.doe.com");
+		SmtpRelay idle = relay("idle.doe.com");
+		busy.sendStarted();
+		busy.sendStarted();
+
+		SmtpRelays relays = new SmtpRelays("", Arrays.asList(busy, idle),
+				new LeastOutstandingSelector());
+
+		assertSame("Should pick the idle relay", idle, relays.acquire(null));
+	}
+
+	@Test
+	public void should_skip_excluded_and_open_relays() throws Exception {
+		SmtpRelay tried = relay("tried.doe.com");
+		SmtpRelay open = relay("open.doe.com");
+		SmtpRelay healthy = relay("healthy.doe.com");
+		open.getCircuitBreaker().recordFailure();
+
+		SmtpRelays relays = new SmtpRelays("", Arrays.asList(tried, open, healthy),
+				new WeightedRoundRobinSelector());
+
+		for (int i = 0; i < 5; i++) {
+			assertSame("Should pick the only healthy relay not tried yet", healthy, relays
+					.acquire(Collections.singleton(tried)));
+		}
+
+		healthy.getCircuitBreaker().recordFailure();
+		tried.getCircuitBreaker().recordFailure();
+		try {
+			relays.acquire(null);
+			fail("Should fail when every relay is open");
+		} catch (CircuitBreakerOpenException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void should_close_retired_relays_once_sends_are_done() throws Exception {
+		SmtpRelay relay = relay("old.doe.com");
+		SmtpRelays relays = new SmtpRelays("", Arrays.asList(relay),
+				new WeightedRoundRobinSelector());
+
+		assertTrue("Should admit a send", relays.enter());
+		relays.retire();
+		assertTrue("Should stay open while a send uses it", relays.enter());
+		relays.exit();
+		relays.exit();
+
+		assertFalse("Should refuse sends once drained", relays.enter());
+		try {
+			relay.getConnectionPool().borrow();
+			fail("Should close the connection pool once drained");
+		} catch (MessagingException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void should_keep_circuit_state_for_failures_the_relay_never_saw() throws Exception {
+		SmtpRelay relay = relay("relay.doe.com");
+		relay.sendStarted();
+		relay.sendFailed(new MessagingException("Could not connect", new SocketException()));
+		assertEquals(CircuitBreaker.State.OPEN, relay.getCircuitBreaker().getState());
+
+		relay.sendStarted();
+		relay.sendFailed(new SendTimeoutException("Send did not complete within 10ms"));
+		assertEquals("Should stay open", CircuitBreaker.State.OPEN, relay.getCircuitBreaker()
+				.getState());
+
+		relay.sendStarted();
+		relay.sendFailed(new MessagingException("550 5.1.1 User unknown"));
+		assertEquals("Should close once the relay answers", CircuitBreaker.State.CLOSED, relay
+				.getCircuitBreaker().getState());
+	}
+
+	private SmtpRelay relay(String server) {
+		return new SmtpRelay(RelayAddress.parse(server), new SmtpConnectionPool(null, config),
+				new CircuitBreaker(server, 1, 60000));
+	}
+}
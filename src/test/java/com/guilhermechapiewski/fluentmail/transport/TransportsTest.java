@@ -0,0 +1,98 @@
+package com.guilhermechapiewski.fluentmail.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.guilhermechapiewski.fluentmail.email.EmailMessage;
+import com.guilhermechapiewski.fluentmail.testing.SmtpSinkServer;
+
+/**
+ * Tests to {@link Transports}.
+ */
+public class TransportsTest {
+
+	SmtpSinkServer acme;
+	SmtpSinkServer globex;
+
+	@Before
+	public void setup() throws Exception {
+		acme = new SmtpSinkServer();
+		globex = new SmtpSinkServer();
+		Transports.register("acme", EmailTransportConfiguration.builder()
+				.smtp(acme.getAddress(), false, false, null, null).build());
+		Transports.register("globex", EmailTransportConfiguration.builder()
+				.smtp(globex.getAddress(), false, false, null, null).pool(0, 1, 1, 1000, 100, 0)
+				.build());
+	}
+
+	@After
+	public void cleanup() throws Exception {
+		Transports.unregister("acme");
+		Transports.unregister("globex");
+		acme.close();
+		globex.close();
+	}
+
+	@Test
+	public void should_send_through_the_named_transport() throws Exception {
+		new EmailMessage().via("acme").from("news@acme.com").to("john@doe.com")
+				.withSubject("subject").withBody("body").send();
+		new EmailMessage().via("globex").from("news@globex.com").to("john@doe.com")
+				.withSubject("subject").withBody("body").send();
+		new EmailMessage().via("globex").from("news@globex.com").to("jane@doe.com")
+				.withSubject("subject").withBody("body").send();
+
+		assertEquals("Should send to acme relay", 1, acme.getMessageCount());
+		assertEquals("Should send to globex relay", 2, globex.getMessageCount());
+		ConnectionPoolStatistics statistics = Transports.get("globex")
+				.getConnectionPoolStatistics();
+		assertEquals("Should keep statistics per transport", 2, statistics.getHits()
+				+ statistics.getMisses());
+	}
+
+	@Test
+	public void should_not_follow_changes_to_the_defaults() throws Exception {
+		EmailTransportConfiguration defaults = new EmailTransportConfiguration();
+		String smtpServer = defaults.getSmtpServer();
+		boolean authenticationRequired = defaults.isAuthenticationRequired();
+		boolean secure = defaults.useSecureSmtp();
+		String username = defaults.getUsername();
+		String password = defaults.getPassword();
+		try {
+			EmailTransportConfiguration.configure("changed.server.com", false, false, null, null);
+
+			assertEquals("Should follow the defaults", "changed.server.com",
+					defaults.getSmtpServer());
+			assertEquals("Should keep its own server", acme.getAddress(), Transports.get("acme")
+					.getConfiguration().getSmtpServer());
+			assertNotSame("Should have a session of its own", new PostalService().getSession(),
+					Transports.get("acme").getSession());
+		} finally {
+			EmailTransportConfiguration.configure(smtpServer, authenticationRequired, secure,
+					username, password);
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void should_not_reopen_a_replaced_transport() throws Exception {
+		PostalService replaced = Transports.get("acme");
+		Transports.register("acme", EmailTransportConfiguration.builder()
+				.smtp(acme.getAddress(), false, false, null, null).build());
+
+		replaced.send(new EmailMessage().from("news@acme.com").to("john@doe.com")
+				.withSubject("subject").withBody("body").build());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void should_not_find_unregistered_transport() throws Exception {
+		assertTrue(Transports.unregister("acme"));
+		assertFalse(Transports.unregister("acme"));
+		Transports.get("acme");
+	}
+}
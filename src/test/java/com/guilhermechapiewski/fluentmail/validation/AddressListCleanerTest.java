@@ -0,0 +1,80 @@
+package com.guilhermechapiewski.fluentmail.validation;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests to {@link AddressListCleaner}.
+ */
+public class AddressListCleanerTest {
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	AddressListCleaner cleaner = new AddressListCleaner(new EmailAddressValidator(),
+			ForkJoinPool.commonPool(), 3);
+
+	@Test
+	public void should_normalize_deduplicate_and_partition_in_order() throws Exception {
+		final List<String> valid = new ArrayList<String>();
+		final List<String> invalid = new ArrayList<String>();
+
+		String input = " John@Doe.com \n\nnot an address\nJohn Doe <john@doe.com>\n"
+				+ "jane@doe.com\n@doe.com\nJANE@DOE.COM\n";
+		CleaningReport report = cleaner.clean(new StringReader(input), new AddressSink() {
+			public void valid(String address) {
+				valid.add(address);
+			}
+
+			public void invalid(String line, AddressValidationResult reason) {
+				invalid.add(line + "=" + reason);
+			}
+		});
+
+		assertEquals(Arrays.asList("john@doe.com", "jane@doe.com"), valid);
+		assertEquals(Arrays.asList("not an address=INVALID_LOCAL_PART", "@doe.com=EMPTY_LOCAL_PART"),
+				invalid);
+		assertEquals("Should skip blank lines", 6, report.getTotal());
+		assertEquals(2, report.getValid());
+		assertEquals(2, report.getDuplicates());
+		assertEquals(2, report.getInvalid());
+		assertEquals(Long.valueOf(1), report.getInvalidByReason().get(
+				AddressValidationResult.EMPTY_LOCAL_PART));
+	}
+
+	@Test
+	public void should_clean_file_into_valid_and_invalid_files() throws Exception {
+		File input = folder.newFile("input.txt");
+		File valid = new File(folder.getRoot(), "valid.txt");
+		File invalid = new File(folder.getRoot(), "invalid.txt");
+
+		List<String> lines = new ArrayList<String>();
+		for (int i = 0; i < 5000; i++) {
+			lines.add(i % 10 == 0 ? "garbage " + i : "user" + (i % 2000) + "@doe.com");
+		}
+		Files.write(input.toPath(), lines, UTF8);
+
+		CleaningReport report = new AddressListCleaner().clean(input.toPath(), valid.toPath(),
+				invalid.toPath(), UTF8);
+
+		assertEquals(1800, report.getValid());
+		assertEquals(500, report.getInvalid());
+		assertEquals(1800, Files.readAllLines(valid.toPath(), UTF8).size());
+		assertEquals("garbage 0\tINVALID_LOCAL_PART", Files.readAllLines(invalid.toPath(), UTF8)
+				.get(0));
+	}
+}
@@ -33,4 +33,59 @@ public class EmailAddressValidatorTest {
 	public void should_not_validate_null_address() {
 		assertFalse(validator.validate(null));
 	}
+
+	@Test
+	public void should_tell_why_address_is_invalid() {
+		assertEquals(AddressValidationResult.MISSING_AT, validator.check("gc.com.br"));
+		assertEquals(AddressValidationResult.EMPTY_LOCAL_PART, validator.check("@test.com.br"));
+		assertEquals(AddressValidationResult.EMPTY_DOMAIN, validator.check("john@"));
+		assertEquals(AddressValidationResult.INVALID_LOCAL_PART, validator.check("john..doe@doe.com"));
+		assertEquals(AddressValidationResult.INVALID_DOMAIN, validator.check("john@doe..com"));
+		assertEquals(AddressValidationResult.LOCAL_PART_TOO_LONG, validator.check(repeat('a', 65)
+				+ "@doe.com"));
+	}
+
+	@Test
+	public void should_validate_display_names_quoted_and_international_addresses() {
+		assertTrue(validator.validate("John Doe <john@doe.com>"));
+		assertTrue(validator.validate("\"john doe\"@doe.com"));
+		assertTrue(validator.validate("john@[127.0.0.1]"));
+		assertTrue(validator.validate("jos\u00e9@exemplo.com.br"));
+		assertFalse(validator.validate("John <john@doe.com"));
+	}
+
+	@Test
+	public void should_agree_with_internet_address_compatibility_mode() {
+		EmailAddressValidator compatible = new EmailAddressValidator(
+				EmailAddressValidator.Mode.INTERNET_ADDRESS, 0);
+		String[] addresses = { "g@g.com", "john.doe@example.com", "John Doe <john@doe.com>",
+				"a+tag@doe.com", "a@localhost", " a@b.com ", "22 Acacia Avenue", "gc.com.br",
+				"@test.com.br", "", "a@", "a@@b.com", "a b@c.com", "a@b c.com", "a(b)@c.com" };
+
+		for (String address : addresses) {
+			assertEquals("Should agree on [" + address + "]", compatible.validate(address),
+					validator.validate(address));
+		}
+	}
+
+	@Test
+	public void should_cache_verdicts() {
+		EmailAddressValidator cached = new EmailAddressValidator(EmailAddressValidator.Mode.SCANNER,
+				16);
+
+		assertFalse(cached.validate("not an address"));
+		assertFalse(cached.validate("not an address"));
+		assertTrue(cached.validate("john@doe.com"));
+
+		assertEquals(1, cached.getCacheHits());
+		assertEquals(2, cached.getCacheMisses());
+	}
+
+	private String repeat(char c, int times) {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < times; i++) {
+			s.append(c);
+		}
+		return s.toString();
+	}
 }